@@ -18,6 +18,9 @@
  */
 package org.apache.sling.xss;
 
+import java.io.IOException;
+import java.io.Writer;
+
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.osgi.annotation.versioning.ProviderType;
@@ -220,6 +223,72 @@ public interface XSSAPI {
     @Nullable
     String encodeForCSSString(@Nullable String source);
 
+    /**
+     * Encodes a source string for HTML element content and writes it to {@code out}, without creating an intermediate string.
+     * The same restrictions as for {@link #encodeForHTML(String)} apply. Nothing is written if the source is {@code null}.
+     *
+     * @param out    the writer to write the encoded source to
+     * @param source the input to encode
+     * @throws IOException if writing to {@code out} fails
+     * @since 2.1.0
+     */
+    void encodeForHTML(@NotNull Writer out, @Nullable CharSequence source) throws IOException;
+
+    /**
+     * Encodes a source string for writing to an HTML attribute value and writes it to {@code out}, without creating an intermediate string.
+     * The same restrictions as for {@link #encodeForHTMLAttr(String)} apply. Nothing is written if the source is {@code null}.
+     *
+     * @param out    the writer to write the encoded source to
+     * @param source the input to encode
+     * @throws IOException if writing to {@code out} fails
+     * @since 2.1.0
+     */
+    void encodeForHTMLAttr(@NotNull Writer out, @Nullable CharSequence source) throws IOException;
+
+    /**
+     * Encodes a source string for XML element content and writes it to {@code out}, without creating an intermediate string.
+     * The same restrictions as for {@link #encodeForXML(String)} apply. Nothing is written if the source is {@code null}.
+     *
+     * @param out    the writer to write the encoded source to
+     * @param source the input to encode
+     * @throws IOException if writing to {@code out} fails
+     * @since 2.1.0
+     */
+    void encodeForXML(@NotNull Writer out, @Nullable CharSequence source) throws IOException;
+
+    /**
+     * Encodes a source string for writing to an XML attribute value and writes it to {@code out}, without creating an intermediate string.
+     * The same restrictions as for {@link #encodeForXMLAttr(String)} apply. Nothing is written if the source is {@code null}.
+     *
+     * @param out    the writer to write the encoded source to
+     * @param source the input to encode
+     * @throws IOException if writing to {@code out} fails
+     * @since 2.1.0
+     */
+    void encodeForXMLAttr(@NotNull Writer out, @Nullable CharSequence source) throws IOException;
+
+    /**
+     * Encodes a source string for writing to JavaScript string content and writes it to {@code out}, without creating an intermediate string.
+     * The same restrictions as for {@link #encodeForJSString(String)} apply. Nothing is written if the source is {@code null}.
+     *
+     * @param out    the writer to write the encoded source to
+     * @param source the input to encode
+     * @throws IOException if writing to {@code out} fails
+     * @since 2.1.0
+     */
+    void encodeForJSString(@NotNull Writer out, @Nullable CharSequence source) throws IOException;
+
+    /**
+     * Encodes a source string for writing to CSS string content and writes it to {@code out}, without creating an intermediate string.
+     * The same restrictions as for {@link #encodeForCSSString(String)} apply. Nothing is written if the source is {@code null}.
+     *
+     * @param out    the writer to write the encoded source to
+     * @param source the input to encode
+     * @throws IOException if writing to {@code out} fails
+     * @since 2.1.0
+     */
+    void encodeForCSSString(@NotNull Writer out, @Nullable CharSequence source) throws IOException;
+
     // =============================================================================================
     // FILTERS
     //
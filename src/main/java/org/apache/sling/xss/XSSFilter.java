@@ -42,6 +42,20 @@ public interface XSSFilter {
      */
     boolean check(ProtectionContext context, String src);
 
+    /**
+     * Indicates whether or not a given source string contains XSS policy violations, according to a named policy.
+     * <p>
+     * If no policy with the given name is configured, or it cannot be loaded, the default policy is used.
+     *
+     * @param context    context to use for checking
+     * @param src        source string
+     * @param policyName the name of the policy to check against; the default policy is used if <code>null</code>
+     * @return true if the source is violation-free
+     * @throws NullPointerException if context is <code>null</code>
+     * @since 2.1.0
+     */
+    boolean check(ProtectionContext context, String src, String policyName);
+
     /**
      * Prevents the given source string from containing XSS stuff.
      * <p>
@@ -62,6 +76,20 @@ public interface XSSFilter {
      */
     String filter(ProtectionContext context, String src);
 
+    /**
+     * Protects the given source string from containing XSS stuff, according to a named policy.
+     * <p>
+     * If no policy with the given name is configured, or it cannot be loaded, the default policy is used.
+     *
+     * @param context    context to use for checking
+     * @param src        source string
+     * @param policyName the name of the policy to filter with; the default policy is used if <code>null</code>
+     * @return string that does not contain XSS stuff
+     * @throws NullPointerException if context is <code>null</code>
+     * @since 2.1.0
+     */
+    String filter(ProtectionContext context, String src, String policyName);
+
     /**
      * Checks if the given URL is valid to be used for the <code>href</code> attribute in a <code>a</code> tag.
      * <p>
@@ -71,4 +99,17 @@ public interface XSSFilter {
      * @return true if the URL is violation-free
      */
     boolean isValidHref(String url);
+
+    /**
+     * Checks if the given URL is valid to be used for the <code>href</code> attribute in a <code>a</code> tag,
+     * according to a named policy.
+     * <p>
+     * If no policy with the given name is configured, or it cannot be loaded, the default policy is used.
+     *
+     * @param url        the URL that should be validated
+     * @param policyName the name of the policy to check against; the default policy is used if <code>null</code>
+     * @return true if the URL is violation-free
+     * @since 2.1.0
+     */
+    boolean isValidHref(String url, String policyName);
 }
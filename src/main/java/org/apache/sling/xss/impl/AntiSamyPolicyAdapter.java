@@ -24,6 +24,7 @@ import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -33,6 +34,7 @@ import java.util.regex.Pattern;
 import org.apache.sling.xss.impl.style.CssValidator;
 import org.apache.sling.xss.impl.xml.AntiSamyPolicy;
 import org.apache.sling.xss.impl.xml.Attribute;
+import org.apache.sling.xss.impl.xml.Regexp;
 import org.apache.sling.xss.impl.xml.Tag;
 import org.jetbrains.annotations.Nullable;
 import org.owasp.html.AttributePolicy;
@@ -47,14 +49,25 @@ public class AntiSamyPolicyAdapter {
     private final List<String> onInvalidRemoveTagList = new ArrayList<>();
     private final Map<String, AttributePolicy> dynamicAttributesPolicyMap = new HashMap<>();
 
+    private final SanitizerProfile profile;
+
     private PolicyFactory policyFactory;
     private CssValidator cssValidator;
 
     public AntiSamyPolicyAdapter(AntiSamyPolicy policy) {
+        this(policy, null);
+    }
+
+    /**
+     * @param profile optional profile to which the time spent in every attribute matcher and CSS property is
+     *                reported; the rules of an adapter with a profile must only be applied by one thread at a time
+     */
+    public AntiSamyPolicyAdapter(AntiSamyPolicy policy, @Nullable SanitizerProfile profile) {
+        this.profile = profile;
         removeAttributeGuards();
         HtmlPolicyBuilder policyBuilder = new HtmlPolicyBuilder();
 
-        cssValidator = new CssValidator(policy.getCssPolicy());
+        cssValidator = new CssValidator(policy.getCssPolicy(), profile);
 
         // ------------ this is for the global attributes -------------
         Map<String, Attribute> globalAttributes = policy.getGlobalAttributes();
@@ -79,17 +92,17 @@ public class AntiSamyPolicyAdapter {
                     // an OR and not with an AND.
                     policyBuilder
                             .allowAttributes(attribute.getName())
-                            .matching(matchesPatternsOrLiterals(patternList, true, literalList))
+                            .matching(matchesPatternsOrLiterals(patternList, true, literalList, decorator(attribute)))
                             .globally();
                 } else if (!literalList.isEmpty()) {
                     policyBuilder
                             .allowAttributes(attribute.getName())
-                            .matching(true, literalList.toArray(new String[0]))
+                            .matching(matchesLiterals(literalList, decorator(attribute)))
                             .globally();
                 } else if (!patternList.isEmpty()) {
                     policyBuilder
                             .allowAttributes(attribute.getName())
-                            .matching(matchesToPatterns(patternList))
+                            .matching(matchesToPatterns(patternList, decorator(attribute)))
                             .globally();
                 } else {
                     policyBuilder.allowAttributes(attribute.getName()).globally();
@@ -143,7 +156,8 @@ public class AntiSamyPolicyAdapter {
 
                         policyBuilder
                                 .allowAttributes(attribute.getName())
-                                .matching(matchesPatternsOrLiterals(patternList, true, literalList))
+                                .matching(
+                                        matchesPatternsOrLiterals(patternList, true, literalList, decorator(attribute)))
                                 .onElements(tag.getValue().getName());
                     }
 
@@ -181,7 +195,8 @@ public class AntiSamyPolicyAdapter {
 
                 dynamicAttributesPolicyMap.put(
                         attribute.getName(),
-                        newDynamicAttributePolicy(regexsFromAttribute, true, allowedValuesFromAttribute));
+                        newDynamicAttributePolicy(
+                                regexsFromAttribute, true, allowedValuesFromAttribute, decorator(attribute)));
             }
         }
 
@@ -204,45 +219,94 @@ public class AntiSamyPolicyAdapter {
         return cssValidator;
     }
 
-    private static Predicate<String> matchesToPatterns(List<Pattern> patternList) {
-        return new Predicate<String>() {
-            @Override
-            public boolean test(String s) {
-                for (Pattern pattern : patternList) {
-                    if (pattern.matcher(s).matches()) {
-                        return true;
-                    }
-                }
-                return false;
-            }
-        };
+    private static Predicate<String> matchesToPatterns(
+            List<Pattern> patternList, AttributeMatchers.Decorator decorator) {
+        return AttributeMatchers.anyOf(patternList, decorator);
     }
 
     private static Predicate<String> matchesPatternsOrLiterals(
-            List<Pattern> patternList, boolean ignoreCase, List<String> literalList) {
-        return new Predicate<String>() {
-            @Override
-            public boolean test(String s) {
-                // check if the string matches to the pattern or one of the literal
-                s = ignoreCase ? s.toLowerCase() : s;
-                return matchesToPatterns(patternList).test(s) || literalList.contains(s);
-            }
+            List<Pattern> patternList,
+            boolean ignoreCase,
+            List<String> literalList,
+            AttributeMatchers.Decorator decorator) {
+        // check if the string matches to the pattern or one of the literal
+        return AttributeMatchers.anyOf(patternList, ignoreCase, literalList, decorator);
+    }
+
+    /**
+     * Matches like {@link HtmlPolicyBuilder.AttributeBuilder#matching(boolean, String...)} with {@code ignoreCase}:
+     * the value is lower-cased in the ASCII range and, if it is one of the literals, replaced by its lower case form.
+     */
+    private static AttributePolicy matchesLiterals(List<String> literalList, AttributeMatchers.Decorator decorator) {
+        Predicate<String> matcher = decorator.decorate(null, new HashSet<>(literalList)::contains);
+        return (elementName, attributeName, value) -> {
+            String lowerCase = toLowerCaseAscii(value);
+            return matcher.test(lowerCase) ? lowerCase : null;
         };
     }
 
     public AttributePolicy newDynamicAttributePolicy(
             final List<Pattern> patternList, final boolean ignoreCase, final List<String> literalList) {
+        return newDynamicAttributePolicy(patternList, ignoreCase, literalList, AttributeMatchers.UNDECORATED);
+    }
+
+    private static AttributePolicy newDynamicAttributePolicy(
+            List<Pattern> patternList,
+            boolean ignoreCase,
+            List<String> literalList,
+            AttributeMatchers.Decorator decorator) {
+        Predicate<String> matcher = matchesPatternsOrLiterals(patternList, ignoreCase, literalList, decorator);
         return new AttributePolicy() {
             @Override
             public @Nullable String apply(String elementName, String attributeName, String value) {
-                return matchesPatternsOrLiterals(patternList, ignoreCase, literalList)
-                                .test(value)
-                        ? value
-                        : null;
+                return matcher.test(value) ? value : null;
             }
         };
     }
 
+    /**
+     * @return a decorator which reports the time spent in the matchers of the attribute's regular expressions and
+     *     literals to the profile, if there is one
+     */
+    private AttributeMatchers.Decorator decorator(Attribute attribute) {
+        if (profile == null) {
+            return AttributeMatchers.UNDECORATED;
+        }
+        return (pattern, matcher) -> {
+            String rule =
+                    attribute.getName() + (pattern == null ? " literals" : " regexp " + ruleName(attribute, pattern));
+            return value -> {
+                long start = profile.start();
+                boolean matches = matcher.test(value);
+                profile.record(SanitizerProfile.Category.ATTRIBUTE, rule, start);
+                return matches;
+            };
+        };
+    }
+
+    private static String ruleName(Attribute attribute, Pattern pattern) {
+        for (Regexp regexp : attribute.getRegexpList()) {
+            if (regexp.getPattern() == pattern) {
+                return regexp.getName() != null ? regexp.getName() : regexp.getValue();
+            }
+        }
+        return pattern.pattern();
+    }
+
+    private static String toLowerCaseAscii(String value) {
+        char[] chars = null;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                if (chars == null) {
+                    chars = value.toCharArray();
+                }
+                chars[i] = (char) (c | 0x20);
+            }
+        }
+        return chars == null ? value : new String(chars);
+    }
+
     // java html sanitizer has some default Attribute Guards, which we don't want.
     // So we are removing them here
     private void removeAttributeGuards() {
@@ -0,0 +1,335 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.xss.impl;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Compiles the regular expressions and literals of a policy's attributes into matchers, once when the policy is
+ * loaded.
+ * <p>
+ * Most attribute rules of a policy are either a list of literals or one of a few simple shapes of regular
+ * expressions, which are cheaper to check directly than with a {@link java.util.regex.Matcher}:
+ * <ul>
+ *     <li>{@code .*}, which matches any value without a line terminator, or any value at all with
+ *     {@link Pattern#DOTALL};</li>
+ *     <li>an alternation of words, like {@code (true|false)}, which is matched with a set lookup;</li>
+ *     <li>a repeated character class, like {@code [a-zA-Z0-9\-_]+}, whose ASCII characters are matched with a
+ *     lookup table and which may include the {@code \p{L}} and {@code \p{N}} categories.</li>
+ * </ul>
+ * Every other expression, and every expression compiled with flags other than {@link Pattern#DOTALL}, is matched
+ * with its {@link Pattern}, so a compiled matcher accepts exactly the values its expression matches.
+ */
+final class AttributeMatchers {
+
+    /**
+     * Wraps the matchers compiled for the single patterns and for the literals, for instance to time them.
+     */
+    interface Decorator {
+
+        /**
+         * @param pattern the pattern the matcher was compiled for or {@code null} for the literals
+         * @param matcher the matcher
+         * @return the matcher to use instead
+         */
+        @NotNull
+        Predicate<String> decorate(@Nullable Pattern pattern, @NotNull Predicate<String> matcher);
+    }
+
+    /**
+     * Leaves the matchers as they are.
+     */
+    static final Decorator UNDECORATED = (pattern, matcher) -> matcher;
+
+    private static final Predicate<String> ANYTHING = value -> true;
+
+    private static final Predicate<String> ANYTHING_ON_ONE_LINE = AttributeMatchers::hasNoLineTerminator;
+
+    private AttributeMatchers() {}
+
+    /**
+     * Compiles a matcher which accepts values matching any of the patterns.
+     *
+     * @param patterns the patterns
+     * @return the matcher
+     */
+    static @NotNull Predicate<String> anyOf(@NotNull List<Pattern> patterns) {
+        return anyOf(patterns, UNDECORATED);
+    }
+
+    /**
+     * Compiles a matcher which accepts values matching any of the patterns.
+     *
+     * @param patterns  the patterns
+     * @param decorator wraps the matcher compiled for every pattern
+     * @return the matcher
+     */
+    static @NotNull Predicate<String> anyOf(@NotNull List<Pattern> patterns, @NotNull Decorator decorator) {
+        List<Predicate<String>> matchers = new ArrayList<>(patterns.size());
+        for (Pattern pattern : patterns) {
+            matchers.add(decorator.decorate(pattern, compile(pattern)));
+        }
+        if (matchers.size() == 1) {
+            return matchers.get(0);
+        }
+        @SuppressWarnings("unchecked")
+        Predicate<String>[] array = matchers.toArray(new Predicate[0]);
+        return value -> {
+            for (Predicate<String> matcher : array) {
+                if (matcher.test(value)) {
+                    return true;
+                }
+            }
+            return false;
+        };
+    }
+
+    /**
+     * Compiles a matcher which accepts values that are one of the literals or match any of the patterns.
+     *
+     * @param patterns   the patterns
+     * @param ignoreCase whether the value is lower-cased before it is matched
+     * @param literals   the literals, in lower case if {@code ignoreCase} is set
+     * @return the matcher
+     */
+    static @NotNull Predicate<String> anyOf(
+            @NotNull List<Pattern> patterns, boolean ignoreCase, @NotNull List<String> literals) {
+        return anyOf(patterns, ignoreCase, literals, UNDECORATED);
+    }
+
+    /**
+     * Compiles a matcher which accepts values that are one of the literals or match any of the patterns.
+     *
+     * @param patterns   the patterns
+     * @param ignoreCase whether the value is lower-cased before it is matched
+     * @param literals   the literals, in lower case if {@code ignoreCase} is set
+     * @param decorator  wraps the matchers compiled for every pattern and for the literals
+     * @return the matcher
+     */
+    static @NotNull Predicate<String> anyOf(
+            @NotNull List<Pattern> patterns,
+            boolean ignoreCase,
+            @NotNull List<String> literals,
+            @NotNull Decorator decorator) {
+        Predicate<String> patternMatcher = anyOf(patterns, decorator);
+        Predicate<String> literalMatcher = decorator.decorate(null, new HashSet<>(literals)::contains);
+        return value -> {
+            String s = ignoreCase ? value.toLowerCase() : value;
+            return literalMatcher.test(s) || patternMatcher.test(s);
+        };
+    }
+
+    /**
+     * Compiles a matcher which accepts values matching the pattern.
+     *
+     * @param pattern the pattern
+     * @return the matcher
+     */
+    static @NotNull Predicate<String> compile(@NotNull Pattern pattern) {
+        // DOTALL only affects the '.' outside of character classes
+        if (pattern.flags() == 0 || pattern.flags() == Pattern.DOTALL) {
+            String regex = pattern.pattern();
+            if (".*".equals(regex)) {
+                return pattern.flags() == 0 ? ANYTHING_ON_ONE_LINE : ANYTHING;
+            }
+            Set<String> words = parseWords(regex);
+            if (words != null) {
+                return words::contains;
+            }
+            CharClass charClass = parseRepeatedCharClass(regex);
+            if (charClass != null) {
+                return charClass;
+            }
+        }
+        return value -> pattern.matcher(value).matches();
+    }
+
+    private static boolean hasNoLineTerminator(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses {@code word|word} or {@code (word|word)}, where the words consist of ASCII letters, digits, {@code -}
+     * and {@code _}.
+     */
+    private static @Nullable Set<String> parseWords(String regex) {
+        String alternation = regex;
+        if (alternation.startsWith("(") && alternation.endsWith(")")) {
+            alternation = alternation.substring(1, alternation.length() - 1);
+        }
+        Set<String> words = new HashSet<>();
+        int start = 0;
+        for (int i = 0; i <= alternation.length(); i++) {
+            if (i == alternation.length() || alternation.charAt(i) == '|') {
+                if (i == start) {
+                    return null;
+                }
+                words.add(alternation.substring(start, i));
+                start = i + 1;
+            } else if (!isWordChar(alternation.charAt(i))) {
+                return null;
+            }
+        }
+        return words;
+    }
+
+    private static boolean isWordChar(char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '-' || c == '_';
+    }
+
+    /**
+     * Parses {@code [...]+} or {@code [...]*}, where the class consists of ASCII characters, ranges of ASCII letters
+     * and digits, escaped ASCII punctuation, {@code \s}, {@code \d}, {@code \w}, {@code \p{L}} and {@code \p{N}}.
+     */
+    private static @Nullable CharClass parseRepeatedCharClass(String regex) {
+        if (regex.length() < 4 || regex.charAt(0) != '[' || !(regex.endsWith("]+") || regex.endsWith("]*"))) {
+            return null;
+        }
+        String body = regex.substring(1, regex.length() - 2);
+        CharClass charClass = new CharClass(regex.endsWith("]+"));
+        for (int i = 0; i < body.length(); i++) {
+            char c = body.charAt(i);
+            if (c == '\\') {
+                if (++i == body.length()) {
+                    return null;
+                }
+                char escaped = body.charAt(i);
+                if (escaped == 's') {
+                    charClass.add(" \t\n\u000B\f\r");
+                } else if (escaped == 'd') {
+                    charClass.add('0', '9');
+                } else if (escaped == 'w') {
+                    charClass.add('a', 'z');
+                    charClass.add('A', 'Z');
+                    charClass.add('0', '9');
+                    charClass.add("_");
+                } else if (escaped == 'p' && body.startsWith("{L}", i + 1)) {
+                    charClass.letters = true;
+                    i += 3;
+                } else if (escaped == 'p' && body.startsWith("{N}", i + 1)) {
+                    charClass.numbers = true;
+                    i += 3;
+                } else if (escaped < 0x80 && !Character.isLetterOrDigit(escaped)) {
+                    charClass.add(String.valueOf(escaped));
+                } else {
+                    return null;
+                }
+                if (i + 1 < body.length() - 1 && body.charAt(i + 1) == '-') {
+                    // a range starting with an escape
+                    return null;
+                }
+            } else if (c == '[' || c == ']' || c == '^' && i == 0 || c == '&' && body.startsWith("&&", i)) {
+                return null;
+            } else if (c == '-') {
+                if (i != 0 && i != body.length() - 1) {
+                    return null;
+                }
+                charClass.add("-");
+            } else if (i + 2 < body.length() && body.charAt(i + 1) == '-') {
+                char end = body.charAt(i + 2);
+                if (!isRangeBound(c) || !isRangeBound(end) || end < c) {
+                    return null;
+                }
+                charClass.add(c, end);
+                i += 2;
+            } else if (c < 0x80) {
+                charClass.add(String.valueOf(c));
+            } else {
+                return null;
+            }
+        }
+        return charClass;
+    }
+
+    private static boolean isRangeBound(char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9';
+    }
+
+    /**
+     * A repeated character class.
+     */
+    private static final class CharClass implements Predicate<String> {
+
+        private final boolean[] ascii = new boolean[0x80];
+        private final boolean nonEmpty;
+        private boolean letters;
+        private boolean numbers;
+
+        private CharClass(boolean nonEmpty) {
+            this.nonEmpty = nonEmpty;
+        }
+
+        private void add(char from, char to) {
+            for (char c = from; c <= to; c++) {
+                ascii[c] = true;
+            }
+        }
+
+        private void add(String chars) {
+            for (int i = 0; i < chars.length(); i++) {
+                ascii[chars.charAt(i)] = true;
+            }
+        }
+
+        @Override
+        public boolean test(String value) {
+            if (value.isEmpty()) {
+                return !nonEmpty;
+            }
+            for (int i = 0; i < value.length(); ) {
+                int codePoint = value.codePointAt(i);
+                if (!matches(codePoint)) {
+                    return false;
+                }
+                i += Character.charCount(codePoint);
+            }
+            return true;
+        }
+
+        private boolean matches(int codePoint) {
+            if (codePoint < 0x80 && ascii[codePoint]) {
+                return true;
+            }
+            if (letters && Character.isLetter(codePoint)) {
+                return true;
+            }
+            if (numbers) {
+                int type = Character.getType(codePoint);
+                return type == Character.DECIMAL_DIGIT_NUMBER
+                        || type == Character.LETTER_NUMBER
+                        || type == Character.OTHER_NUMBER;
+            }
+            return false;
+        }
+    }
+}
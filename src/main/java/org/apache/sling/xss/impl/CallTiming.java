@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.xss.impl;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Times calls for the {@link XSSMetricsService} and the {@link PerformanceMonitor}, which sample calls independently
+ * of each other, each at its own rate.
+ * <p>
+ * A call is timed once if either of them samples it. The start token carries the start time in its upper bits and,
+ * in its two lowest bits, which of the recorders sampled the call; each recorder is then only handed the calls it
+ * sampled itself.
+ */
+final class CallTiming {
+
+    private static final long METRICS = 1;
+    private static final long MONITOR = 2;
+    private static final long FLAGS = METRICS | MONITOR;
+
+    private CallTiming() {}
+
+    /**
+     * @param metrics the metrics service, if available
+     * @param monitor the performance monitor, if available
+     * @return the start token of the call about to start
+     */
+    static long start(@Nullable XSSMetricsService metrics, @Nullable PerformanceMonitor monitor) {
+        long metricsStart = metrics == null ? XSSMetricsService.NOT_SAMPLED : metrics.startTiming();
+        long monitorStart = monitor == null ? XSSMetricsService.NOT_SAMPLED : monitor.startTiming();
+        long flags = (metricsStart != XSSMetricsService.NOT_SAMPLED ? METRICS : 0)
+                | (monitorStart != XSSMetricsService.NOT_SAMPLED ? MONITOR : 0);
+        if (flags == 0) {
+            return XSSMetricsService.NOT_SAMPLED;
+        }
+        return ((flags & METRICS) != 0 ? metricsStart : monitorStart) & ~FLAGS | flags;
+    }
+
+    /**
+     * @param token the token returned by {@link #start}
+     * @return the start token to hand to the {@link XSSMetricsService}
+     */
+    static long forMetrics(long token) {
+        return token != XSSMetricsService.NOT_SAMPLED && (token & METRICS) != 0 ? token : XSSMetricsService.NOT_SAMPLED;
+    }
+
+    /**
+     * @param token the token returned by {@link #start}
+     * @return the start token to hand to the {@link PerformanceMonitor}
+     */
+    static long forMonitor(long token) {
+        return token != XSSMetricsService.NOT_SAMPLED && (token & MONITOR) != 0 ? token : XSSMetricsService.NOT_SAMPLED;
+    }
+
+    /**
+     * Records a call with both recorders.
+     *
+     * @param metrics   the metrics service, if available
+     * @param monitor   the performance monitor, if available
+     * @param operation the operation
+     * @param token     the token returned by {@link #start} when the call started
+     * @param input     the input of the call
+     * @param output    the output of the call; {@code null} if the operation does not produce a string
+     */
+    static void record(
+            @Nullable XSSMetricsService metrics,
+            @Nullable PerformanceMonitor monitor,
+            XSSOperation operation,
+            long token,
+            @Nullable CharSequence input,
+            @Nullable CharSequence output) {
+        record(metrics, monitor, operation, token, input, output, false);
+    }
+
+    /**
+     * Records a call with both recorders.
+     *
+     * @param metrics   the metrics service, if available
+     * @param monitor   the performance monitor, if available
+     * @param operation the operation
+     * @param token     the token returned by {@link #start} when the call started
+     * @param input     the input of the call
+     * @param output    the output of the call; {@code null} if the operation does not produce a string
+     * @param captured  {@code true} if the caller keeps the call in its own slow call log together with its input
+     */
+    static void record(
+            @Nullable XSSMetricsService metrics,
+            @Nullable PerformanceMonitor monitor,
+            XSSOperation operation,
+            long token,
+            @Nullable CharSequence input,
+            @Nullable CharSequence output,
+            boolean captured) {
+        if (metrics != null) {
+            metrics.record(operation, forMetrics(token), input, output);
+        }
+        if (monitor != null) {
+            monitor.record(operation, forMonitor(token), input, captured);
+        }
+    }
+}
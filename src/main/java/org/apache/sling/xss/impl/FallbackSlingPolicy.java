@@ -24,6 +24,7 @@ import java.io.IOException;
 import java.io.InputStream;
 
 import org.apache.sling.xss.impl.xml.AntiSamyPolicy;
+import org.apache.sling.xss.impl.xml.AntiSamyRules;
 import org.apache.sling.xss.impl.xml.Tag;
 
 public class FallbackSlingPolicy extends AntiSamyPolicy {
@@ -31,7 +32,15 @@ public class FallbackSlingPolicy extends AntiSamyPolicy {
     public FallbackSlingPolicy(InputStream inputStream) throws InvalidConfigException, XMLStreamException, IOException {
 
         super(inputStream);
+        wrapATag();
+    }
+
+    public FallbackSlingPolicy(AntiSamyRules rules) throws InvalidConfigException {
+        super(rules);
+        wrapATag();
+    }
 
+    private void wrapATag() {
         Tag original = tagRules.get("a");
         if (original != null) {
             Tag wrapped = new FallbackATag(original);
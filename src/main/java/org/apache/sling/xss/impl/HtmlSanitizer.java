@@ -23,38 +23,180 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 
+import org.apache.sling.xss.impl.SanitizerLimits.Limit;
+import org.apache.sling.xss.impl.SanitizerLimits.LimitExceededException;
+import org.apache.sling.xss.impl.jfr.FlightRecorderEvents;
+import org.apache.sling.xss.impl.status.RejectionStatistics;
+import org.apache.sling.xss.impl.status.RejectionStatistics.Reason;
 import org.apache.sling.xss.impl.xml.AntiSamyPolicy;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.owasp.html.DynamicAttributesSanitizerPolicy;
 import org.owasp.html.Handler;
+import org.owasp.html.HtmlSegmenter;
 import org.owasp.html.HtmlStreamEventReceiver;
 import org.owasp.html.HtmlStreamRenderer;
 import org.owasp.html.PolicyFactory;
+import org.owasp.html.PolicySymbolTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class HtmlSanitizer {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(HtmlSanitizer.class);
+    private static final Reason[] REASONS = Reason.values();
+
     private AntiSamyPolicyAdapter customPolicy;
     private Map policies;
     private Set<String> textContainers;
+    private PolicySymbolTable symbols;
+    private final RejectionStatistics rejectionStatistics = new RejectionStatistics();
+    private final AntiSamyPolicy policy;
+    private final SanitizerProfile profile;
 
     public HtmlSanitizer(AntiSamyPolicy policy) {
-        this.customPolicy = new AntiSamyPolicyAdapter(policy);
+        this(policy, null);
+    }
+
+    private HtmlSanitizer(AntiSamyPolicy policy, @Nullable SanitizerProfile profile) {
+        this.policy = policy;
+        this.profile = profile;
+        this.customPolicy = new AntiSamyPolicyAdapter(policy, profile);
         policies = reflectionGetPolicies(customPolicy.getHtmlCleanerPolicyFactory());
         textContainers = reflectionGetTextContainers(customPolicy.getHtmlCleanerPolicyFactory());
+        symbols = new PolicySymbolTable(
+                policies, customPolicy.getDynamicAttributesPolicyMap(), customPolicy.getOnInvalidRemoveTagList());
+    }
+
+    /**
+     * Sanitizes the input repeatedly with a profiling copy of this sanitizer, which reports the time spent in every
+     * element, attribute matcher and CSS property of the policy. The first iterations run in the interpreter, so
+     * profiles over more iterations show the cost of the rules in compiled code more faithfully.
+     *
+     * @param taintedHTML the input
+     * @param iterations  the number of times to sanitize the input
+     * @return the profile
+     */
+    public @NotNull SanitizerProfile profile(@NotNull String taintedHTML, int iterations) {
+        SanitizerProfile sanitizerProfile = new SanitizerProfile();
+        HtmlSanitizer profiling = new HtmlSanitizer(policy, sanitizerProfile);
+        for (int i = 0; i < Math.max(1, iterations); i++) {
+            long start = sanitizerProfile.start();
+            profiling.scan(taintedHTML, SanitizerLimits.NONE.start(), false);
+            sanitizerProfile.recordScan(start);
+        }
+        return sanitizerProfile;
     }
 
     public SanitizedResult scan(String taintedHTML) {
-        StringBuilder sb = new StringBuilder(taintedHTML.length());
-        HtmlStreamEventReceiver out = HtmlStreamRenderer.create(sb, Handler.DO_NOTHING);
-        DynamicAttributesSanitizerPolicy dynamicPolicy = new DynamicAttributesSanitizerPolicy(
-                out,
-                policies,
-                textContainers,
-                customPolicy.getDynamicAttributesPolicyMap(),
-                customPolicy.getOnInvalidRemoveTagList());
-
-        org.owasp.html.HtmlSanitizer.sanitize(
-                taintedHTML, dynamicPolicy, customPolicy.getCssValidator().newStyleTagProcessor());
-        return new SanitizedResult(sb.toString(), dynamicPolicy.getNumberOfErrors());
+        return scan(taintedHTML, SanitizerLimits.NONE.start());
+    }
+
+    /**
+     * Sanitizes the input within the given budget. If the sanitized input is equal to the input, the result's
+     * sanitized string is the input instance.
+     *
+     * @param taintedHTML the input
+     * @param scan        the budget, see {@link SanitizerLimits} for what happens if it is exceeded
+     * @return the result
+     */
+    public SanitizedResult scan(String taintedHTML, SanitizerLimits.Scan scan) {
+        return scan(taintedHTML, scan, true);
+    }
+
+    /**
+     * @param recordRejections whether to record the stripped elements and attributes in the
+     *                         {@link #getRejectionStatistics() rejection statistics}
+     */
+    SanitizedResult scan(String taintedHTML, SanitizerLimits.Scan scan, boolean recordRejections) {
+        Object event = FlightRecorderEvents.beginHtmlScan();
+        String input = scan.truncate(taintedHTML);
+        Limit exceededLimit = input.length() < taintedHTML.length() ? Limit.INPUT_LENGTH : null;
+        SanitizerOutput output = new SanitizerOutput(input);
+        try {
+            HtmlStreamEventReceiver out = HtmlStreamRenderer.create(output, Handler.PROPAGATE, Handler.DO_NOTHING);
+            DynamicAttributesSanitizerPolicy dynamicPolicy = new DynamicAttributesSanitizerPolicy(
+                    out, symbols, textContainers, recordRejections ? rejectionStatistics : null, scan, profile);
+
+            String sanitized;
+            try {
+                org.owasp.html.HtmlSanitizer.sanitize(
+                        input, dynamicPolicy, customPolicy.getCssValidator().newStyleTagProcessor(scan));
+                sanitized = output.getResult();
+            } catch (LimitExceededException e) {
+                exceededLimit = e.getLimit();
+                if (exceededLimit == Limit.DEADLINE) {
+                    sanitized = "";
+                } else {
+                    // keeps what was sanitized so far, with its open elements closed
+                    dynamicPolicy.closeDocument();
+                    sanitized = output.getResult();
+                }
+                LOGGER.debug(
+                        "Stopped sanitizing an input of {} characters, {} limit exceeded.",
+                        input.length(),
+                        exceededLimit.getName());
+            }
+            int[] rejections = new int[REASONS.length];
+            for (Reason reason : REASONS) {
+                rejections[reason.ordinal()] = dynamicPolicy.getNumberOfRejections(reason);
+            }
+            if (event != null) {
+                FlightRecorderEvents.commitHtmlScan(
+                        event,
+                        taintedHTML,
+                        sanitized,
+                        dynamicPolicy.getNumberOfErrors(),
+                        exceededLimit == null ? null : exceededLimit.getName());
+            }
+            return new SanitizedResult(sanitized, dynamicPolicy.getNumberOfErrors(), rejections, exceededLimit);
+        } finally {
+            output.release();
+        }
+    }
+
+    /**
+     * Sanitizes a segment of a larger input, as split by {@link HtmlSegmenter}.
+     *
+     * @param segment    the segment
+     * @param scan       the budget for the segment
+     * @param statistics the statistics to which the stripped elements and attributes are reported
+     * @return the result or {@code null} if the segment exceeded a limit or left elements open, in which case the
+     *     input has to be sanitized as a whole
+     */
+    @Nullable
+    SanitizedResult scanSegment(
+            @NotNull String segment, @NotNull SanitizerLimits.Scan scan, @NotNull RejectionStatistics statistics) {
+        SanitizerOutput output = new SanitizerOutput(segment);
+        try {
+            HtmlStreamEventReceiver out = HtmlStreamRenderer.create(output, Handler.PROPAGATE, Handler.DO_NOTHING);
+            DynamicAttributesSanitizerPolicy dynamicPolicy =
+                    new DynamicAttributesSanitizerPolicy(out, symbols, textContainers, statistics, scan, profile);
+            HtmlSegmenter.BoundaryCheck boundaryCheck = new HtmlSegmenter.BoundaryCheck(
+                    customPolicy.getCssValidator().newStyleTagProcessor(scan));
+            try {
+                org.owasp.html.HtmlSanitizer.sanitize(segment, dynamicPolicy, boundaryCheck);
+            } catch (LimitExceededException e) {
+                return null;
+            }
+            if (!boundaryCheck.isBalanced()) {
+                return null;
+            }
+            int[] rejections = new int[REASONS.length];
+            for (Reason reason : REASONS) {
+                rejections[reason.ordinal()] = dynamicPolicy.getNumberOfRejections(reason);
+            }
+            return new SanitizedResult(output.getResult(), dynamicPolicy.getNumberOfErrors(), rejections, null);
+        } finally {
+            output.release();
+        }
+    }
+
+    /**
+     * @return the elements and attributes this sanitizer stripped since it was created
+     */
+    public RejectionStatistics getRejectionStatistics() {
+        return rejectionStatistics;
     }
 
     private Set<String> reflectionGetTextContainers(PolicyFactory policyFactory) {
@@ -19,6 +19,8 @@
 package org.apache.sling.xss.impl;
 
 import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.xss.impl.status.Hashes;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -36,19 +38,39 @@ public class HtmlToHtmlContentContext implements XSSFilterRule {
      */
     private final Logger log = LoggerFactory.getLogger(this.getClass());
 
+    private volatile SanitizerLimits limits = SanitizerLimits.NONE;
+
+    /**
+     * @param limits the limits for sanitizing a single input
+     */
+    void setLimits(final SanitizerLimits limits) {
+        this.limits = limits;
+    }
+
+    private volatile RegexExecutionStrategy executionStrategy = RegexExecutionStrategy.INLINE;
+
+    /**
+     * @param executionStrategy the strategy deciding on which stack an input is sanitized
+     */
+    void setExecutionStrategy(final RegexExecutionStrategy executionStrategy) {
+        this.executionStrategy = executionStrategy;
+    }
+
+    private volatile ParallelSanitizer parallelSanitizer = ParallelSanitizer.DISABLED;
+
+    /**
+     * @param parallelSanitizer the sanitizer for very large inputs
+     */
+    void setParallelSanitizer(final ParallelSanitizer parallelSanitizer) {
+        this.parallelSanitizer = parallelSanitizer;
+    }
+
     /**
      * @see XSSFilterRule#check(PolicyHandler, String)
      */
     @Override
     public boolean check(final PolicyHandler policyHandler, final String str) {
-        if (StringUtils.isNotEmpty(str)) {
-            try {
-                return getCleanResults(policyHandler, str).getNumberOfErrors() == 0;
-            } catch (final Exception se) {
-                logError(se, str);
-            }
-        }
-        return false;
+        return check(sanitize(policyHandler, str));
     }
 
     /**
@@ -56,18 +78,47 @@ public class HtmlToHtmlContentContext implements XSSFilterRule {
      */
     @Override
     public String filter(final PolicyHandler policyHandler, final String unsafeString) {
-        if (StringUtils.isNotEmpty(unsafeString)) {
+        return filter(sanitize(policyHandler, unsafeString));
+    }
+
+    /**
+     * Runs the HTML sanitizer on the given input.
+     *
+     * @param policyHandler the policy handler to use for filtering
+     * @param input         the input to sanitize
+     * @return the sanitizer's result or {@code null} if the input is empty or could not be processed
+     */
+    @Nullable
+    SanitizedResult sanitize(final PolicyHandler policyHandler, final String input) {
+        if (StringUtils.isNotEmpty(input)) {
             try {
-                final String results =
-                        getCleanResults(policyHandler, unsafeString).getSanitizedString();
-                if (results != null) {
-                    log.debug("Protected (HTML -> HTML):\n{}", results);
-                    return results;
-                }
-            } catch (Exception e) {
-                logError(e, unsafeString);
+                return getCleanResults(policyHandler, input);
+            } catch (final Exception e) {
+                logError(e, input);
             }
         }
+        return null;
+    }
+
+    /**
+     * @param result the result of {@link #sanitize(PolicyHandler, String)}
+     * @return {@code true} if the sanitized input was free of policy violations
+     */
+    boolean check(@Nullable final SanitizedResult result) {
+        return result != null && result.getNumberOfErrors() == 0 && result.getExceededLimit() == null;
+    }
+
+    /**
+     * @param result the result of {@link #sanitize(PolicyHandler, String)}
+     * @return the sanitized input or an empty string if there was no result
+     */
+    String filter(@Nullable final SanitizedResult result) {
+        if (result != null && result.getSanitizedString() != null) {
+            log.debug(
+                    "Protected (HTML -> HTML): {} characters.",
+                    result.getSanitizedString().length());
+            return result.getSanitizedString();
+        }
         return StringUtils.EMPTY;
     }
 
@@ -80,21 +131,47 @@ public class HtmlToHtmlContentContext implements XSSFilterRule {
     }
 
     private SanitizedResult getCleanResults(PolicyHandler handler, String input) {
-        SanitizedResult results;
-        try {
-            results = handler.getHtmlSanitizer().scan(input);
-        } catch (StackOverflowError e) {
-            log.debug(
-                    "Will perform a second attempt at filtering the following input due to a StackOverflowError:\n{}",
-                    input);
-            results = handler.getFallbackHtmlSanitizer().scan(input);
-            log.debug("Second attempt was successful.");
+        SanitizerLimits.Scan scan = limits.start();
+        boolean deep = RegexExecutionStrategy.hasLongToken(input);
+        ParallelSanitizer parallel = parallelSanitizer;
+        if (!deep && parallel.accepts(input)) {
+            SanitizedResult results = parallel.sanitize(handler.getHtmlSanitizer(), input, scan);
+            if (results != null) {
+                return results;
+            }
         }
-        return results;
+        Thread caller = Thread.currentThread();
+        return executionStrategy.execute(
+                deep,
+                () -> {
+                    SanitizedResult results = handler.getHtmlSanitizer().scan(input, scan);
+                    if (Thread.currentThread() != caller) {
+                        results.setPath(RegexExecutionStrategy.Path.LARGE_STACK);
+                    }
+                    return results;
+                },
+                () -> {
+                    if (log.isDebugEnabled()) {
+                        log.debug(
+                                "Will perform a second attempt at filtering input {} due to a StackOverflowError.",
+                                describe(input));
+                    }
+                    SanitizedResult results = handler.getFallbackHtmlSanitizer().scan(input, scan.restart());
+                    results.setPath(RegexExecutionStrategy.Path.FALLBACK);
+                    log.debug("Second attempt was successful.");
+                    return results;
+                });
     }
 
     private void logError(Exception e, String input) {
-        log.warn("Unable to check input.", e);
-        log.debug("Provided input: {}", input);
+        log.warn("Unable to check input {}.", describe(input), e);
+    }
+
+    /**
+     * Inputs are user content and may be large, so they are identified by their length and hash instead of being
+     * logged; the slow input log of the {@link XSSFilterImpl} keeps the inputs themselves.
+     */
+    private static String describe(String input) {
+        return "of " + input.length() + " characters with SHA-256 " + Hashes.sha256(input);
     }
 }
@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.xss.impl;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Encodes text for JavaScript string literals in a single pass.
+ * <p>
+ * The output is identical to {@link org.owasp.encoder.Encode#forJavaScript(String)} with every {@code \-} escape
+ * replaced by the unicode escape of the hyphen, which is what {@link org.apache.sling.xss.XSSAPI#encodeForJSString(String)} has always
+ * produced, but without encoding into an intermediate string which then has to be scanned again.
+ */
+final class JsStringEncoder {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final String[] ESCAPES = new String[128];
+
+    static {
+        for (char c = 0; c < ' '; c++) {
+            ESCAPES[c] = "\\x" + HEX[c >> 4] + HEX[c & 0xf];
+        }
+        ESCAPES['\b'] = "\\b";
+        ESCAPES['\t'] = "\\t";
+        ESCAPES['\n'] = "\\n";
+        ESCAPES['\f'] = "\\f";
+        ESCAPES['\r'] = "\\r";
+        ESCAPES['"'] = "\\x22";
+        ESCAPES['&'] = "\\x26";
+        ESCAPES['\''] = "\\x27";
+        ESCAPES['-'] = "\\u002D";
+        ESCAPES['/'] = "\\/";
+        ESCAPES['\\'] = "\\\\";
+    }
+
+    private JsStringEncoder() {}
+
+    /**
+     * @param source the text to encode
+     * @return the encoded text; {@code source} itself if it does not contain any character which needs encoding
+     */
+    static @NotNull String encode(@NotNull String source) {
+        int length = source.length();
+        int first = firstEncodedOffset(source, 0, length);
+        if (first == length) {
+            return source;
+        }
+        StringBuilder encoded = new StringBuilder(length + 16);
+        encoded.append(source, 0, first);
+        try {
+            encode(encoded, source, first, length);
+        } catch (IOException e) {
+            // a StringBuilder does not throw
+            throw new IllegalStateException(e);
+        }
+        return encoded.toString();
+    }
+
+    /**
+     * Appends the encoded text to {@code out}.
+     *
+     * @param out    the target
+     * @param source the text to encode
+     * @throws IOException if appending to {@code out} fails
+     */
+    static void encode(@NotNull Appendable out, @NotNull CharSequence source) throws IOException {
+        encode(out, source, 0, source.length());
+    }
+
+    /**
+     * Appends the encoded range {@code [start, end)} of {@code source} to {@code out}.
+     *
+     * @param out    the target
+     * @param source the text to encode
+     * @param start  the index of the first character to encode
+     * @param end    the index after the last character to encode
+     * @throws IOException if appending to {@code out} fails
+     */
+    static void encode(@NotNull Appendable out, @NotNull CharSequence source, int start, int end) throws IOException {
+        int run = start;
+        for (int i = start; i < end; i++) {
+            String escape = escape(source.charAt(i));
+            if (escape != null) {
+                appendRun(out, source, run, i);
+                out.append(escape);
+                run = i + 1;
+            }
+        }
+        appendRun(out, source, run, end);
+    }
+
+    /**
+     * @param source the text to check
+     * @param start  the index of the first character to check
+     * @param end    the index after the last character to check
+     * @return the index of the first character in {@code [start, end)} which needs encoding, {@code end} if there is
+     *     none
+     */
+    static int firstEncodedOffset(@NotNull CharSequence source, int start, int end) {
+        int i = start;
+        while (i < end && escape(source.charAt(i)) == null) {
+            i++;
+        }
+        return i;
+    }
+
+    private static void appendRun(Appendable out, CharSequence source, int start, int end) throws IOException {
+        if (start == end) {
+            return;
+        }
+        if (out instanceof Writer && source instanceof String) {
+            // Writer.append(CharSequence, int, int) would copy the run into a new string first
+            ((Writer) out).write((String) source, start, end - start);
+        } else {
+            out.append(source, start, end);
+        }
+    }
+
+    private static String escape(char c) {
+        if (c < 128) {
+            return ESCAPES[c];
+        }
+        if (c == '\u2028') {
+            return "\\u2028";
+        }
+        if (c == '\u2029') {
+            return "\\u2029";
+        }
+        return null;
+    }
+}
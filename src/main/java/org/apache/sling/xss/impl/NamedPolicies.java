@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.xss.impl;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import org.apache.sling.xss.impl.XSSFilterImpl.AntiSamyPolicy;
+import org.apache.sling.xss.impl.status.CacheStatistics;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The named policies of an {@link XSSFilterImpl}. A named policy is loaded on its first use and kept in a least
+ * recently used cache of bounded size; concurrent first uses of the same policy wait for a single load.
+ */
+class NamedPolicies {
+
+    private static final Logger logger = LoggerFactory.getLogger(NamedPolicies.class);
+
+    private final Map<String, String> paths;
+    private final Function<String, AntiSamyPolicy> loader;
+    private final Map<String, CompletableFuture<AntiSamyPolicy>> loaded;
+
+    /**
+     * @param paths     the policy paths by policy name
+     * @param maxLoaded the maximum number of policies to keep loaded
+     * @param loader    loads the policy from the given path; returns {@code null} if the policy cannot be loaded
+     */
+    NamedPolicies(@NotNull Map<String, String> paths, int maxLoaded, @NotNull Function<String, AntiSamyPolicy> loader) {
+        this.paths = Collections.unmodifiableMap(new LinkedHashMap<>(paths));
+        this.loader = loader;
+        int capacity = Math.max(1, maxLoaded);
+        this.loaded = new LinkedHashMap<String, CompletableFuture<AntiSamyPolicy>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompletableFuture<AntiSamyPolicy>> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Parses {@code name=path} entries.
+     *
+     * @param entries the entries
+     * @return the policy paths by policy name
+     */
+    static @NotNull Map<String, String> parse(@Nullable String[] entries) {
+        Map<String, String> paths = new LinkedHashMap<>();
+        if (entries != null) {
+            for (String entry : entries) {
+                int separator = entry == null ? -1 : entry.indexOf('=');
+                String name = separator > 0 ? entry.substring(0, separator).trim() : "";
+                String path = separator > 0 ? entry.substring(separator + 1).trim() : "";
+                if (name.isEmpty() || path.isEmpty()) {
+                    logger.warn("Ignoring invalid named policy entry '{}', expected name=path.", entry);
+                } else {
+                    paths.put(name, path);
+                }
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * @return the paths of all named policies
+     */
+    @NotNull
+    Collection<String> getPaths() {
+        return paths.values();
+    }
+
+    /**
+     * Returns the named policy, loading it if needed.
+     *
+     * @param name the policy name
+     * @return the policy, or {@code null} if no policy with this name is configured or it cannot be loaded
+     */
+    @Nullable
+    AntiSamyPolicy get(@NotNull String name) {
+        String path = paths.get(name);
+        if (path == null) {
+            return null;
+        }
+        CompletableFuture<AntiSamyPolicy> future;
+        boolean load = false;
+        synchronized (loaded) {
+            future = loaded.get(name);
+            if (future == null) {
+                future = new CompletableFuture<>();
+                loaded.put(name, future);
+                load = true;
+            }
+        }
+        if (load) {
+            CacheStatistics.NAMED_POLICIES.miss();
+            try {
+                AntiSamyPolicy policy = loader.apply(path);
+                if (policy == null) {
+                    logger.error("Unable to load the policy {} from {}.", name, path);
+                }
+                future.complete(policy);
+            } catch (RuntimeException e) {
+                logger.error("Unable to load the policy {} from {}.", name, path, e);
+                future.complete(null);
+            }
+        } else {
+            CacheStatistics.NAMED_POLICIES.hit();
+        }
+        return future.join();
+    }
+
+    /**
+     * Unloads the policies loaded from the given path, so that they are loaded again on their next use.
+     *
+     * @param changedPath the path of a changed resource
+     */
+    void invalidate(@NotNull String changedPath) {
+        paths.forEach((name, path) -> {
+            if (changedPath.endsWith(path)) {
+                synchronized (loaded) {
+                    if (loaded.remove(name) != null) {
+                        logger.info("Unloaded the policy {} after a change of {}.", name, changedPath);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the number of currently loaded policies
+     */
+    int getLoadedCount() {
+        synchronized (loaded) {
+            return loaded.size();
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.xss.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.sling.xss.impl.jfr.FlightRecorderEvents;
+import org.apache.sling.xss.impl.status.RejectionStatistics;
+import org.apache.sling.xss.impl.status.RejectionStatistics.Reason;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.owasp.html.HtmlSegmenter;
+
+/**
+ * Sanitizes very large inputs in parallel.
+ * <p>
+ * An input is split after the end tags of its top-level elements (see {@link HtmlSegmenter}), the segments are
+ * sanitized on a fork-join pool and their results are concatenated. A segment can be sanitized on its own if the tag
+ * balancer had no element open when it reached the segment's end; that is checked for every segment, and if a single
+ * one fails the check, exceeds a limit or throws, the result is discarded and the caller sanitizes the input as a
+ * whole. The result is therefore the same as that of sequential sanitizing.
+ */
+final class ParallelSanitizer {
+
+    /**
+     * Sanitizes nothing in parallel.
+     */
+    static final ParallelSanitizer DISABLED = new ParallelSanitizer(null, 0);
+
+    /**
+     * The minimum length of a segment; shorter segments cost more in coordination than they save.
+     */
+    static final int MIN_SEGMENT_LENGTH = 4096;
+
+    private static final int SEGMENTS_PER_THREAD = 4;
+    private static final Reason[] REASONS = Reason.values();
+
+    private final ForkJoinPool pool;
+    private final int threshold;
+
+    private ParallelSanitizer(@Nullable ForkJoinPool pool, int threshold) {
+        this.pool = pool;
+        this.threshold = threshold;
+    }
+
+    /**
+     * @param threshold   the length from which on inputs are sanitized in parallel; {@code 0} disables parallel
+     *                    sanitizing
+     * @param parallelism the number of worker threads; {@code 0} for one per available processor
+     * @return a parallel sanitizer with its own worker threads, which have to be released with {@link #shutdown()}
+     */
+    static @NotNull ParallelSanitizer create(int threshold, int parallelism) {
+        if (threshold <= 0) {
+            return DISABLED;
+        }
+        AtomicInteger threadCount = new AtomicInteger();
+        ForkJoinPool pool = new ForkJoinPool(
+                parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors(),
+                forkJoinPool -> {
+                    ForkJoinWorkerThread thread =
+                            ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+                    thread.setName("sling-xss-parallel-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                null,
+                false);
+        return new ParallelSanitizer(pool, Math.max(threshold, 2 * MIN_SEGMENT_LENGTH));
+    }
+
+    /**
+     * @param input the input
+     * @return {@code true} if the input is long enough to be sanitized in parallel
+     */
+    boolean accepts(@NotNull String input) {
+        return pool != null && input.length() >= threshold;
+    }
+
+    /**
+     * Sanitizes the input in parallel.
+     *
+     * @param sanitizer the sanitizer
+     * @param input     the input
+     * @param scan      the budget for the whole input
+     * @return the result or {@code null} if the input has to be sanitized as a whole
+     */
+    @Nullable
+    SanitizedResult sanitize(
+            @NotNull HtmlSanitizer sanitizer, @NotNull String input, @NotNull SanitizerLimits.Scan scan) {
+        if (pool == null || scan.truncate(input).length() < input.length()) {
+            return null;
+        }
+        int minSegmentLength =
+                Math.max(MIN_SEGMENT_LENGTH, input.length() / (pool.getParallelism() * SEGMENTS_PER_THREAD));
+        HtmlSegmenter segmenter = new HtmlSegmenter(input, minSegmentLength);
+        int boundary = segmenter.nextBoundary();
+        if (boundary < 0) {
+            return null;
+        }
+        Object event = FlightRecorderEvents.beginHtmlScan();
+        List<Segment> parts = new ArrayList<>();
+        try {
+            // the segments are sanitized while the rest of the input is searched for boundaries
+            int start = 0;
+            while (boundary >= 0) {
+                parts.add(new Segment(pool, sanitizer, input.substring(start, boundary), scan.restart()));
+                start = boundary;
+                boundary = segmenter.nextBoundary();
+            }
+            parts.add(new Segment(pool, sanitizer, input.substring(start), scan.restart()));
+        } catch (RejectedExecutionException e) {
+            // shut down, the caller sanitizes the input as a whole
+            parts.forEach(part -> part.task.cancel(true));
+            return null;
+        }
+        List<SanitizedResult> results = new ArrayList<>(parts.size());
+        for (Segment part : parts) {
+            SanitizedResult result = await(part.task);
+            if (result == null) {
+                parts.forEach(other -> other.task.cancel(true));
+                return null;
+            }
+            results.add(result);
+        }
+        int tagCount = 0;
+        for (Segment part : parts) {
+            tagCount += part.scan.getTagCount();
+        }
+        if (!scan.allowsTagCount(tagCount)) {
+            return null;
+        }
+
+        StringBuilder sanitized = new StringBuilder(input.length());
+        boolean unchanged = true;
+        int numberOfErrors = 0;
+        int[] rejections = new int[REASONS.length];
+        for (int i = 0; i < results.size(); i++) {
+            SanitizedResult result = results.get(i);
+            String segment = result.getSanitizedString();
+            unchanged &= segment == parts.get(i).segment;
+            sanitized.append(segment);
+            numberOfErrors += result.getNumberOfErrors();
+            for (Reason reason : REASONS) {
+                rejections[reason.ordinal()] += result.getNumberOfRejections(reason);
+            }
+            sanitizer.getRejectionStatistics().addAll(parts.get(i).statistics);
+        }
+        String output = unchanged ? input : sanitized.toString();
+        if (event != null) {
+            FlightRecorderEvents.commitHtmlScan(event, input, output, numberOfErrors, null);
+        }
+        return new SanitizedResult(output, numberOfErrors, rejections, null);
+    }
+
+    /**
+     * Stops the worker threads once they have sanitized the segments already submitted. New inputs are sanitized as a
+     * whole by the caller.
+     */
+    void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    private static SanitizedResult await(ForkJoinTask<SanitizedResult> task) {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            task.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the parallel sanitizer.", e);
+        } catch (ExecutionException | RuntimeException e) {
+            // also a StackOverflowError, which the caller's execution strategy deals with when it sanitizes the input
+            // as a whole, or a cancelled segment
+            return null;
+        }
+    }
+
+    /**
+     * A single segment. Its rejections are kept apart and only added to the sanitizer's statistics once all segments
+     * succeeded, so that they are not counted twice if the input has to be sanitized as a whole.
+     */
+    private static final class Segment {
+
+        private final String segment;
+        private final SanitizerLimits.Scan scan;
+        private final RejectionStatistics statistics = new RejectionStatistics();
+        private final ForkJoinTask<SanitizedResult> task;
+
+        Segment(ForkJoinPool pool, HtmlSanitizer sanitizer, String segment, SanitizerLimits.Scan scan) {
+            this.segment = segment;
+            this.scan = scan;
+            this.task = pool.submit(() -> sanitizer.scanSegment(segment, scan, statistics));
+        }
+    }
+}
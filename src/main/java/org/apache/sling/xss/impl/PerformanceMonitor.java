@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.xss.impl;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sling.xss.impl.status.LatencyRecorder;
+import org.apache.sling.xss.impl.status.SlowCallLog;
+import org.jetbrains.annotations.NotNull;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+
+/**
+ * Keeps in-process call counts, latency histograms and a log of slow calls per {@link XSSOperation}, for the
+ * performance tab of the web console plugin.
+ * <p>
+ * Unlike the {@link XSSMetricsService}, the monitor does not need a metrics backend. It samples latencies the same
+ * way: callers obtain a start token from {@link #startTiming()} and hand it back to {@link #record}. All recorders
+ * are lock-free.
+ */
+@Component(service = PerformanceMonitor.class)
+@Designate(ocd = PerformanceMonitor.Configuration.class)
+public class PerformanceMonitor {
+
+    @ObjectClassDefinition(
+            name = "Apache Sling XSS Performance Monitor",
+            description = "Records call rates, latency percentiles and slow calls of the XSS Protection API for the"
+                    + " XSS Protection web console plugin.")
+    @interface Configuration {
+        @AttributeDefinition(
+                name = "Sampling rate",
+                description = "Latencies are measured for one in this many calls. A value of 1 measures every call."
+                        + " Calls are always counted.")
+        int samplingRate() default XSSMetricsService.DEFAULT_SAMPLING_RATE;
+
+        @AttributeDefinition(
+                name = "Slow call threshold",
+                description = "The latency in milliseconds from which on a measured call is kept in the slow call log.")
+        long slowCallThreshold() default DEFAULT_SLOW_CALL_THRESHOLD;
+
+        @AttributeDefinition(
+                name = "Slow call log size",
+                description = "The number of most recent slow calls to keep. 0 disables the slow call log.")
+        int slowCallLogSize() default DEFAULT_SLOW_CALL_LOG_SIZE;
+    }
+
+    static final long DEFAULT_SLOW_CALL_THRESHOLD = 50;
+    static final int DEFAULT_SLOW_CALL_LOG_SIZE = 32;
+
+    private static final XSSOperation[] OPERATIONS = XSSOperation.values();
+
+    private final LatencyRecorder[] recorders = new LatencyRecorder[OPERATIONS.length];
+    private final SlowCallLog slowCalls;
+    private final int samplingRate;
+    private final long startTime = System.currentTimeMillis();
+
+    @Activate
+    public PerformanceMonitor(Configuration configuration) {
+        this(
+                configuration.samplingRate(),
+                TimeUnit.MILLISECONDS.toNanos(configuration.slowCallThreshold()),
+                configuration.slowCallLogSize());
+    }
+
+    PerformanceMonitor(int samplingRate, long slowCallThresholdNanos, int slowCallLogSize) {
+        for (XSSOperation operation : OPERATIONS) {
+            recorders[operation.ordinal()] = new LatencyRecorder();
+        }
+        this.samplingRate = Math.max(1, samplingRate);
+        this.slowCalls = new SlowCallLog(slowCallLogSize, slowCallThresholdNanos);
+    }
+
+    /**
+     * Decides whether the latency of the call about to start is measured.
+     *
+     * @return the current {@link System#nanoTime()} if the call should be timed,
+     *         {@link XSSMetricsService#NOT_SAMPLED} otherwise
+     */
+    public long startTiming() {
+        if (samplingRate == 1 || ThreadLocalRandom.current().nextInt(samplingRate) == 0) {
+            return System.nanoTime();
+        }
+        return XSSMetricsService.NOT_SAMPLED;
+    }
+
+    /**
+     * Records a call of the given operation.
+     *
+     * @param operation the operation
+     * @param start     the token returned by {@link #startTiming()} when the call started
+     * @param input     the input of the call
+     */
+    public void record(@NotNull XSSOperation operation, long start, CharSequence input) {
+        record(operation, start, input, false);
+    }
+
+    /**
+     * Records a call of the given operation.
+     *
+     * @param operation the operation
+     * @param start     the token returned by {@link #startTiming()} when the call started
+     * @param input     the input of the call
+     * @param captured  {@code true} if the caller keeps the call in its own {@link SlowCallLog} together with its
+     *                  input, in which case it is not added to the monitor's slow call log
+     */
+    public void record(@NotNull XSSOperation operation, long start, CharSequence input, boolean captured) {
+        LatencyRecorder recorder = recorders[operation.ordinal()];
+        if (start == XSSMetricsService.NOT_SAMPLED) {
+            recorder.recordCall();
+        } else {
+            long nanos = System.nanoTime() - start;
+            recorder.recordCall(nanos);
+            if (!captured) {
+                slowCalls.record(operation.getMetricName(), nanos, input == null ? 0 : input.length());
+            }
+        }
+    }
+
+    public @NotNull LatencyRecorder getRecorder(@NotNull XSSOperation operation) {
+        return recorders[operation.ordinal()];
+    }
+
+    public @NotNull SlowCallLog getSlowCalls() {
+        return slowCalls;
+    }
+
+    public int getSamplingRate() {
+        return samplingRate;
+    }
+
+    /**
+     * @return the time at which the monitor started recording, in milliseconds since the epoch
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+}
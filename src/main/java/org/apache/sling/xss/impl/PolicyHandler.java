@@ -18,12 +18,11 @@
  */
 package org.apache.sling.xss.impl;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.sling.xss.impl.xml.AntiSamyPolicy;
+import org.apache.sling.xss.impl.xml.AntiSamyRules;
+import org.apache.sling.xss.impl.xml.AntiSamyXmlParser;
 
 /**
  * Class that provides the capability of securing input provided as plain text for HTML output.
@@ -41,15 +40,20 @@ public class PolicyHandler {
      * @param policyStream the InputStream from which to read this handler's {@link AntiSamyPolicy}
      */
     public PolicyHandler(InputStream policyStream) throws Exception {
-        try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-            IOUtils.copy(policyStream, baos);
-            ByteArrayInputStream bais = new ByteArrayInputStream(baos.toByteArray());
-            this.policy = new AntiSamyPolicy(bais);
-            bais.reset();
-            this.htmlSanitizer = new HtmlSanitizer(this.policy);
-            this.fallbackPolicy = new FallbackSlingPolicy(bais);
-            this.fallbackHtmlSanitizer = new HtmlSanitizer(this.fallbackPolicy);
-        }
+        this(new AntiSamyXmlParser().createRules(policyStream));
+    }
+
+    /**
+     * Creates a {@code PolicyHandler} from already parsed rules. Both the {@link AntiSamyPolicy} and its fallback
+     * are built from the same rules, so the policy file only has to be parsed once.
+     *
+     * @param rules the rules from which to build this handler's policies
+     */
+    public PolicyHandler(AntiSamyRules rules) throws Exception {
+        this.policy = new AntiSamyPolicy(rules);
+        this.htmlSanitizer = new HtmlSanitizer(this.policy);
+        this.fallbackPolicy = new FallbackSlingPolicy(rules);
+        this.fallbackHtmlSanitizer = new HtmlSanitizer(this.fallbackPolicy);
     }
 
     public AntiSamyPolicy getPolicy() {
@@ -0,0 +1,237 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.xss.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+
+import org.apache.sling.xss.impl.status.CacheStatistics;
+import org.apache.sling.xss.impl.status.Hashes;
+import org.apache.sling.xss.impl.xml.AntiSamyRules;
+import org.apache.sling.xss.impl.xml.AntiSamyXmlParser;
+import org.apache.sling.xss.impl.xml.PolicySnapshot;
+import org.apache.sling.xss.impl.xml.RegexpAnalyzer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Builds {@link PolicyHandler}s from policy files, keeping a {@link PolicySnapshot} of every successfully parsed
+ * policy in a directory (usually the bundle's data area), keyed by the SHA-256 digest of the policy file's content.
+ * When a policy with the same content is loaded again, e.g. after a restart, its rules are read from the snapshot
+ * instead of being parsed from XML. A missing, stale or unreadable snapshot is never an error: the policy is then
+ * simply parsed again.
+ * <p>
+ * The store keeps the most recently used snapshots, at least one per policy in use, so that the default policy and
+ * the named policies do not evict each other's snapshots.
+ */
+class PolicySnapshotStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(PolicySnapshotStore.class);
+
+    /**
+     * The number of snapshots kept in addition to one per policy in use, e.g. for the previous versions of the
+     * policies.
+     */
+    static final int SPARE_SNAPSHOTS = 4;
+
+    private static final String PREFIX = "policy-";
+    private static final String SUFFIX = ".v" + PolicySnapshot.VERSION + ".snapshot";
+
+    private final File directory;
+    private final boolean rejectUnsafeRegexps;
+    private final int maxSnapshots;
+
+    /**
+     * @param directory the directory in which to keep the snapshots; if {@code null}, no snapshots are kept
+     */
+    PolicySnapshotStore(@Nullable File directory) {
+        this(directory, false, 1);
+    }
+
+    /**
+     * @param directory           the directory in which to keep the snapshots; if {@code null}, no snapshots are kept
+     * @param rejectUnsafeRegexps whether to reject policies with a regular expression which the
+     *                            {@link RegexpAnalyzer} confirmed to be vulnerable to ReDoS; such expressions are
+     *                            logged in any case
+     * @param policies            the number of policies in use, i.e. the default policy and the named policies
+     */
+    PolicySnapshotStore(@Nullable File directory, boolean rejectUnsafeRegexps, int policies) {
+        this.directory = directory;
+        this.rejectUnsafeRegexps = rejectUnsafeRegexps;
+        this.maxSnapshots = Math.max(1, policies) + SPARE_SNAPSHOTS;
+    }
+
+    /**
+     * Creates a policy handler for the given policy file.
+     *
+     * @param policy the content of the policy file
+     * @param digest the {@link Hashes#sha256(byte[]) SHA-256 hash} of the content
+     * @return the policy handler
+     * @throws Exception if the policy is invalid
+     */
+    @NotNull
+    PolicyHandler load(byte[] policy, @NotNull String digest) throws Exception {
+        return checkRegexps(build(policy, digest), digest);
+    }
+
+    private PolicyHandler build(byte[] policy, String digest) throws Exception {
+        File snapshot = directory == null ? null : new File(directory, PREFIX + digest + SUFFIX);
+        if (snapshot != null && snapshot.isFile()) {
+            try (InputStream in = Files.newInputStream(snapshot.toPath())) {
+                PolicyHandler policyHandler = new PolicyHandler(PolicySnapshot.read(in));
+                CacheStatistics.POLICY_SNAPSHOTS.hit();
+                touch(snapshot);
+                logger.debug("Loaded policy {} from snapshot {}.", digest, snapshot);
+                return policyHandler;
+            } catch (Exception e) {
+                logger.warn("Unable to load policy snapshot {}, parsing the policy file instead.", snapshot, e);
+                Files.deleteIfExists(snapshot.toPath());
+            }
+        }
+        if (snapshot != null) {
+            CacheStatistics.POLICY_SNAPSHOTS.miss();
+        }
+        AntiSamyRules rules = new AntiSamyXmlParser().createRules(new ByteArrayInputStream(policy));
+        PolicyHandler policyHandler = new PolicyHandler(rules);
+        if (snapshot != null) {
+            store(rules, snapshot);
+        }
+        return policyHandler;
+    }
+
+    /**
+     * Checks a policy handler which was loaded before, possibly while the store had other settings, without logging
+     * its findings again.
+     *
+     * @param policyHandler the policy handler
+     * @return the policy handler
+     * @throws InvalidConfigException if the store rejects the policy
+     */
+    @NotNull
+    PolicyHandler reuse(@NotNull PolicyHandler policyHandler) {
+        return reject(policyHandler, countConfirmed(policyHandler));
+    }
+
+    /**
+     * @param policyHandler the policy handler
+     * @return {@code true} if the store would load the policy with its current settings
+     */
+    boolean accepts(@NotNull PolicyHandler policyHandler) {
+        return !rejectUnsafeRegexps || countConfirmed(policyHandler) == 0;
+    }
+
+    private static int countConfirmed(PolicyHandler policyHandler) {
+        int confirmed = 0;
+        for (RegexpAnalyzer.Finding finding :
+                policyHandler.getPolicy().getUnsafeRegexps().values()) {
+            if (finding.isConfirmed()) {
+                confirmed++;
+            }
+        }
+        return confirmed;
+    }
+
+    private PolicyHandler checkRegexps(PolicyHandler policyHandler, String digest) {
+        int confirmed = 0;
+        for (Map.Entry<String, RegexpAnalyzer.Finding> entry :
+                policyHandler.getPolicy().getUnsafeRegexps().entrySet()) {
+            RegexpAnalyzer.Finding finding = entry.getValue();
+            if (finding.isConfirmed()) {
+                confirmed++;
+                logger.warn(
+                        "The regular expression {} of policy {} is vulnerable to ReDoS: {}.",
+                        entry.getKey(),
+                        digest,
+                        finding);
+            } else {
+                logger.info(
+                        "The regular expression {} of policy {} may be vulnerable to ReDoS: {}.",
+                        entry.getKey(),
+                        digest,
+                        finding);
+            }
+        }
+        return reject(policyHandler, confirmed);
+    }
+
+    private PolicyHandler reject(PolicyHandler policyHandler, int confirmed) {
+        if (rejectUnsafeRegexps && confirmed > 0) {
+            throw new InvalidConfigException(
+                    "The policy contains " + confirmed + " regular expression(s) vulnerable to ReDoS.");
+        }
+        return policyHandler;
+    }
+
+    private void store(AntiSamyRules rules, File snapshot) {
+        try {
+            Files.createDirectories(directory.toPath());
+            Path temp = Files.createTempFile(directory.toPath(), PREFIX, ".tmp");
+            try {
+                try (OutputStream out = Files.newOutputStream(temp)) {
+                    PolicySnapshot.write(rules, out);
+                }
+                Files.move(temp, snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            prune();
+        } catch (IOException e) {
+            logger.warn("Unable to write policy snapshot {}.", snapshot, e);
+        }
+    }
+
+    /**
+     * Marks a snapshot as recently used, so that it is not pruned before snapshots which are no longer loaded.
+     */
+    private static void touch(File snapshot) {
+        if (!snapshot.setLastModified(System.currentTimeMillis())) {
+            logger.debug("Unable to update the modification time of policy snapshot {}.", snapshot);
+        }
+    }
+
+    /**
+     * Removes all but the most recently used snapshots, as well as snapshots written in other format versions.
+     */
+    private void prune() throws IOException {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(PREFIX));
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified).reversed());
+        int kept = 0;
+        for (File file : files) {
+            if (file.getName().endsWith(SUFFIX) && kept < maxSnapshots) {
+                kept++;
+            } else if (!file.getName().endsWith(".tmp")) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+    }
+}
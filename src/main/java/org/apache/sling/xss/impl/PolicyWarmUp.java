@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.xss.impl;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sling.xss.impl.xml.Attribute;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Runs a corpus of typical input through a policy before it serves requests, so that the JIT has compiled the
+ * sanitizer, the CSS cleaners and the policy's regular expressions by the time the first real input arrives.
+ * <p>
+ * Every iteration sanitizes each document of the corpus and validates a few URLs with the policy's {@code href}
+ * attribute. The warm-up stops after the configured number of iterations or once its time budget of at most
+ * {@link #MAX_TIMEOUT_MILLIS} is spent, whichever comes first, and when its thread is interrupted. It neither records rejection statistics nor metrics.
+ */
+final class PolicyWarmUp {
+
+    static final PolicyWarmUp DISABLED = new PolicyWarmUp(Collections.emptyList(), 0, 0);
+
+    /**
+     * The maximum time budget, which keeps a large number of iterations from delaying policy updates indefinitely.
+     */
+    static final long MAX_TIMEOUT_MILLIS = 60_000;
+
+    /**
+     * The corpus used if none is configured: text, links, images, tables, inline styles and style sheets, as well as
+     * markup which the default policy strips.
+     */
+    static final List<String> DEFAULT_CORPUS = Collections.unmodifiableList(Arrays.asList(
+            "<p>Plain text with <b>bold</b>, <i>italic</i>, <em>emphasis</em> and &amp; entities &lt;&gt;.</p>",
+            "<h1 id=\"title\" class=\"headline large\">Title</h1><h2>Subtitle</h2><br/><hr/>",
+            "<a href=\"/content/page.html\" title=\"A page\">relative</a>"
+                    + " <a href=\"https://sling.apache.org/documentation.html?q=xss#top\" target=\"_blank\">absolute</a>"
+                    + " <a href=\"mailto:dev@sling.apache.org\">mail</a> <a href=\"javascript:alert(1)\">script</a>",
+            "<img src=\"/content/dam/image.png\" alt=\"An image\" width=\"100\" height=\"50\" border=\"0\"/>",
+            "<ul><li>one</li><li>two</li></ul><ol><li>three</li></ol>"
+                    + "<table border=\"1\" cellpadding=\"2\"><thead><tr><th>Head</th></tr></thead>"
+                    + "<tbody><tr><td align=\"left\" colspan=\"2\">Cell</td></tr></tbody></table>",
+            "<div style=\"color: red; margin: 0 auto; font-family: Arial, sans-serif; background-color: #fff;"
+                    + " padding: 1em 2px; text-align: center\">styled</div><span style=\"font-weight:bold\">bold</span>",
+            "<style>p.intro { color: #333; font-size: 12px } #main > a:hover { text-decoration: underline }"
+                    + " .x { background: url(/content/dam/bg.png) no-repeat }</style><p class=\"intro\">styled</p>",
+            "<p onclick=\"alert(1)\" unknown=\"x\">attributes</p><script>alert(1)</script><blink>tag</blink>"
+                    + "<iframe src=\"https://example.com\"></iframe><form action=\"/x\"><input type=\"text\"></form>"));
+
+    private static final List<String> HREFS = Collections.unmodifiableList(Arrays.asList(
+            "/content/page.html",
+            "page.html#anchor",
+            "https://sling.apache.org/documentation/the-sling-engine.html?a=b&c=d",
+            "mailto:dev@sling.apache.org",
+            "javascript:alert(1)"));
+
+    private final List<String> corpus;
+    private final int iterations;
+    private final long timeoutNanos;
+
+    /**
+     * @param corpus        the documents to sanitize; the {@link #DEFAULT_CORPUS} if empty
+     * @param iterations    the maximum number of passes over the corpus; {@code 0} disables the warm-up
+     * @param timeoutMillis the maximum time to spend; {@code 0} or more than {@link #MAX_TIMEOUT_MILLIS} for
+     *                      {@link #MAX_TIMEOUT_MILLIS}
+     */
+    PolicyWarmUp(@NotNull List<String> corpus, int iterations, long timeoutMillis) {
+        this.corpus = corpus.isEmpty() ? DEFAULT_CORPUS : corpus;
+        this.iterations = Math.max(0, iterations);
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(
+                timeoutMillis <= 0 ? MAX_TIMEOUT_MILLIS : Math.min(timeoutMillis, MAX_TIMEOUT_MILLIS));
+    }
+
+    boolean isEnabled() {
+        return iterations > 0;
+    }
+
+    long getTimeoutNanos() {
+        return timeoutNanos;
+    }
+
+    /**
+     * @param policy the policy to warm up
+     * @return the number of completed passes over the corpus
+     */
+    int run(@NotNull XSSFilterImpl.AntiSamyPolicy policy) {
+        HtmlSanitizer sanitizer = policy.getPolicyHandler().getHtmlSanitizer();
+        Attribute hrefAttribute = policy.getHrefAttribute();
+        long start = System.nanoTime();
+        int completed = 0;
+        while (completed < iterations
+                && System.nanoTime() - start < timeoutNanos
+                && !Thread.currentThread().isInterrupted()) {
+            for (String document : corpus) {
+                sanitizer.scan(document, SanitizerLimits.NONE.start(), false);
+            }
+            for (String href : HREFS) {
+                String lowerCase = href.toLowerCase(Locale.ROOT);
+                if (!hrefAttribute.containsAllowedValue(lowerCase)) {
+                    hrefAttribute.matchesAllowedExpression(lowerCase);
+                }
+            }
+            completed++;
+        }
+        return completed;
+    }
+}
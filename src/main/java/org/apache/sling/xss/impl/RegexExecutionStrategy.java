@@ -0,0 +1,211 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.xss.impl;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Decides on which stack the policy's regular expressions are matched against an input.
+ * <p>
+ * {@link java.util.regex.Pattern} recurses for every repetition of a group, so validating a long URL with the
+ * policy's {@code href} expressions overflows a default 1 MiB thread stack at roughly 1,200 characters. Instead of
+ * waiting for the {@link StackOverflowError}, inputs containing a token longer than {@link #LONG_TOKEN_LENGTH} are
+ * handed to a small pool of threads with a large stack, and the calling thread waits for the result. Everything else
+ * runs on the calling thread. The fallback, which matches with simplified expressions, remains as the last resort if
+ * an input still overflows the stack it ran on, or if the pool is disabled or saturated.
+ */
+final class RegexExecutionStrategy {
+
+    /**
+     * The way an input was processed.
+     */
+    enum Path {
+        /** on the calling thread */
+        INLINE("inline"),
+        /** on a thread with a large stack */
+        LARGE_STACK("largeStack"),
+        /** with the fallback, after a {@link StackOverflowError} */
+        FALLBACK("fallback");
+
+        private final String name;
+
+        Path(String name) {
+            this.name = name;
+        }
+
+        @NotNull
+        String getName() {
+            return name;
+        }
+    }
+
+    /**
+     * Runs everything on the calling thread.
+     */
+    static final RegexExecutionStrategy INLINE = new RegexExecutionStrategy(null, path -> {});
+
+    /**
+     * The length from which on a token is matched on a large stack; well below the roughly 1,200 characters which
+     * overflow a default 1 MiB stack.
+     */
+    static final int LONG_TOKEN_LENGTH = 512;
+
+    private static final int QUEUED_TASKS_PER_THREAD = 16;
+
+    private final ThreadPoolExecutor executor;
+    private final Consumer<Path> listener;
+
+    private RegexExecutionStrategy(@Nullable ThreadPoolExecutor executor, @NotNull Consumer<Path> listener) {
+        this.executor = executor;
+        this.listener = listener;
+    }
+
+    /**
+     * @param stackSize  the stack size of the worker threads in bytes; {@code 0} runs everything on the calling
+     *                   thread
+     * @param maxThreads the maximum number of worker threads; they are started on demand and stop when idle
+     * @param listener   notified of the path taken for every input
+     * @return a strategy with its own worker threads, which have to be released with {@link #shutdown()}
+     */
+    static @NotNull RegexExecutionStrategy create(long stackSize, int maxThreads, @NotNull Consumer<Path> listener) {
+        if (stackSize <= 0) {
+            return new RegexExecutionStrategy(null, listener);
+        }
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                maxThreads,
+                maxThreads,
+                60,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(maxThreads * QUEUED_TASKS_PER_THREAD),
+                runnable -> {
+                    Thread thread = new Thread(
+                            null, runnable, "sling-xss-large-stack-" + threadCount.incrementAndGet(), stackSize);
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return new RegexExecutionStrategy(executor, listener);
+    }
+
+    /**
+     * @param input the input
+     * @return {@code true} if the input contains a run of more than {@link #LONG_TOKEN_LENGTH} characters without
+     *         whitespace, quotes or angle brackets, i.e. an attribute value which may overflow the calling thread's
+     *         stack
+     */
+    static boolean hasLongToken(@NotNull CharSequence input) {
+        int length = input.length();
+        if (length <= LONG_TOKEN_LENGTH) {
+            return false;
+        }
+        int run = 0;
+        for (int i = 0; i < length; i++) {
+            char c = input.charAt(i);
+            if (c <= ' ' || c == '"' || c == '\'' || c == '<' || c == '>') {
+                run = 0;
+            } else if (++run > LONG_TOKEN_LENGTH) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Runs the task, on a large stack if {@code deep} is set, and the fallback if the task overflows its stack.
+     *
+     * @param deep     whether the input is expected to need a large stack
+     * @param task     the task
+     * @param fallback the task to run on the calling thread after a {@link StackOverflowError}
+     * @param <T>      the type of the result
+     * @return the result of the task or of the fallback
+     */
+    <T> T execute(boolean deep, @NotNull Supplier<T> task, @NotNull Supplier<T> fallback) {
+        Path path = Path.INLINE;
+        try {
+            Future<T> future = deep ? submit(task) : null;
+            if (future != null) {
+                path = Path.LARGE_STACK;
+                return await(future, task);
+            }
+            return task.get();
+        } catch (StackOverflowError e) {
+            path = Path.FALLBACK;
+            return fallback.get();
+        } finally {
+            listener.accept(path);
+        }
+    }
+
+    /**
+     * Stops the worker threads once they have run the tasks already submitted, so that callers waiting for them are
+     * not left hanging. New tasks run on the calling thread.
+     */
+    void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    private <T> Future<T> submit(Supplier<T> task) {
+        if (executor == null) {
+            return null;
+        }
+        try {
+            return executor.submit(task::get);
+        } catch (RejectedExecutionException e) {
+            // saturated or shut down, the caller's stack and the fallback have to do
+            return null;
+        }
+    }
+
+    private static <T> T await(Future<T> future, Supplier<T> task) {
+        try {
+            return future.get();
+        } catch (CancellationException e) {
+            // cancelled before it ran, like a rejected submit the caller's stack and the fallback have to do
+            return task.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the large stack worker.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+}
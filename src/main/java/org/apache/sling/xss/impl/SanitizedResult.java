@@ -18,13 +18,39 @@
  */
 package org.apache.sling.xss.impl;
 
+import org.apache.sling.xss.impl.SanitizerLimits.Limit;
+import org.apache.sling.xss.impl.status.RejectionStatistics.Reason;
+import org.jetbrains.annotations.Nullable;
+
 public class SanitizedResult {
+    private static final int[] NO_REJECTIONS = new int[Reason.values().length];
+
     private String sanitizedString;
     private int numberOfErrors;
+    private int[] rejections;
+    private Limit exceededLimit;
+    private RegexExecutionStrategy.Path path = RegexExecutionStrategy.Path.INLINE;
 
     public SanitizedResult(String sanitizedString, int numberOfErrors) {
+        this(sanitizedString, numberOfErrors, NO_REJECTIONS);
+    }
+
+    /**
+     * @param rejections the number of stripped elements and attributes, indexed by {@link Reason#ordinal()}
+     */
+    public SanitizedResult(String sanitizedString, int numberOfErrors, int[] rejections) {
+        this(sanitizedString, numberOfErrors, rejections, null);
+    }
+
+    /**
+     * @param exceededLimit the {@link SanitizerLimits} limit which stopped the sanitizer, if any
+     */
+    public SanitizedResult(
+            String sanitizedString, int numberOfErrors, int[] rejections, @Nullable Limit exceededLimit) {
         this.sanitizedString = sanitizedString;
         this.numberOfErrors = numberOfErrors;
+        this.rejections = rejections;
+        this.exceededLimit = exceededLimit;
     }
 
     public String getSanitizedString() {
@@ -34,4 +60,26 @@ public class SanitizedResult {
     public int getNumberOfErrors() {
         return numberOfErrors;
     }
+
+    public int getNumberOfRejections(Reason reason) {
+        return rejections[reason.ordinal()];
+    }
+
+    /**
+     * @return the limit which stopped the sanitizer, {@code null} if the whole input was sanitized
+     */
+    public @Nullable Limit getExceededLimit() {
+        return exceededLimit;
+    }
+
+    /**
+     * @return the way the input was processed
+     */
+    RegexExecutionStrategy.Path getPath() {
+        return path;
+    }
+
+    void setPath(RegexExecutionStrategy.Path path) {
+        this.path = path;
+    }
 }
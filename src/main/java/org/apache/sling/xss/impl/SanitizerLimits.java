@@ -0,0 +1,212 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.xss.impl;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jetbrains.annotations.NotNull;
+import org.owasp.html.HtmlTextEscapingMode;
+
+/**
+ * Bounds the work the HTML sanitizer spends on a single input.
+ * <p>
+ * Every limit is disabled if it is {@code 0} or negative. When a limit is exceeded, the outcome depends on the limit:
+ * <ul>
+ *     <li>{@link Limit#INPUT_LENGTH}: the input is truncated to the maximum length before it is sanitized;</li>
+ *     <li>{@link Limit#TAG_COUNT} and {@link Limit#NESTING_DEPTH}: sanitizing stops at the offending tag, the output
+ *     produced so far is kept and its open elements are closed;</li>
+ *     <li>{@link Limit#DEADLINE}: the input is rejected and the output is empty.</li>
+ * </ul>
+ * In all cases the input is not considered valid by {@link org.apache.sling.xss.XSSFilter#check}.
+ */
+public final class SanitizerLimits {
+
+    public enum Limit {
+        INPUT_LENGTH("inputLength"),
+        TAG_COUNT("tagCount"),
+        NESTING_DEPTH("nestingDepth"),
+        DEADLINE("deadline");
+
+        private final String name;
+
+        Limit(String name) {
+            this.name = name;
+        }
+
+        public @NotNull String getName() {
+            return name;
+        }
+    }
+
+    public static final SanitizerLimits NONE = new SanitizerLimits(0, 0, 0, 0);
+
+    // the deadline is only looked at every this many events, System.nanoTime() is not free
+    private static final int DEADLINE_CHECK_INTERVAL = 64;
+
+    private final int maxInputLength;
+    private final int maxTagCount;
+    private final int maxNestingDepth;
+    private final long timeoutNanos;
+
+    /**
+     * @param maxInputLength  the maximum number of characters to sanitize
+     * @param maxTagCount     the maximum number of opening tags
+     * @param maxNestingDepth the maximum number of nested elements
+     * @param timeoutMillis   the maximum time in milliseconds to spend on a single input
+     */
+    public SanitizerLimits(int maxInputLength, int maxTagCount, int maxNestingDepth, long timeoutMillis) {
+        this.maxInputLength = Math.max(0, maxInputLength);
+        this.maxTagCount = Math.max(0, maxTagCount);
+        this.maxNestingDepth = Math.max(0, maxNestingDepth);
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, timeoutMillis));
+    }
+
+    private String truncate(String input) {
+        if (maxInputLength == 0 || input.length() <= maxInputLength) {
+            return input;
+        }
+        int end = maxInputLength;
+        if (Character.isHighSurrogate(input.charAt(end - 1))) {
+            end--;
+        }
+        return input.substring(0, end);
+    }
+
+    /**
+     * @return the budget for sanitizing a single input, starting now
+     */
+    public @NotNull Scan start() {
+        return new Scan(timeoutNanos == 0 ? 0 : System.nanoTime() + timeoutNanos);
+    }
+
+    /**
+     * Tracks the work done while sanitizing a single input. Instances are used by one thread only.
+     */
+    public final class Scan {
+
+        private final long deadline;
+        private int tagCount;
+        private int depth;
+        private int events;
+
+        private Scan(long deadline) {
+            this.deadline = deadline;
+        }
+
+        /**
+         * @param input the input
+         * @return the input, truncated to the maximum input length if that is exceeded
+         */
+        @NotNull
+        String truncate(@NotNull String input) {
+            return SanitizerLimits.this.truncate(input);
+        }
+
+        /**
+         * @return a fresh budget for a second attempt at the same input, which keeps the deadline of this one
+         */
+        @NotNull
+        Scan restart() {
+            return new Scan(deadline);
+        }
+
+        /**
+         * @return the number of opening tags accounted for so far
+         */
+        int getTagCount() {
+            return tagCount;
+        }
+
+        /**
+         * @param tagCount the number of opening tags counted by several budgets {@link #restart() restarted} from
+         *                 this one, for parts of the same input
+         * @return {@code true} if the tags are within the limit
+         */
+        boolean allowsTagCount(int tagCount) {
+            return maxTagCount <= 0 || tagCount <= maxTagCount;
+        }
+
+        /**
+         * Accounts for an opening tag.
+         *
+         * @param elementName the name of the element
+         * @throws LimitExceededException if the tag exceeds a limit
+         */
+        public void openTag(@NotNull String elementName) {
+            if (maxTagCount > 0 && ++tagCount > maxTagCount) {
+                throw new LimitExceededException(Limit.TAG_COUNT);
+            }
+            if (!HtmlTextEscapingMode.isVoidElement(elementName) && ++depth > maxNestingDepth && maxNestingDepth > 0) {
+                throw new LimitExceededException(Limit.NESTING_DEPTH);
+            }
+            checkDeadline();
+        }
+
+        /**
+         * Accounts for a closing tag.
+         */
+        public void closeTag() {
+            if (depth > 0) {
+                depth--;
+            }
+            checkDeadline();
+        }
+
+        /**
+         * Checks the deadline, for cheap and frequent events only every few calls.
+         *
+         * @throws LimitExceededException if the deadline has passed
+         */
+        public void checkDeadline() {
+            if (deadline != 0 && ++events % DEADLINE_CHECK_INTERVAL == 0) {
+                checkDeadlineNow();
+            }
+        }
+
+        /**
+         * Checks the deadline, before expensive work.
+         *
+         * @throws LimitExceededException if the deadline has passed
+         */
+        public void checkDeadlineNow() {
+            if (deadline != 0 && System.nanoTime() - deadline > 0) {
+                throw new LimitExceededException(Limit.DEADLINE);
+            }
+        }
+    }
+
+    /**
+     * Thrown from the sanitizer's callbacks to stop sanitizing once a limit is exceeded.
+     */
+    public static final class LimitExceededException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Limit limit;
+
+        LimitExceededException(@NotNull Limit limit) {
+            super("Sanitizer limit exceeded: " + limit.getName(), null, false, false);
+            this.limit = limit;
+        }
+
+        public @NotNull Limit getLimit() {
+            return limit;
+        }
+    }
+}
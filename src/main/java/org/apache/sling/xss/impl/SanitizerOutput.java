@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.xss.impl;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Receives the output of the HTML sanitizer and compares it with the input while it is rendered.
+ * <p>
+ * As long as the output is a prefix of the input, nothing is copied. Only at the first difference the matching
+ * prefix is copied to a buffer, which then receives the rest of the output. If the output turns out to be equal to
+ * the input, {@link #getResult()} returns the input instance itself, so that callers which cache or deduplicate the
+ * filtered strings keep a single copy of content which was clean already.
+ * <p>
+ * The buffer is kept per thread and reused by the following scans, unless it grew beyond
+ * {@link #MAX_RETAINED_CAPACITY}. An output has to be {@link #release() released} after its result was taken. The
+ * thread local only holds JDK types, so it does not pin the bundle's class loader after the bundle was updated.
+ */
+final class SanitizerOutput implements Appendable {
+
+    /**
+     * The largest buffer, in characters, which a thread keeps after a scan.
+     */
+    static final int MAX_RETAINED_CAPACITY = 16 * 1024;
+
+    // the thread's buffer; the slot is empty while a scan of the thread uses the buffer
+    private static final ThreadLocal<StringBuilder[]> BUFFERS = new ThreadLocal<>();
+
+    private final String input;
+    private int matched;
+    // null as long as the output is a prefix of the input
+    private StringBuilder builder;
+    // the slot the builder was taken from, if it is the thread's buffer
+    private StringBuilder[] slot;
+
+    /**
+     * @param input the input whose sanitized form is rendered into this output
+     */
+    SanitizerOutput(@NotNull String input) {
+        this.input = input;
+    }
+
+    @Override
+    public SanitizerOutput append(CharSequence csq) {
+        return append(csq, 0, csq.length());
+    }
+
+    @Override
+    public SanitizerOutput append(CharSequence csq, int start, int end) {
+        if (builder == null) {
+            if (matches(csq, start, end)) {
+                matched += end - start;
+                return this;
+            }
+            diverge(end - start);
+        }
+        builder.append(csq, start, end);
+        return this;
+    }
+
+    @Override
+    public SanitizerOutput append(char c) {
+        if (builder == null) {
+            if (matched < input.length() && input.charAt(matched) == c) {
+                matched++;
+                return this;
+            }
+            diverge(1);
+        }
+        builder.append(c);
+        return this;
+    }
+
+    /**
+     * @return the output rendered so far; the input instance if the output equals it
+     */
+    @NotNull
+    String getResult() {
+        if (builder != null) {
+            return builder.toString();
+        }
+        return matched == input.length() ? input : input.substring(0, matched);
+    }
+
+    /**
+     * Hands the buffer back to the calling thread, for the next scan.
+     */
+    void release() {
+        if (slot != null) {
+            // don't hold on to the buffer of an exceptionally large output
+            slot[0] = builder.capacity() > MAX_RETAINED_CAPACITY ? new StringBuilder() : builder;
+            slot = null;
+        }
+    }
+
+    private boolean matches(CharSequence csq, int start, int end) {
+        int length = end - start;
+        if (matched + length > input.length()) {
+            return false;
+        }
+        if (csq instanceof String) {
+            return input.regionMatches(matched, (String) csq, start, length);
+        }
+        for (int i = 0; i < length; i++) {
+            if (input.charAt(matched + i) != csq.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void diverge(int pending) {
+        int capacity = Math.max(input.length(), matched + pending);
+        StringBuilder[] threadSlot = BUFFERS.get();
+        if (threadSlot == null) {
+            threadSlot = new StringBuilder[] {new StringBuilder()};
+            BUFFERS.set(threadSlot);
+        }
+        if (threadSlot[0] == null) {
+            builder = new StringBuilder(capacity);
+        } else {
+            slot = threadSlot;
+            builder = threadSlot[0];
+            threadSlot[0] = null;
+            builder.setLength(0);
+            builder.ensureCapacity(capacity);
+        }
+        builder.append(input, 0, matched);
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.xss.impl;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The time a profiling {@link HtmlSanitizer} spent in the rules of its policy, per {@link Category} and rule.
+ * <p>
+ * The times are inclusive: the time of an element contains the time of its attribute matchers, and the time of a
+ * {@code style} attribute's matcher contains the time of its CSS properties. A profile is not thread-safe; it is
+ * meant for a sanitizer which runs a sample input on a single thread.
+ */
+public final class SanitizerProfile {
+
+    public enum Category {
+        /** opening an element, i.e. applying its element policy and the policies of its attributes */
+        ELEMENT("element"),
+        /** matching an attribute value against one of the attribute's regular expressions or its literals */
+        ATTRIBUTE("attribute"),
+        /** cleaning a CSS property, in a {@code style} attribute or a style sheet */
+        CSS_PROPERTY("cssProperty"),
+        /** removing duplicate attributes after the attribute policies have been applied */
+        DUPLICATE_ATTRIBUTES("removeDuplicateAttributes");
+
+        private final String name;
+
+        Category(String name) {
+            this.name = name;
+        }
+
+        public @NotNull String getName() {
+            return name;
+        }
+    }
+
+    private final Map<Category, Map<String, Entry>> entries = new EnumMap<>(Category.class);
+    private int iterations;
+    private long scanNanos;
+
+    /**
+     * @return the token to hand to {@link #record} once the profiled step is done
+     */
+    public long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the time spent in a rule since the given token.
+     *
+     * @param category the category of the rule
+     * @param rule     the rule, e.g. the element name or the attribute name and regular expression name
+     * @param start    the token returned by {@link #start()}
+     */
+    public void record(@NotNull Category category, @NotNull String rule, long start) {
+        long nanos = System.nanoTime() - start;
+        entries.computeIfAbsent(category, c -> new HashMap<>())
+                .computeIfAbsent(rule, Entry::new)
+                .add(nanos);
+    }
+
+    void recordScan(long start) {
+        scanNanos += System.nanoTime() - start;
+        iterations++;
+    }
+
+    /**
+     * @return the number of times the sample was sanitized
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * @return the total time spent sanitizing the sample, over all iterations
+     */
+    public long getScanNanos() {
+        return scanNanos;
+    }
+
+    /**
+     * @param category the category
+     * @return the rules of the given category, the most expensive first
+     */
+    public @NotNull List<Entry> getEntries(@NotNull Category category) {
+        List<Entry> list =
+                new ArrayList<>(entries.getOrDefault(category, new HashMap<>()).values());
+        list.sort(Comparator.comparingLong(Entry::getNanos).reversed());
+        return list;
+    }
+
+    public static final class Entry {
+
+        private final String rule;
+        private long count;
+        private long nanos;
+
+        private Entry(String rule) {
+            this.rule = rule;
+        }
+
+        private void add(long nanos) {
+            this.count++;
+            this.nanos += nanos;
+        }
+
+        public @NotNull String getRule() {
+            return rule;
+        }
+
+        /**
+         * @return the number of times the rule was applied, over all iterations
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return the total time spent in the rule, over all iterations
+         */
+        public long getNanos() {
+            return nanos;
+        }
+    }
+}
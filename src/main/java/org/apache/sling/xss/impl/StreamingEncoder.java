@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.xss.impl;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.nio.charset.CoderResult;
+
+import org.jetbrains.annotations.NotNull;
+import org.owasp.encoder.Encoder;
+import org.owasp.encoder.Encoders;
+
+/**
+ * Encodes character sequences straight into a {@link Writer} with one of the OWASP encoders.
+ * <p>
+ * The {@code Writer} variants of {@link org.owasp.encoder.Encode} allocate new buffers on every call, which costs more
+ * than the intermediate string they avoid. This class keeps its buffers per thread instead, so encoding into a writer
+ * does not allocate at all. The thread local only holds JDK types, so it does not pin the bundle's class loader after
+ * the bundle was updated.
+ */
+final class StreamingEncoder {
+
+    static final StreamingEncoder HTML = new StreamingEncoder(Encoders.HTML);
+    static final StreamingEncoder HTML_ATTRIBUTE = new StreamingEncoder(Encoders.HTML_ATTRIBUTE);
+    static final StreamingEncoder XML = new StreamingEncoder(Encoders.XML);
+    static final StreamingEncoder XML_ATTRIBUTE = new StreamingEncoder(Encoders.XML_ATTRIBUTE);
+    static final StreamingEncoder CSS_STRING = new StreamingEncoder(Encoders.CSS_STRING);
+
+    private static final int BUFFER_SIZE = 1024;
+    // the thread's input and output buffers; the slots are empty while an encoding of the thread uses them
+    private static final ThreadLocal<CharBuffer[]> BUFFERS = new ThreadLocal<>();
+
+    private final Encoder encoder;
+
+    private StreamingEncoder(String name) {
+        this.encoder = Encoders.forName(name);
+    }
+
+    void encode(@NotNull Writer out, @NotNull CharSequence source) throws IOException {
+        CharBuffer[] slots = BUFFERS.get();
+        if (slots == null) {
+            slots = new CharBuffer[] {CharBuffer.allocate(BUFFER_SIZE), CharBuffer.allocate(BUFFER_SIZE * 2)};
+            BUFFERS.set(slots);
+        }
+        CharBuffer input = slots[0];
+        CharBuffer output = slots[1];
+        if (input == null) {
+            // the writer encodes as well, don't share the buffers with it
+            encode(out, source, CharBuffer.allocate(BUFFER_SIZE), CharBuffer.allocate(BUFFER_SIZE * 2));
+            return;
+        }
+        slots[0] = null;
+        slots[1] = null;
+        try {
+            encode(out, source, input, output);
+        } finally {
+            slots[0] = input;
+            slots[1] = output;
+        }
+    }
+
+    private void encode(Writer out, CharSequence source, CharBuffer input, CharBuffer output) throws IOException {
+        input.clear();
+        output.clear();
+        int position = 0;
+        int length = source.length();
+        while (true) {
+            int count = Math.min(input.remaining(), length - position);
+            if (source instanceof String) {
+                ((String) source).getChars(position, position + count, input.array(), input.position());
+                input.position(input.position() + count);
+            } else {
+                for (int i = 0; i < count; i++) {
+                    input.put(source.charAt(position + i));
+                }
+            }
+            position += count;
+            input.flip();
+            boolean endOfInput = position == length;
+            CoderResult result;
+            do {
+                result = encoder.encode(input, output, endOfInput);
+                out.write(output.array(), 0, output.position());
+                output.clear();
+            } while (result.isOverflow());
+            if (endOfInput) {
+                return;
+            }
+            // keeps a trailing high surrogate which the encoder can only handle together with the next chunk
+            input.compact();
+        }
+    }
+}
@@ -21,8 +21,10 @@ package org.apache.sling.xss.impl;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 
+import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.regex.Pattern;
@@ -39,6 +41,9 @@ import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Deactivate;
 import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
+import org.osgi.service.component.annotations.ReferencePolicyOption;
 import org.owasp.encoder.Encode;
 import org.owasp.esapi.ESAPI;
 import org.owasp.esapi.Validator;
@@ -57,6 +62,18 @@ public class XSSAPIImpl implements XSSAPI {
     @Reference
     private XSSFilter xssFilter;
 
+    @Reference(
+            policy = ReferencePolicy.DYNAMIC,
+            cardinality = ReferenceCardinality.OPTIONAL,
+            policyOption = ReferencePolicyOption.GREEDY)
+    private volatile XSSMetricsService metricsService;
+
+    @Reference(
+            policy = ReferencePolicy.DYNAMIC,
+            cardinality = ReferenceCardinality.OPTIONAL,
+            policyOption = ReferencePolicyOption.GREEDY)
+    private volatile PerformanceMonitor performanceMonitor;
+
     private final Validator validator = ESAPI.validator();
 
     private static final Pattern PATTERN_AUTO_DIMENSION = Pattern.compile("['\"]?auto['\"]?");
@@ -97,6 +114,15 @@ public class XSSAPIImpl implements XSSAPI {
      */
     @Override
     public Integer getValidInteger(String integer, int defaultValue) {
+        final long start = startTiming();
+        try {
+            return validInteger(integer, defaultValue);
+        } finally {
+            recordTiming(XSSOperation.GET_VALID_INTEGER, start);
+        }
+    }
+
+    private Integer validInteger(String integer, int defaultValue) {
         if (integer != null && integer.length() > 0) {
             try {
                 return validator.getValidInteger("XSS", integer, -2000000000, 2000000000, false);
@@ -115,6 +141,15 @@ public class XSSAPIImpl implements XSSAPI {
      */
     @Override
     public Long getValidLong(String source, long defaultValue) {
+        final long start = startTiming();
+        try {
+            return validLong(source, defaultValue);
+        } finally {
+            recordTiming(XSSOperation.GET_VALID_LONG, start);
+        }
+    }
+
+    private Long validLong(String source, long defaultValue) {
         if (source != null && source.length() > 0) {
             try {
                 LongValidationRule ivr =
@@ -136,6 +171,15 @@ public class XSSAPIImpl implements XSSAPI {
      */
     @Override
     public Double getValidDouble(String source, double defaultValue) {
+        final long start = startTiming();
+        try {
+            return validDouble(source, defaultValue);
+        } finally {
+            recordTiming(XSSOperation.GET_VALID_DOUBLE, start);
+        }
+    }
+
+    private Double validDouble(String source, double defaultValue) {
         if (source != null && source.length() > 0) {
             try {
                 return validator.getValidDouble("XSS", source, 0d, Double.MAX_VALUE, false);
@@ -154,6 +198,15 @@ public class XSSAPIImpl implements XSSAPI {
      */
     @Override
     public String getValidDimension(String dimension, String defaultValue) {
+        final long start = startTiming();
+        try {
+            return validDimension(dimension, defaultValue);
+        } finally {
+            recordTiming(XSSOperation.GET_VALID_DIMENSION, start);
+        }
+    }
+
+    private String validDimension(String dimension, String defaultValue) {
         if (dimension != null && dimension.length() > 0) {
             if (PATTERN_AUTO_DIMENSION.matcher(dimension).matches()) {
                 return "\"auto\"";
@@ -179,6 +232,15 @@ public class XSSAPIImpl implements XSSAPI {
     @Override
     @NotNull
     public String getValidHref(final String url) {
+        final long start = startTiming();
+        try {
+            return validHref(url);
+        } finally {
+            recordTiming(XSSOperation.GET_VALID_HREF, start);
+        }
+    }
+
+    private String validHref(final String url) {
         if (StringUtils.isNotEmpty(url)) {
             // Percent-encode characters that are not allowed in unquoted
             // HTML attributes: ", ', >, <, ` and space. We don't encode =
@@ -207,13 +269,38 @@ public class XSSAPIImpl implements XSSAPI {
      */
     @Override
     public String getValidJSToken(String token, String defaultValue) {
+        final long start = startTiming();
+        try {
+            return validJSToken(token, defaultValue);
+        } finally {
+            recordTiming(XSSOperation.GET_VALID_JS_TOKEN, start);
+        }
+    }
+
+    private String validJSToken(String token, String defaultValue) {
         if (token != null && token.length() > 0) {
             token = token.trim();
-            String q = token.substring(0, 1);
-            if (q.matches("['\"]") && token.endsWith(q)) {
-                String literal = token.substring(1, token.length() - 1);
-                return q + encodeForJSString(literal) + q;
-            } else if (token.matches("[0-9a-zA-Z_$][0-9a-zA-Z_$.]*")) {
+            int length = token.length();
+            if (length == 0) {
+                return defaultValue;
+            }
+            char q = token.charAt(0);
+            if ((q == '\'' || q == '"') && length > 1 && token.charAt(length - 1) == q) {
+                // a string literal, its content is encoded
+                int first = JsStringEncoder.firstEncodedOffset(token, 1, length - 1);
+                if (first == length - 1) {
+                    return token;
+                }
+                StringBuilder literal = new StringBuilder(length + 16);
+                literal.append(token, 0, first);
+                try {
+                    JsStringEncoder.encode(literal, token, first, length - 1);
+                } catch (IOException e) {
+                    // a StringBuilder does not throw
+                    throw new IllegalStateException(e);
+                }
+                return literal.append(q).toString();
+            } else if (isJSIdentifierPath(token)) {
                 return token;
             }
         }
@@ -222,6 +309,25 @@ public class XSSAPIImpl implements XSSAPI {
         return defaultValue;
     }
 
+    /**
+     * @return {@code true} if the token matches {@code [0-9a-zA-Z_$][0-9a-zA-Z_$.]*}
+     */
+    private static boolean isJSIdentifierPath(String token) {
+        for (int i = 0; i < token.length(); i++) {
+            char c = token.charAt(i);
+            boolean valid = (c >= '0' && c <= '9')
+                    || (c >= 'a' && c <= 'z')
+                    || (c >= 'A' && c <= 'Z')
+                    || c == '_'
+                    || c == '$'
+                    || (c == '.' && i > 0);
+            if (!valid) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private static final String NON_ASCII = "\\x00\\x08\\x0B\\x0C\\x0E-\\x1F";
     /** http://www.w3.org/TR/css-syntax-3/#number-token-diagram */
     private static final String NUMBER = "[+-]?[\\d]*[\\.]?[\\d]*(?:[e][+-]?\\d+)?";
@@ -259,6 +365,15 @@ public class XSSAPIImpl implements XSSAPI {
      */
     @Override
     public String getValidStyleToken(String token, String defaultValue) {
+        final long start = startTiming();
+        try {
+            return validStyleToken(token, defaultValue);
+        } finally {
+            recordTiming(XSSOperation.GET_VALID_STYLE_TOKEN, start);
+        }
+    }
+
+    private String validStyleToken(String token, String defaultValue) {
         if (token != null && token.length() > 0 && token.matches(CSS_TOKEN)) {
             return token;
         }
@@ -271,6 +386,15 @@ public class XSSAPIImpl implements XSSAPI {
      */
     @Override
     public String getValidCSSColor(String color, String defaultColor) {
+        final long start = startTiming();
+        try {
+            return validCSSColor(color, defaultColor);
+        } finally {
+            recordTiming(XSSOperation.GET_VALID_CSS_COLOR, start);
+        }
+    }
+
+    private String validCSSColor(String color, String defaultColor) {
         if (color != null && color.length() > 0) {
             color = color.trim();
             /*
@@ -295,6 +419,15 @@ public class XSSAPIImpl implements XSSAPI {
      */
     @Override
     public String getValidMultiLineComment(String comment, String defaultComment) {
+        final long start = startTiming();
+        try {
+            return validMultiLineComment(comment, defaultComment);
+        } finally {
+            recordTiming(XSSOperation.GET_VALID_MULTI_LINE_COMMENT, start);
+        }
+    }
+
+    private String validMultiLineComment(String comment, String defaultComment) {
         if (comment != null && !comment.contains("*/")) {
             return comment;
         }
@@ -306,8 +439,17 @@ public class XSSAPIImpl implements XSSAPI {
      */
     @Override
     public String getValidJSON(String json, String defaultJson) {
+        final long start = startTiming();
+        try {
+            return validJSON(json, defaultJson);
+        } finally {
+            recordTiming(XSSOperation.GET_VALID_JSON, start);
+        }
+    }
+
+    private String validJSON(String json, String defaultJson) {
         if (json == null) {
-            return getValidJSON(defaultJson, "");
+            return validJSON(defaultJson, "");
         }
         json = json.trim();
         if ("".equals(json)) {
@@ -342,7 +484,7 @@ public class XSSAPIImpl implements XSSAPI {
                 LOGGER.debug("JSON input:\n{}", json);
             }
         }
-        return getValidJSON(defaultJson, "");
+        return validJSON(defaultJson, "");
     }
 
     /**
@@ -350,8 +492,17 @@ public class XSSAPIImpl implements XSSAPI {
      */
     @Override
     public String getValidXML(String xml, String defaultXml) {
+        final long start = startTiming();
+        try {
+            return validXML(xml, defaultXml);
+        } finally {
+            recordTiming(XSSOperation.GET_VALID_XML, start);
+        }
+    }
+
+    private String validXML(String xml, String defaultXml) {
         if (xml == null) {
-            return getValidXML(defaultXml, "");
+            return validXML(defaultXml, "");
         }
         xml = xml.trim();
         if ("".equals(xml)) {
@@ -367,7 +518,7 @@ public class XSSAPIImpl implements XSSAPI {
             LOGGER.warn("Unable to get valid XML from the input.", e);
             LOGGER.debug("XML input:\n{}", xml);
         }
-        return getValidXML(defaultXml, "");
+        return validXML(defaultXml, "");
     }
 
     // =============================================================================================
@@ -379,7 +530,10 @@ public class XSSAPIImpl implements XSSAPI {
      */
     @Override
     public String encodeForHTML(String source) {
-        return source == null ? null : Encode.forHtml(source);
+        final long start = startTiming();
+        final String encoded = source == null ? null : Encode.forHtml(source);
+        recordTiming(XSSOperation.ENCODE_FOR_HTML, start, source, encoded);
+        return encoded;
     }
 
     /**
@@ -387,7 +541,10 @@ public class XSSAPIImpl implements XSSAPI {
      */
     @Override
     public String encodeForHTMLAttr(String source) {
-        return source == null ? null : Encode.forHtmlAttribute(source);
+        final long start = startTiming();
+        final String encoded = source == null ? null : Encode.forHtmlAttribute(source);
+        recordTiming(XSSOperation.ENCODE_FOR_HTML_ATTR, start, source, encoded);
+        return encoded;
     }
 
     /**
@@ -395,7 +552,10 @@ public class XSSAPIImpl implements XSSAPI {
      */
     @Override
     public String encodeForXML(String source) {
-        return source == null ? null : Encode.forXml(source);
+        final long start = startTiming();
+        final String encoded = source == null ? null : Encode.forXml(source);
+        recordTiming(XSSOperation.ENCODE_FOR_XML, start, source, encoded);
+        return encoded;
     }
 
     /**
@@ -403,7 +563,10 @@ public class XSSAPIImpl implements XSSAPI {
      */
     @Override
     public String encodeForXMLAttr(String source) {
-        return source == null ? null : Encode.forXmlAttribute(source);
+        final long start = startTiming();
+        final String encoded = source == null ? null : Encode.forXmlAttribute(source);
+        recordTiming(XSSOperation.ENCODE_FOR_XML_ATTR, start, source, encoded);
+        return encoded;
     }
 
     /**
@@ -411,7 +574,14 @@ public class XSSAPIImpl implements XSSAPI {
      */
     @Override
     public String encodeForJSString(String source) {
-        return source == null ? null : Encode.forJavaScript(source).replace("\\-", "\\u002D");
+        final long start = startTiming();
+        final String encoded = jsStringEncoded(source);
+        recordTiming(XSSOperation.ENCODE_FOR_JS_STRING, start, source, encoded);
+        return encoded;
+    }
+
+    private static String jsStringEncoded(String source) {
+        return source == null ? null : JsStringEncoder.encode(source);
     }
 
     /**
@@ -419,7 +589,82 @@ public class XSSAPIImpl implements XSSAPI {
      */
     @Override
     public String encodeForCSSString(String source) {
-        return source == null ? null : Encode.forCssString(source);
+        final long start = startTiming();
+        final String encoded = source == null ? null : Encode.forCssString(source);
+        recordTiming(XSSOperation.ENCODE_FOR_CSS_STRING, start, source, encoded);
+        return encoded;
+    }
+
+    /**
+     * @see org.apache.sling.xss.XSSAPI#encodeForHTML(Writer, CharSequence)
+     */
+    @Override
+    public void encodeForHTML(@NotNull Writer out, CharSequence source) throws IOException {
+        final long start = startTiming();
+        if (source != null) {
+            StreamingEncoder.HTML.encode(out, source);
+        }
+        recordTiming(XSSOperation.ENCODE_FOR_HTML, start, source, null);
+    }
+
+    /**
+     * @see org.apache.sling.xss.XSSAPI#encodeForHTMLAttr(Writer, CharSequence)
+     */
+    @Override
+    public void encodeForHTMLAttr(@NotNull Writer out, CharSequence source) throws IOException {
+        final long start = startTiming();
+        if (source != null) {
+            StreamingEncoder.HTML_ATTRIBUTE.encode(out, source);
+        }
+        recordTiming(XSSOperation.ENCODE_FOR_HTML_ATTR, start, source, null);
+    }
+
+    /**
+     * @see org.apache.sling.xss.XSSAPI#encodeForXML(Writer, CharSequence)
+     */
+    @Override
+    public void encodeForXML(@NotNull Writer out, CharSequence source) throws IOException {
+        final long start = startTiming();
+        if (source != null) {
+            StreamingEncoder.XML.encode(out, source);
+        }
+        recordTiming(XSSOperation.ENCODE_FOR_XML, start, source, null);
+    }
+
+    /**
+     * @see org.apache.sling.xss.XSSAPI#encodeForXMLAttr(Writer, CharSequence)
+     */
+    @Override
+    public void encodeForXMLAttr(@NotNull Writer out, CharSequence source) throws IOException {
+        final long start = startTiming();
+        if (source != null) {
+            StreamingEncoder.XML_ATTRIBUTE.encode(out, source);
+        }
+        recordTiming(XSSOperation.ENCODE_FOR_XML_ATTR, start, source, null);
+    }
+
+    /**
+     * @see org.apache.sling.xss.XSSAPI#encodeForJSString(Writer, CharSequence)
+     */
+    @Override
+    public void encodeForJSString(@NotNull Writer out, CharSequence source) throws IOException {
+        final long start = startTiming();
+        if (source != null) {
+            JsStringEncoder.encode(out, source);
+        }
+        recordTiming(XSSOperation.ENCODE_FOR_JS_STRING, start, source, null);
+    }
+
+    /**
+     * @see org.apache.sling.xss.XSSAPI#encodeForCSSString(Writer, CharSequence)
+     */
+    @Override
+    public void encodeForCSSString(@NotNull Writer out, CharSequence source) throws IOException {
+        final long start = startTiming();
+        if (source != null) {
+            StreamingEncoder.CSS_STRING.encode(out, source);
+        }
+        recordTiming(XSSOperation.ENCODE_FOR_CSS_STRING, start, source, null);
     }
 
     // =============================================================================================
@@ -432,6 +677,25 @@ public class XSSAPIImpl implements XSSAPI {
     @Override
     @NotNull
     public String filterHTML(String source) {
-        return xssFilter.filter(ProtectionContext.HTML_HTML_CONTENT, source);
+        final long start = startTiming();
+        final String filtered = xssFilter.filter(ProtectionContext.HTML_HTML_CONTENT, source);
+        recordTiming(XSSOperation.FILTER_HTML, start, source, filtered);
+        return filtered;
+    }
+
+    // =============================================================================================
+    // METRICS
+    //
+
+    private long startTiming() {
+        return CallTiming.start(metricsService, performanceMonitor);
+    }
+
+    private void recordTiming(XSSOperation operation, long start) {
+        CallTiming.record(metricsService, performanceMonitor, operation, start, null, null);
+    }
+
+    private void recordTiming(XSSOperation operation, long start, CharSequence input, CharSequence output) {
+        CallTiming.record(metricsService, performanceMonitor, operation, start, input, output);
     }
 }
@@ -29,7 +29,13 @@ import java.util.Collections;
 import java.util.Dictionary;
 import java.util.Hashtable;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.regex.Pattern;
@@ -48,6 +54,9 @@ import org.apache.sling.api.resource.observation.ResourceChangeListener;
 import org.apache.sling.serviceusermapping.ServiceUserMapped;
 import org.apache.sling.xss.ProtectionContext;
 import org.apache.sling.xss.XSSFilter;
+import org.apache.sling.xss.impl.jfr.FlightRecorderEvents;
+import org.apache.sling.xss.impl.status.Hashes;
+import org.apache.sling.xss.impl.status.SlowCallLog;
 import org.apache.sling.xss.impl.status.XSSStatusService;
 import org.apache.sling.xss.impl.xml.Attribute;
 import org.apache.sling.xss.impl.xml.Regexp;
@@ -86,6 +95,117 @@ public class XSSFilterImpl implements XSSFilter {
                 description =
                         "The path to the AntiSamy policy file (absolute or relative to the configured search paths).")
         String policyPath() default XSSFilterImpl.DEFAULT_POLICY_PATH;
+
+        @AttributeDefinition(
+                name = "Policy Reload Delay",
+                description = "The time in milliseconds to wait after a change of the policy file before the policy is"
+                        + " reloaded. Further changes within this time restart the wait, so that a burst of changes"
+                        + " results in a single reload.")
+        long policyReloadDelay() default XSSFilterImpl.DEFAULT_POLICY_RELOAD_DELAY;
+
+        @AttributeDefinition(
+                name = "Named Policies",
+                description = "Additional AntiSamy policies, as name=path entries, which can be selected by name when"
+                        + " filtering. The paths are absolute or relative to the configured search paths.")
+        String[] namedPolicies() default {};
+
+        @AttributeDefinition(
+                name = "Maximum Number of Loaded Named Policies",
+                description = "Named policies are loaded on their first use. Once this number of named policies is"
+                        + " loaded, the least recently used one is unloaded.")
+        int maxLoadedNamedPolicies() default XSSFilterImpl.DEFAULT_MAX_LOADED_NAMED_POLICIES;
+
+        @AttributeDefinition(
+                name = "Maximum Input Length",
+                description = "HTML input longer than this number of characters is truncated before it is sanitized."
+                        + " 0 disables the limit.")
+        int maxInputLength() default 0;
+
+        @AttributeDefinition(
+                name = "Maximum Tag Count",
+                description = "Sanitizing HTML input stops after this number of tags; the output contains the input"
+                        + " up to that tag. 0 disables the limit.")
+        int maxTagCount() default 0;
+
+        @AttributeDefinition(
+                name = "Maximum Nesting Depth",
+                description = "Sanitizing HTML input stops at the first element nested deeper than this; the output"
+                        + " contains the input up to that element. 0 disables the limit.")
+        int maxNestingDepth() default 0;
+
+        @AttributeDefinition(
+                name = "Sanitizer Timeout",
+                description = "The maximum time in milliseconds to spend on sanitizing a single HTML input. Input"
+                        + " which takes longer is rejected and filtered to an empty string. 0 disables the limit.")
+        long sanitizerTimeout() default 0;
+
+        @AttributeDefinition(
+                name = "Large Stack Size",
+                description = "The stack size in MiB of the threads which match the policy's regular expressions"
+                        + " against input with long tokens, such as long URLs, which would overflow the calling"
+                        + " thread's stack. 0 matches all input on the calling thread and retries input which"
+                        + " overflows it with simplified expressions.")
+        int largeStackSize() default XSSFilterImpl.DEFAULT_LARGE_STACK_SIZE;
+
+        @AttributeDefinition(
+                name = "Parallel Sanitization Threshold",
+                description = "The length in characters from which on HTML input is split after its top-level elements"
+                        + " and the parts are sanitized in parallel. The result is the same as that of sanitizing the"
+                        + " input as a whole, which is done instead whenever the input cannot be split safely. 0"
+                        + " sanitizes all input on the calling thread.")
+        int parallelSanitizationThreshold() default 0;
+
+        @AttributeDefinition(
+                name = "Parallelism",
+                description = "The number of threads sanitizing the parts of large input. 0 starts one thread per"
+                        + " available processor.")
+        int parallelism() default 0;
+
+        @AttributeDefinition(
+                name = "Reject Unsafe Regular Expressions",
+                description = "If checked, a policy is not loaded if one of its regular expressions can take more than"
+                        + " quadratic time to reject an input (ReDoS); the active policy is kept instead. Such regular"
+                        + " expressions are logged and listed in the web console in any case.")
+        boolean rejectUnsafeRegexps() default false;
+
+        @AttributeDefinition(
+                name = "Warm-up Iterations",
+                description = "The number of times a newly loaded policy sanitizes the warm-up corpus, so that the"
+                        + " JIT compiles the sanitizer before the policy serves requests. A reloaded or reconfigured"
+                        + " policy is loaded and warmed up in the background before it replaces the active one; the"
+                        + " first policy after activation is warmed up in the background while it serves requests. 0"
+                        + " disables the warm-up.")
+        int warmUpIterations() default 0;
+
+        @AttributeDefinition(
+                name = "Warm-up Time",
+                description = "The maximum time in milliseconds to spend on warming up a policy, at most 60000. 0"
+                        + " means the maximum.")
+        long warmUpTime() default XSSFilterImpl.DEFAULT_WARM_UP_TIME;
+
+        @AttributeDefinition(
+                name = "Warm-up Corpus",
+                description = "The HTML documents to sanitize during the warm-up. If empty, a built-in corpus of"
+                        + " typical markup is used.")
+        String[] warmUpCorpus() default {};
+
+        @AttributeDefinition(
+                name = "Slow Input Threshold",
+                description = "The time in milliseconds from which on filtering or checking an input is considered"
+                        + " slow. Slow inputs are kept in memory and can be downloaded from the web console as a"
+                        + " corpus for reproducing them.")
+        long slowInputThreshold() default XSSFilterImpl.DEFAULT_SLOW_INPUT_THRESHOLD;
+
+        @AttributeDefinition(
+                name = "Slow Input Log Size",
+                description = "The number of most recent slow inputs to keep. 0 disables the slow input log.")
+        int slowInputLogSize() default XSSFilterImpl.DEFAULT_SLOW_INPUT_LOG_SIZE;
+
+        @AttributeDefinition(
+                name = "Slow Input Capture Length",
+                description = "The number of characters kept of a slow input; longer inputs are truncated. The hash"
+                        + " of the whole input is kept in any case.")
+        int slowInputCaptureLength() default XSSFilterImpl.DEFAULT_SLOW_INPUT_CAPTURE_LENGTH;
     }
 
     private static final Logger logger = LoggerFactory.getLogger(XSSFilterImpl.class);
@@ -170,16 +290,42 @@ public class XSSFilterImpl implements XSSFilter {
 
     static final String DEFAULT_POLICY_PATH = "sling/xss/config.xml";
     static final String EMBEDDED_POLICY_PATH = "SLING-INF/content/config.xml";
-    private Attribute hrefAttribute;
+    static final String SNAPSHOTS_FOLDER = "policy-snapshots";
+    static final long DEFAULT_POLICY_RELOAD_DELAY = 500;
+    static final int DEFAULT_MAX_LOADED_NAMED_POLICIES = 16;
+    static final int DEFAULT_LARGE_STACK_SIZE = 32;
+    static final long DEFAULT_WARM_UP_TIME = 10000;
+    static final long DEFAULT_SLOW_INPUT_THRESHOLD = 100;
+    static final int DEFAULT_SLOW_INPUT_LOG_SIZE = 16;
+    static final int DEFAULT_SLOW_INPUT_CAPTURE_LENGTH = 16384;
     private String policyPath;
+    private long policyReloadDelay;
     private ServiceRegistration<ResourceChangeListener> serviceRegistration;
+    private ServiceRegistration<ResourceChangeListener> namedPoliciesRegistration;
+    private PolicySnapshotStore snapshotStore = new PolicySnapshotStore(null);
 
     // available contexts
-    private final XSSFilterRule htmlHtmlContext = new HtmlToHtmlContentContext();
+    private final HtmlToHtmlContentContext htmlHtmlContext = new HtmlToHtmlContentContext();
     private final XSSFilterRule plainHtmlContext = new PlainTextToHtmlContentContext();
 
+    /*
+     the active policy is an immutable snapshot of everything derived from the policy file; readers dereference it once
+     per call, so they never combine parts of different policy generations
+    */
     private volatile AntiSamyPolicy activePolicy;
 
+    private volatile NamedPolicies namedPolicies = new NamedPolicies(Collections.emptyMap(), 1, path -> null);
+
+    private final Object reloadLock = new Object();
+    // guarded by reloadLock
+    private ScheduledExecutorService policyReloader;
+    // guarded by reloadLock
+    private ScheduledFuture<?> pendingReload;
+    private volatile RegexExecutionStrategy executionStrategy = RegexExecutionStrategy.INLINE;
+    private volatile ParallelSanitizer parallelSanitizer = ParallelSanitizer.DISABLED;
+    private volatile PolicyWarmUp warmUp = PolicyWarmUp.DISABLED;
+    private volatile SlowCallLog slowInputs = SlowCallLog.DISABLED;
+
     @Reference
     private ResourceResolverFactory resourceResolverFactory;
 
@@ -192,15 +338,48 @@ public class XSSFilterImpl implements XSSFilter {
             policyOption = ReferencePolicyOption.GREEDY)
     private volatile XSSMetricsService metricsService;
 
+    @Reference(
+            policy = ReferencePolicy.DYNAMIC,
+            cardinality = ReferenceCardinality.OPTIONAL,
+            policyOption = ReferencePolicyOption.GREEDY)
+    private volatile PerformanceMonitor performanceMonitor;
+
     @Reference
     private XSSStatusService statusService;
 
-    private static final String COUNTER_INVALID_HREFS = "xss.invalid_hrefs";
-
     @Override
     public boolean check(final ProtectionContext context, final String src) {
+        return check(context, src, activePolicy);
+    }
+
+    @Override
+    public boolean check(final ProtectionContext context, final String src, final String policyName) {
+        return check(context, src, getPolicy(policyName));
+    }
+
+    private boolean check(final ProtectionContext context, final String src, final AntiSamyPolicy policy) {
         final XSSFilterRule ctx = this.getFilterRule(context);
-        return ctx.check(getPolicyHandler(), src);
+        final SlowCallLog slowInputLog = slowInputs;
+        final long captureStart = slowInputLog.isEnabled() ? System.nanoTime() : 0;
+        final long start = startTiming();
+        final Object event = FlightRecorderEvents.beginSanitize();
+        final PolicyHandler policyHandler = policy == null ? null : policy.getPolicyHandler();
+        final boolean isValid;
+        int errors = 0;
+        SanitizedResult result = null;
+        if (ctx == htmlHtmlContext) {
+            result = htmlHtmlContext.sanitize(policyHandler, src);
+            recordSanitizerErrors(start, result);
+            isValid = htmlHtmlContext.check(result);
+            errors = result == null ? 0 : result.getNumberOfErrors();
+        } else {
+            isValid = ctx.check(policyHandler, src);
+        }
+        final boolean captured = slowInputLog.isEnabled()
+                && recordSlowInput(slowInputLog, XSSOperation.check(context), context, src, null, captureStart, result);
+        recordTiming(XSSOperation.check(context), start, src, null, captured);
+        commitSanitizeEvent(event, "check", context, src, null, errors, policy);
+        return isValid;
     }
 
     @Override
@@ -210,18 +389,145 @@ public class XSSFilterImpl implements XSSFilter {
 
     @Override
     public String filter(final ProtectionContext context, final String src) {
+        return filter(context, src, activePolicy);
+    }
+
+    @Override
+    public String filter(final ProtectionContext context, final String src, final String policyName) {
+        return filter(context, src, getPolicy(policyName));
+    }
+
+    private String filter(final ProtectionContext context, final String src, final AntiSamyPolicy policy) {
         final XSSFilterRule ctx = this.getFilterRule(context);
-        return ctx.filter(getPolicyHandler(), src);
+        final SlowCallLog slowInputLog = slowInputs;
+        final long captureStart = slowInputLog.isEnabled() ? System.nanoTime() : 0;
+        final long start = startTiming();
+        final Object event = FlightRecorderEvents.beginSanitize();
+        final PolicyHandler policyHandler = policy == null ? null : policy.getPolicyHandler();
+        final String filtered;
+        int errors = 0;
+        SanitizedResult result = null;
+        if (ctx == htmlHtmlContext) {
+            result = htmlHtmlContext.sanitize(policyHandler, src);
+            recordSanitizerErrors(start, result);
+            filtered = htmlHtmlContext.filter(result);
+            errors = result == null ? 0 : result.getNumberOfErrors();
+        } else {
+            filtered = ctx.filter(policyHandler, src);
+        }
+        final boolean captured = slowInputLog.isEnabled()
+                && recordSlowInput(
+                        slowInputLog, XSSOperation.filter(context), context, src, filtered, captureStart, result);
+        recordTiming(XSSOperation.filter(context), start, src, filtered, captured);
+        commitSanitizeEvent(event, "filter", context, src, filtered, errors, policy);
+        return filtered;
     }
 
-    private @Nullable PolicyHandler getPolicyHandler() {
-        return Optional.ofNullable(getActivePolicy())
-                .map(AntiSamyPolicy::getPolicyHandler)
-                .orElse(null);
+    /**
+     * Unlike the metrics, the slow input log needs the latency of every call, since the slowest calls are rare and
+     * would mostly be missed by sampling; a {@link System#nanoTime()} call is cheap compared to the sanitizer.
+     *
+     * @return {@code true} if the call was slow and its input was recorded, in which case the performance monitor
+     *         does not list it a second time
+     */
+    private static boolean recordSlowInput(
+            SlowCallLog slowInputLog,
+            XSSOperation operation,
+            ProtectionContext context,
+            String input,
+            @Nullable String output,
+            long start,
+            @Nullable SanitizedResult result) {
+        final long nanos = System.nanoTime() - start;
+        if (slowInputLog.isSlow(nanos)) {
+            slowInputLog.record(
+                    operation.getMetricName(),
+                    context.getName(),
+                    input,
+                    output == null ? -1 : output.length(),
+                    nanos,
+                    result == null ? 0 : result.getNumberOfErrors(),
+                    result == null ? null : result.getPath().getName());
+            return true;
+        }
+        return false;
+    }
+
+    private static void commitSanitizeEvent(
+            @Nullable Object event,
+            String operation,
+            ProtectionContext context,
+            String input,
+            @Nullable String output,
+            int errors,
+            @Nullable AntiSamyPolicy policy) {
+        if (event != null) {
+            FlightRecorderEvents.commitSanitize(
+                    event,
+                    operation,
+                    context.getName(),
+                    input,
+                    output,
+                    errors,
+                    policy == null ? null : policy.getPath(),
+                    policy == null ? 0 : policy.getGeneration());
+        }
     }
 
     @Override
     public boolean isValidHref(String url) {
+        return isValidHref(url, activePolicy);
+    }
+
+    @Override
+    public boolean isValidHref(String url, String policyName) {
+        return isValidHref(url, getPolicy(policyName));
+    }
+
+    private boolean isValidHref(String url, AntiSamyPolicy policy) {
+        final long start = startTiming();
+        final Object event = FlightRecorderEvents.beginHrefValidation();
+        boolean valid = false;
+        try {
+            valid = validateHref(url, policy);
+            return valid;
+        } finally {
+            recordTiming(XSSOperation.IS_VALID_HREF, start, url, null, false);
+            if (event != null) {
+                FlightRecorderEvents.commitHrefValidation(
+                        event,
+                        url,
+                        valid,
+                        policy == null ? null : policy.getPath(),
+                        policy == null ? 0 : policy.getGeneration());
+            }
+        }
+    }
+
+    /**
+     * Returns the named policy, or the active policy if no policy with this name is configured or it cannot be
+     * loaded.
+     */
+    private AntiSamyPolicy getPolicy(String policyName) {
+        if (policyName != null) {
+            AntiSamyPolicy policy = namedPolicies.get(policyName);
+            if (policy != null) {
+                return policy;
+            }
+            logger.debug("No policy named {} is available, using the default policy.", policyName);
+        }
+        return activePolicy;
+    }
+
+    /**
+     * @param policyName the name of a configured policy
+     * @return the named policy or {@code null} if no policy with this name is configured or it cannot be loaded
+     */
+    public @Nullable AntiSamyPolicy getNamedPolicy(@NotNull String policyName) {
+        return namedPolicies.get(policyName);
+    }
+
+    private boolean validateHref(String url, AntiSamyPolicy policy) {
         if (StringUtils.isEmpty(url)) {
             return true;
         }
@@ -235,7 +541,7 @@ public class XSSFilterImpl implements XSSFilter {
                 urlToValidate = unicodeUnescapedUrl;
             }
             urlToValidate = StringEscapeUtils.unescapeHtml4(urlToValidate);
-            return runHrefValidation(urlToValidate);
+            return runHrefValidation(urlToValidate, policy);
         } catch (Exception e) {
             logger.warn("Unable to validate url.", e);
             logger.debug("URL input: {}", url);
@@ -243,10 +549,39 @@ public class XSSFilterImpl implements XSSFilter {
         return false;
     }
 
+    private long startTiming() {
+        return CallTiming.start(metricsService, performanceMonitor);
+    }
+
+    private void recordTiming(XSSOperation operation, long start, String input, String output, boolean captured) {
+        CallTiming.record(metricsService, performanceMonitor, operation, start, input, output, captured);
+    }
+
+    private void recordRegexExecution(RegexExecutionStrategy.Path path) {
+        final XSSMetricsService metrics = metricsService;
+        if (metrics != null) {
+            metrics.regexExecution(path);
+        }
+    }
+
+    private void recordSanitizerErrors(long start, @Nullable SanitizedResult result) {
+        final XSSMetricsService metrics = metricsService;
+        if (metrics != null && result != null) {
+            metrics.sanitizerErrors(CallTiming.forMetrics(start), result);
+        }
+    }
+
     public AntiSamyPolicy getActivePolicy() {
         return activePolicy;
     }
 
+    /**
+     * @return the inputs whose sanitization exceeded the configured latency threshold
+     */
+    public @NotNull SlowCallLog getSlowInputs() {
+        return slowInputs;
+    }
+
     public void writeActivePolicyConfig(OutputStream outputStream) {
         withPolicyResource(policyResource -> {
             activePolicy.writeConfig(policyResource, outputStream);
@@ -254,26 +589,28 @@ public class XSSFilterImpl implements XSSFilter {
         });
     }
 
-    private boolean runHrefValidation(@NotNull String url) {
+    private boolean runHrefValidation(@NotNull String url, @Nullable AntiSamyPolicy policy) {
+        final Attribute hrefAttribute = policy == null ? DEFAULT_HREF_ATTRIBUTE : policy.getHrefAttribute();
         // Same logic as in org.owasp.validator.html.scan.MagicSAXFilter.startElement()
         String urlLowerCase = url.toLowerCase();
         boolean isValid = hrefAttribute.containsAllowedValue(urlLowerCase);
         if (!isValid) {
-            try {
-                isValid = hrefAttribute.matchesAllowedExpression(urlLowerCase);
-            } catch (StackOverflowError e) {
-                logger.debug(
-                        "Detected a StackOverflowError when validating url {} with configured regexes. Trying fallback.",
-                        url);
-                try {
-                    isValid = FALLBACK_HREF_ATTRIBUTE.containsAllowedValue(urlLowerCase);
-                    if (!isValid) {
-                        isValid = FALLBACK_HREF_ATTRIBUTE.matchesAllowedExpression(urlLowerCase);
-                    }
-                } catch (StackOverflowError inner) {
-                    logger.debug("Detected a StackOverflowError when validating url {} with fallback regexes", url);
-                }
-            }
+            isValid = executionStrategy.execute(
+                    urlLowerCase.length() > RegexExecutionStrategy.LONG_TOKEN_LENGTH,
+                    () -> hrefAttribute.matchesAllowedExpression(urlLowerCase),
+                    () -> {
+                        logger.debug(
+                                "Detected a StackOverflowError when validating url {} with configured regexes. Trying fallback.",
+                                url);
+                        try {
+                            return FALLBACK_HREF_ATTRIBUTE.containsAllowedValue(urlLowerCase)
+                                    || FALLBACK_HREF_ATTRIBUTE.matchesAllowedExpression(urlLowerCase);
+                        } catch (StackOverflowError inner) {
+                            logger.debug(
+                                    "Detected a StackOverflowError when validating url {} with fallback regexes", url);
+                            return false;
+                        }
+                    });
         }
         if (!isValid) {
             statusService.reportInvalidUrl(url);
@@ -287,7 +624,58 @@ public class XSSFilterImpl implements XSSFilter {
     protected void activate(ComponentContext componentContext, Configuration configuration) {
         // load default handler
         policyPath = configuration.policyPath();
-        updateActivePolicy();
+        policyReloadDelay = Math.max(0, configuration.policyReloadDelay());
+        htmlHtmlContext.setLimits(new SanitizerLimits(
+                configuration.maxInputLength(),
+                configuration.maxTagCount(),
+                configuration.maxNestingDepth(),
+                configuration.sanitizerTimeout()));
+        RegexExecutionStrategy previousStrategy = executionStrategy;
+        executionStrategy = RegexExecutionStrategy.create(
+                configuration.largeStackSize() * 1024L * 1024L,
+                Runtime.getRuntime().availableProcessors(),
+                this::recordRegexExecution);
+        htmlHtmlContext.setExecutionStrategy(executionStrategy);
+        previousStrategy.shutdown();
+        ParallelSanitizer previousParallelSanitizer = parallelSanitizer;
+        parallelSanitizer =
+                ParallelSanitizer.create(configuration.parallelSanitizationThreshold(), configuration.parallelism());
+        htmlHtmlContext.setParallelSanitizer(parallelSanitizer);
+        previousParallelSanitizer.shutdown();
+        Map<String, String> namedPolicyPaths = NamedPolicies.parse(configuration.namedPolicies());
+        namedPolicies = new NamedPolicies(
+                namedPolicyPaths,
+                configuration.maxLoadedNamedPolicies(),
+                path -> withPolicyResource(
+                        path, policyResource -> AntiSamyPolicy.create(policyResource, snapshotStore, null)));
+        snapshotStore = new PolicySnapshotStore(
+                componentContext.getBundleContext().getDataFile(SNAPSHOTS_FOLDER),
+                configuration.rejectUnsafeRegexps(),
+                1 + namedPolicyPaths.size());
+        warmUp = new PolicyWarmUp(
+                Arrays.asList(configuration.warmUpCorpus()),
+                configuration.warmUpIterations(),
+                configuration.warmUpTime());
+        slowInputs = new SlowCallLog(
+                configuration.slowInputLogSize(),
+                TimeUnit.MILLISECONDS.toNanos(configuration.slowInputThreshold()),
+                configuration.slowInputCaptureLength());
+        synchronized (reloadLock) {
+            if (policyReloader == null) {
+                policyReloader = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "sling-xss-policy-reload");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+        }
+        if (activePolicy == null) {
+            // nothing serves requests yet, so the first policy is needed right away
+            updateActivePolicy();
+        } else {
+            // the active policy keeps serving requests while the reconfigured one is loaded and warmed up
+            schedulePolicyReload(0);
+        }
         if (serviceRegistration != null) {
             serviceRegistration.unregister();
         }
@@ -298,32 +686,153 @@ public class XSSFilterImpl implements XSSFilter {
                 .getBundleContext()
                 .registerService(ResourceChangeListener.class, new PolicyChangeListener(), rclProperties);
         logger.info("Registered a resource change listener for file {}.", policyPath);
+        if (namedPoliciesRegistration != null) {
+            namedPoliciesRegistration.unregister();
+            namedPoliciesRegistration = null;
+        }
+        if (!namedPolicyPaths.isEmpty()) {
+            Dictionary<String, Object> namedRclProperties = new Hashtable<>();
+            namedRclProperties.put(ResourceChangeListener.CHANGES, new String[] {"ADDED", "CHANGED", "REMOVED"});
+            namedRclProperties.put(
+                    ResourceChangeListener.PATHS, namedPolicyPaths.values().toArray(new String[0]));
+            namedPoliciesRegistration = componentContext
+                    .getBundleContext()
+                    .registerService(ResourceChangeListener.class, new NamedPolicyChangeListener(), namedRclProperties);
+            logger.info("Registered a resource change listener for files {}.", namedPolicyPaths.values());
+        }
     }
 
     @Deactivate
     protected void deactivate() {
+        executionStrategy.shutdown();
+        executionStrategy = RegexExecutionStrategy.INLINE;
+        htmlHtmlContext.setExecutionStrategy(executionStrategy);
+        parallelSanitizer.shutdown();
+        parallelSanitizer = ParallelSanitizer.DISABLED;
+        htmlHtmlContext.setParallelSanitizer(parallelSanitizer);
         if (serviceRegistration != null) {
             serviceRegistration.unregister();
         }
+        if (namedPoliciesRegistration != null) {
+            namedPoliciesRegistration.unregister();
+            namedPoliciesRegistration = null;
+        }
+        synchronized (reloadLock) {
+            if (policyReloader != null) {
+                policyReloader.shutdownNow();
+                policyReloader = null;
+                pendingReload = null;
+            }
+        }
+    }
+
+    /**
+     * Schedules a reload of the policy after the configured delay, replacing a reload which is scheduled but has not
+     * started yet. Reloads run one at a time on a dedicated thread, so the caller is never blocked by the compilation
+     * of the policy.
+     */
+    void schedulePolicyReload() {
+        schedulePolicyReload(policyReloadDelay);
+    }
+
+    private void schedulePolicyReload(long delay) {
+        synchronized (reloadLock) {
+            if (policyReloader == null) {
+                return;
+            }
+            if (pendingReload != null && pendingReload.cancel(false)) {
+                logger.debug("Coalescing policy reloads.");
+            }
+            pendingReload = policyReloader.schedule(this::reloadPolicy, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void reloadPolicy() {
+        try {
+            updateActivePolicy();
+        } catch (RuntimeException e) {
+            logger.error("Unable to reload the policy from {}.", policyPath, e);
+        }
     }
 
     synchronized void updateActivePolicy() {
         final AntiSamyPolicy originalActivePolicy = this.activePolicy;
-        this.activePolicy = withPolicyResource(AntiSamyPolicy::create);
-        // the originalActivePolicy can only be null during the first activation
-        if (activePolicy == null && originalActivePolicy == null) {
-            // the content-based policy file is not (yet) available, fall back to the embedded policy
-            this.activePolicy = AntiSamyPolicy.createEmbedded();
-            if (activePolicy == null) {
+        final Object event = FlightRecorderEvents.beginPolicyUpdate();
+        try {
+            updateActivePolicy(originalActivePolicy);
+        } finally {
+            final AntiSamyPolicy policy = activePolicy;
+            FlightRecorderEvents.commitPolicyUpdate(
+                    event,
+                    policy == null ? policyPath : policy.getPath(),
+                    policy == null ? 0 : policy.getGeneration(),
+                    policy != originalActivePolicy);
+        }
+    }
+
+    private void updateActivePolicy(@Nullable AntiSamyPolicy originalActivePolicy) {
+        AntiSamyPolicy updatedPolicy = withPolicyResource(
+                policyResource -> AntiSamyPolicy.create(policyResource, snapshotStore, originalActivePolicy));
+        if (updatedPolicy == null) {
+            if (originalActivePolicy != null && snapshotStore.accepts(originalActivePolicy.getPolicyHandler())) {
+                logger.warn(
+                        "Unable to load a policy from {}, keeping the active policy (generation {}).",
+                        policyPath,
+                        originalActivePolicy.getGeneration());
+                return;
+            }
+            // the content-based policy file is not (yet) available or the active policy is rejected by the
+            // reconfigured store, fall back to the embedded policy
+            updatedPolicy = AntiSamyPolicy.createEmbedded(snapshotStore, null);
+            if (updatedPolicy == null) {
                 throw new IllegalStateException("Cannot load a policy handler.");
             }
         }
-        updatePolicyHandler(activePolicy.getPolicyHandler());
+        if (updatedPolicy != originalActivePolicy) {
+            if (originalActivePolicy != null) {
+                // the active policy keeps serving requests until the new one is warm
+                warmUp(updatedPolicy);
+            }
+            activePolicy = updatedPolicy;
+            logger.info(
+                    "Activated policy generation {} from {}.", updatedPolicy.getGeneration(), updatedPolicy.getPath());
+            if (originalActivePolicy == null) {
+                // there is nothing to serve requests in the meantime, warm up the policy while it is in use
+                final AntiSamyPolicy policy = updatedPolicy;
+                synchronized (reloadLock) {
+                    if (policyReloader != null && warmUp.isEnabled()) {
+                        policyReloader.execute(() -> warmUp(policy));
+                    }
+                }
+            }
+        }
+    }
+
+    private void warmUp(AntiSamyPolicy policy) {
+        final PolicyWarmUp policyWarmUp = warmUp;
+        if (!policyWarmUp.isEnabled()) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            int iterations = policyWarmUp.run(policy);
+            logger.info(
+                    "Warmed up policy generation {} with {} iteration(s) in {} ms.",
+                    policy.getGeneration(),
+                    iterations,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (RuntimeException e) {
+            logger.warn("Unable to warm up policy generation {}.", policy.getGeneration(), e);
+        }
     }
 
     private <T> T withPolicyResource(Function<Resource, T> mapper) {
+        return withPolicyResource(policyPath, mapper);
+    }
+
+    private <T> T withPolicyResource(String path, Function<Resource, T> mapper) {
         try (final ResourceResolver xssResourceResolver = resourceResolverFactory.getServiceResourceResolver(null)) {
-            Resource policyResource = xssResourceResolver.getResource(policyPath);
+            Resource policyResource = xssResourceResolver.getResource(path);
             if (policyResource != null) {
                 return mapper.apply(policyResource);
             }
@@ -346,61 +855,110 @@ public class XSSFilterImpl implements XSSFilter {
         return this.plainHtmlContext;
     }
 
-    private void updatePolicyHandler(PolicyHandler policyHandler) {
-        Tag linkTag = policyHandler.getPolicy().getTagRules().get("a");
-        hrefAttribute = (linkTag != null) ? linkTag.getAttributeByName("href") : null;
-        if (hrefAttribute == null) {
-            // Fallback to default configuration
-            hrefAttribute = DEFAULT_HREF_ATTRIBUTE;
-        }
-    }
-
     private class PolicyChangeListener implements ResourceChangeListener, ExternalResourceChangeListener {
         @Override
         public void onChange(@NotNull List<ResourceChange> resourceChanges) {
             for (ResourceChange change : resourceChanges) {
                 if (change.getPath().endsWith(policyPath)) {
                     logger.info(
-                            "Detected policy file change ({}) at {}. Updating policy handler.",
+                            "Detected policy file change ({}) at {}. Scheduling a policy reload.",
                             change.getType().name(),
                             change.getPath());
-                    updateActivePolicy();
+                    schedulePolicyReload();
                 }
             }
         }
     }
 
+    private class NamedPolicyChangeListener implements ResourceChangeListener, ExternalResourceChangeListener {
+        @Override
+        public void onChange(@NotNull List<ResourceChange> resourceChanges) {
+            for (ResourceChange change : resourceChanges) {
+                namedPolicies.invalidate(change.getPath());
+            }
+        }
+    }
+
     public static class AntiSamyPolicy {
 
         private final String policyPath;
 
         private final PolicyHandler policyHandler;
 
+        private final String digest;
+
+        private final Attribute hrefAttribute;
+
+        private final long generation;
+
+        private final long loadNanos;
+
         public static AntiSamyPolicy create(Resource policyResource) {
-            String policyPath = policyResource.getPath();
-            return createAntiSamyPolicy(policyPath, () -> streamResource(policyResource));
+            return create(policyResource, new PolicySnapshotStore(null), null);
         }
 
         public static AntiSamyPolicy createEmbedded() {
-            return createAntiSamyPolicy(null, AntiSamyPolicy::streamEmbedded);
+            return createEmbedded(new PolicySnapshotStore(null), null);
+        }
+
+        static AntiSamyPolicy create(
+                Resource policyResource, PolicySnapshotStore snapshotStore, @Nullable AntiSamyPolicy current) {
+            String policyPath = policyResource.getPath();
+            return createAntiSamyPolicy(policyPath, () -> streamResource(policyResource), snapshotStore, current);
+        }
+
+        static AntiSamyPolicy createEmbedded(PolicySnapshotStore snapshotStore, @Nullable AntiSamyPolicy current) {
+            return createAntiSamyPolicy(null, AntiSamyPolicy::streamEmbedded, snapshotStore, current);
         }
 
         private static AntiSamyPolicy createAntiSamyPolicy(
-                @Nullable String policyPath, @NotNull Supplier<InputStream> policySupplier) {
+                @Nullable String policyPath,
+                @NotNull Supplier<InputStream> policySupplier,
+                @NotNull PolicySnapshotStore snapshotStore,
+                @Nullable AntiSamyPolicy current) {
             String pathName = policyPath == null ? "embedded policy file" : policyPath;
             try (InputStream policyStream = policySupplier.get()) {
-                PolicyHandler policyHandler = new PolicyHandler(policyStream);
+                if (policyStream == null) {
+                    throw new IOException("The policy file cannot be read.");
+                }
+                byte[] policy = IOUtils.toByteArray(policyStream);
+                String digest = Hashes.sha256(policy);
+                long generation = current == null ? 1 : current.generation + 1;
+                if (current != null && digest.equals(current.digest)) {
+                    // the store's settings may have changed since the active policy handler was loaded
+                    snapshotStore.reuse(current.policyHandler);
+                    logger.info("Policy from {} is unchanged, keeping the active policy handler.", pathName);
+                    return Objects.equals(policyPath, current.policyPath)
+                            ? current
+                            : new AntiSamyPolicy(
+                                    current.policyHandler, policyPath, digest, generation, current.loadNanos);
+                }
+                long start = System.nanoTime();
+                PolicyHandler policyHandler = snapshotStore.load(policy, digest);
+                long loadNanos = System.nanoTime() - start;
                 logger.info("Installed policy from {}.", pathName);
-                return new AntiSamyPolicy(policyHandler, policyPath);
+                return new AntiSamyPolicy(policyHandler, policyPath, digest, generation, loadNanos);
             } catch (Exception e) {
                 logger.error("Unable to load policy from {}.", pathName, e);
                 return null;
             }
         }
 
-        private AntiSamyPolicy(@NotNull PolicyHandler policyHandler, @Nullable String policyPath) {
+        private AntiSamyPolicy(
+                @NotNull PolicyHandler policyHandler,
+                @Nullable String policyPath,
+                @NotNull String digest,
+                long generation,
+                long loadNanos) {
             this.policyPath = policyPath;
             this.policyHandler = policyHandler;
+            this.digest = digest;
+            this.generation = generation;
+            this.loadNanos = loadNanos;
+            Tag linkTag = policyHandler.getPolicy().getTagRules().get("a");
+            Attribute href = (linkTag != null) ? linkTag.getAttributeByName("href") : null;
+            // Fallback to default configuration
+            this.hrefAttribute = href != null ? href : DEFAULT_HREF_ATTRIBUTE;
         }
 
         public boolean isEmbedded() {
@@ -415,6 +973,35 @@ public class XSSFilterImpl implements XSSFilter {
             return policyHandler;
         }
 
+        /**
+         * @return the SHA-256 digest of the policy file's content
+         */
+        public String getDigest() {
+            return digest;
+        }
+
+        /**
+         * @return the attribute definition used to validate URLs, from the policy's {@code a} tag rule if defined
+         */
+        public Attribute getHrefAttribute() {
+            return hrefAttribute;
+        }
+
+        /**
+         * @return the number of the policy load which produced this policy, starting at 1 and increasing with every
+         * reload which changed the policy
+         */
+        public long getGeneration() {
+            return generation;
+        }
+
+        /**
+         * @return the time in nanoseconds it took to create the policy handler from the policy file or its snapshot
+         */
+        public long getLoadNanos() {
+            return loadNanos;
+        }
+
         public void writeConfig(Resource policyResource, OutputStream outputStream) {
             try (InputStream inputStream = isEmbedded() ? streamEmbedded() : streamResource(policyResource)) {
                 if (inputStream != null) {
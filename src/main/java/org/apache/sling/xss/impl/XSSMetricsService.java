@@ -18,25 +18,191 @@
  */
 package org.apache.sling.xss.impl;
 
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
 import org.apache.sling.commons.metrics.Counter;
+import org.apache.sling.commons.metrics.Histogram;
 import org.apache.sling.commons.metrics.MetricsService;
+import org.apache.sling.commons.metrics.Timer;
+import org.apache.sling.xss.impl.SanitizerLimits.Limit;
+import org.apache.sling.xss.impl.status.RejectionStatistics.Reason;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
 
+/**
+ * Records usage metrics for the {@link org.apache.sling.xss.XSSFilter} and {@link org.apache.sling.xss.XSSAPI}
+ * services.
+ * <p>
+ * Call counters are updated for every call; they are backed by striped counters, so updating them from many threads
+ * does not contend. Latencies, input sizes and output sizes are recorded only for a random sample of the calls (see
+ * {@link Configuration#samplingRate()}), since updating a timer's reservoir is considerably more expensive than
+ * the operations being measured. Callers obtain a start token from {@link #startTiming()} and hand it back to one of
+ * the {@code record} methods.
+ */
 @Component(service = XSSMetricsService.class)
+@Designate(ocd = XSSMetricsService.Configuration.class)
 public class XSSMetricsService {
 
+    @ObjectClassDefinition(
+            name = "Apache Sling XSS Metrics Service",
+            description = "Records call counts, latencies and sizes for the XSS Protection API.")
+    @interface Configuration {
+        @AttributeDefinition(
+                name = "Sampling rate",
+                description = "Latencies and sizes are recorded for one in this many calls. A value of 1 records every"
+                        + " call. Call counters are always updated.")
+        int samplingRate() default DEFAULT_SAMPLING_RATE;
+    }
+
+    /**
+     * Start token returned by {@link #startTiming()} for calls which are not part of the sample.
+     */
+    public static final long NOT_SAMPLED = Long.MIN_VALUE;
+
+    static final int DEFAULT_SAMPLING_RATE = 16;
+
     private static final String COUNTER_INVALID_HREFS = "xss.invalid_hrefs";
+    private static final String COUNTER_SANITIZER_ERRORS = "xss.sanitizer.errors";
+    private static final String HISTOGRAM_SANITIZER_ERRORS = "xss.sanitizer.errors_per_call";
+    private static final String COUNTER_SANITIZER_REJECTIONS = "xss.sanitizer.rejections.";
+    private static final String COUNTER_SANITIZER_LIMITS = "xss.sanitizer.limits.";
+    private static final Reason[] REASONS = Reason.values();
+    private static final Limit[] LIMITS = Limit.values();
+    private static final String COUNTER_REGEX_EXECUTION = "xss.regex.";
+    private static final RegexExecutionStrategy.Path[] PATHS = RegexExecutionStrategy.Path.values();
 
     private final Counter invalidHrefs;
+    private final Counter sanitizerErrors;
+    private final Histogram sanitizerErrorsPerCall;
+    private final Counter[] sanitizerRejections;
+    private final Counter[] sanitizerLimits;
+    private final Counter[] regexExecutions;
+    private final Counter[] calls;
+    private final Timer[] timers;
+    private final Histogram[] inputSizes;
+    private final Histogram[] outputSizes;
+    private final int samplingRate;
 
     @Activate
-    public XSSMetricsService(@Reference MetricsService metricsService) {
+    public XSSMetricsService(@Reference MetricsService metricsService, Configuration configuration) {
         invalidHrefs = metricsService.counter(COUNTER_INVALID_HREFS);
+        sanitizerErrors = metricsService.counter(COUNTER_SANITIZER_ERRORS);
+        sanitizerErrorsPerCall = metricsService.histogram(HISTOGRAM_SANITIZER_ERRORS);
+        sanitizerRejections = new Counter[REASONS.length];
+        for (Reason reason : REASONS) {
+            sanitizerRejections[reason.ordinal()] =
+                    metricsService.counter(COUNTER_SANITIZER_REJECTIONS + reason.getName());
+        }
+        sanitizerLimits = new Counter[LIMITS.length];
+        for (Limit limit : LIMITS) {
+            sanitizerLimits[limit.ordinal()] = metricsService.counter(COUNTER_SANITIZER_LIMITS + limit.getName());
+        }
+        regexExecutions = new Counter[PATHS.length];
+        for (RegexExecutionStrategy.Path path : PATHS) {
+            regexExecutions[path.ordinal()] = metricsService.counter(COUNTER_REGEX_EXECUTION + path.getName());
+        }
+        XSSOperation[] operations = XSSOperation.values();
+        calls = new Counter[operations.length];
+        timers = new Timer[operations.length];
+        inputSizes = new Histogram[operations.length];
+        outputSizes = new Histogram[operations.length];
+        for (XSSOperation operation : operations) {
+            int i = operation.ordinal();
+            calls[i] = metricsService.counter(operation.getMetricName() + ".calls");
+            timers[i] = metricsService.timer(operation.getMetricName());
+            if (operation.recordsSizes()) {
+                inputSizes[i] = metricsService.histogram(operation.getMetricName() + ".input_size");
+                outputSizes[i] = metricsService.histogram(operation.getMetricName() + ".output_size");
+            }
+        }
+        samplingRate = Math.max(1, configuration.samplingRate());
     }
 
     public void invalidHref() {
         invalidHrefs.increment();
     }
+
+    /**
+     * Decides whether the call about to start is part of the sample.
+     *
+     * @return the current {@link System#nanoTime()} if the call should be timed, {@link #NOT_SAMPLED} otherwise
+     */
+    public long startTiming() {
+        if (samplingRate == 1 || ThreadLocalRandom.current().nextInt(samplingRate) == 0) {
+            return System.nanoTime();
+        }
+        return NOT_SAMPLED;
+    }
+
+    /**
+     * Records a call of the given operation.
+     *
+     * @param operation the operation
+     * @param start     the token returned by {@link #startTiming()} when the call started
+     */
+    public void record(XSSOperation operation, long start) {
+        calls[operation.ordinal()].increment();
+        if (start != NOT_SAMPLED) {
+            timers[operation.ordinal()].update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Records a call of the given operation together with the size of its input and output.
+     *
+     * @param operation the operation
+     * @param start     the token returned by {@link #startTiming()} when the call started
+     * @param input     the input of the call
+     * @param output    the output of the call; {@code null} if the operation does not produce a string
+     */
+    public void record(XSSOperation operation, long start, CharSequence input, CharSequence output) {
+        record(operation, start);
+        if (start != NOT_SAMPLED && operation.recordsSizes()) {
+            inputSizes[operation.ordinal()].update(input == null ? 0 : input.length());
+            if (output != null) {
+                outputSizes[operation.ordinal()].update(output.length());
+            }
+        }
+    }
+
+    /**
+     * Records on which stack the policy's regular expressions were matched against an input.
+     *
+     * @param path the path taken by the {@link RegexExecutionStrategy}
+     */
+    void regexExecution(RegexExecutionStrategy.Path path) {
+        regexExecutions[path.ordinal()].increment();
+    }
+
+    /**
+     * Records the number of policy violations the HTML sanitizer found in a single input, in total and per
+     * {@link Reason}, and the {@link SanitizerLimits} limit which stopped the sanitizer, if any.
+     *
+     * @param start  the token returned by {@link #startTiming()} when the call started
+     * @param result the sanitizer's result
+     */
+    public void sanitizerErrors(long start, SanitizedResult result) {
+        int numberOfErrors = result.getNumberOfErrors();
+        if (numberOfErrors > 0) {
+            sanitizerErrors.increment(numberOfErrors);
+            for (Reason reason : REASONS) {
+                int rejections = result.getNumberOfRejections(reason);
+                if (rejections > 0) {
+                    sanitizerRejections[reason.ordinal()].increment(rejections);
+                }
+            }
+        }
+        Limit exceededLimit = result.getExceededLimit();
+        if (exceededLimit != null) {
+            sanitizerLimits[exceededLimit.ordinal()].increment();
+        }
+        if (start != NOT_SAMPLED) {
+            sanitizerErrorsPerCall.update(numberOfErrors);
+        }
+    }
 }
@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.xss.impl;
+
+import org.apache.sling.xss.ProtectionContext;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The operations of the {@link org.apache.sling.xss.XSSFilter} and {@link org.apache.sling.xss.XSSAPI} services for
+ * which usage statistics are recorded.
+ */
+public enum XSSOperation {
+    FILTER_HTML_HTML_CONTENT("filter." + ProtectionContext.HTML_HTML_CONTENT.getName(), true),
+    FILTER_PLAIN_HTML_CONTENT("filter." + ProtectionContext.PLAIN_HTML_CONTENT.getName(), true),
+    CHECK_HTML_HTML_CONTENT("check." + ProtectionContext.HTML_HTML_CONTENT.getName(), true),
+    CHECK_PLAIN_HTML_CONTENT("check." + ProtectionContext.PLAIN_HTML_CONTENT.getName(), true),
+    IS_VALID_HREF("isValidHref", false),
+    GET_VALID_INTEGER("api.getValidInteger", false),
+    GET_VALID_LONG("api.getValidLong", false),
+    GET_VALID_DOUBLE("api.getValidDouble", false),
+    GET_VALID_DIMENSION("api.getValidDimension", false),
+    GET_VALID_HREF("api.getValidHref", false),
+    GET_VALID_JS_TOKEN("api.getValidJSToken", false),
+    GET_VALID_STYLE_TOKEN("api.getValidStyleToken", false),
+    GET_VALID_CSS_COLOR("api.getValidCSSColor", false),
+    GET_VALID_MULTI_LINE_COMMENT("api.getValidMultiLineComment", false),
+    GET_VALID_JSON("api.getValidJSON", false),
+    GET_VALID_XML("api.getValidXML", false),
+    ENCODE_FOR_HTML("api.encodeForHTML", true),
+    ENCODE_FOR_HTML_ATTR("api.encodeForHTMLAttr", true),
+    ENCODE_FOR_XML("api.encodeForXML", true),
+    ENCODE_FOR_XML_ATTR("api.encodeForXMLAttr", true),
+    ENCODE_FOR_JS_STRING("api.encodeForJSString", true),
+    ENCODE_FOR_CSS_STRING("api.encodeForCSSString", true),
+    FILTER_HTML("api.filterHTML", true);
+
+    private final String metricName;
+    private final boolean recordsSizes;
+
+    XSSOperation(String name, boolean recordsSizes) {
+        this.metricName = "xss." + name;
+        this.recordsSizes = recordsSizes;
+    }
+
+    /**
+     * @return the base name of the metrics recorded for this operation
+     */
+    public @NotNull String getMetricName() {
+        return metricName;
+    }
+
+    /**
+     * @return {@code true} if the input and output sizes of this operation are recorded
+     */
+    public boolean recordsSizes() {
+        return recordsSizes;
+    }
+
+    public static @NotNull XSSOperation filter(@NotNull ProtectionContext context) {
+        return context == ProtectionContext.HTML_HTML_CONTENT ? FILTER_HTML_HTML_CONTENT : FILTER_PLAIN_HTML_CONTENT;
+    }
+
+    public static @NotNull XSSOperation check(@NotNull ProtectionContext context) {
+        return context == ProtectionContext.HTML_HTML_CONTENT ? CHECK_HTML_HTML_CONTENT : CHECK_PLAIN_HTML_CONTENT;
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.xss.impl.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+@Name("org.apache.sling.xss.CssClean")
+@Label("XSS CSS Cleaning")
+@Description("The cleaning of a style sheet or of the value of a style attribute")
+@Category({"Apache Sling", "XSS Protection"})
+@Threshold("5 ms")
+@StackTrace(false)
+final class CssCleanEvent extends jdk.jfr.Event {
+
+    @Label("Style Sheet")
+    @Description("Whether a style sheet or the value of a style attribute was cleaned")
+    boolean styleSheet;
+
+    @Label("Input Length")
+    long inputLength;
+
+    @Label("Output Length")
+    long outputLength;
+}
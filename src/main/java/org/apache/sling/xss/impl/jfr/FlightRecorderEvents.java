@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.xss.impl.jfr;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Emits Java Flight Recorder events for the XSS Protection API, so that slow sanitization can be correlated with
+ * GC, lock and I/O events of a recording.
+ * <p>
+ * Every operation is bracketed by a {@code begin} method, which returns a handle, and a {@code commit} method, which
+ * takes the handle back. The handle is {@code null} if the event is disabled or if the {@code jdk.jfr} module cannot
+ * be loaded, e.g. because the OSGi framework does not export it; the {@code commit} methods then do nothing. The
+ * events only reach a recording if the call took longer than the event's threshold: 20 ms for filter calls and
+ * sanitizer scans, 5 ms for URL validation and CSS cleaning. Policy updates are always recorded. The thresholds can
+ * be changed in the recording's settings, e.g. {@code org.apache.sling.xss.Sanitize#threshold=0 ms}.
+ */
+public final class FlightRecorderEvents {
+
+    private static final boolean AVAILABLE = canLoadJfr();
+
+    private FlightRecorderEvents() {}
+
+    /**
+     * @return {@code true} if the events can be emitted
+     */
+    public static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    private static boolean canLoadJfr() {
+        try {
+            Class.forName("jdk.jfr.Event", false, FlightRecorderEvents.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * Begins the event for a call of {@code XSSFilter.filter} or {@code XSSFilter.check}.
+     *
+     * @return the handle to pass to {@link #commitSanitize}
+     */
+    public static @Nullable Object beginSanitize() {
+        return AVAILABLE ? JfrEvents.beginSanitize() : null;
+    }
+
+    public static void commitSanitize(
+            @Nullable Object event,
+            String operation,
+            String context,
+            @Nullable CharSequence input,
+            @Nullable CharSequence output,
+            int errors,
+            @Nullable String policyPath,
+            long policyGeneration) {
+        if (event != null) {
+            JfrEvents.commitSanitize(
+                    event, operation, context, length(input), length(output), errors, policyPath, policyGeneration);
+        }
+    }
+
+    /**
+     * Begins the event for a call of {@code XSSFilter.isValidHref}.
+     *
+     * @return the handle to pass to {@link #commitHrefValidation}
+     */
+    public static @Nullable Object beginHrefValidation() {
+        return AVAILABLE ? JfrEvents.beginHrefValidation() : null;
+    }
+
+    public static void commitHrefValidation(
+            @Nullable Object event,
+            @Nullable CharSequence url,
+            boolean valid,
+            @Nullable String policyPath,
+            long policyGeneration) {
+        if (event != null) {
+            JfrEvents.commitHrefValidation(event, length(url), valid, policyPath, policyGeneration);
+        }
+    }
+
+    /**
+     * Begins the event for a run of the HTML sanitizer.
+     *
+     * @return the handle to pass to {@link #commitHtmlScan}
+     */
+    public static @Nullable Object beginHtmlScan() {
+        return AVAILABLE ? JfrEvents.beginHtmlScan() : null;
+    }
+
+    public static void commitHtmlScan(
+            @Nullable Object event,
+            @Nullable CharSequence input,
+            @Nullable CharSequence output,
+            int errors,
+            @Nullable String exceededLimit) {
+        if (event != null) {
+            JfrEvents.commitHtmlScan(event, length(input), length(output), errors, exceededLimit);
+        }
+    }
+
+    /**
+     * Begins the event for cleaning a style sheet or a style attribute.
+     *
+     * @return the handle to pass to {@link #commitCssClean}
+     */
+    public static @Nullable Object beginCssClean() {
+        return AVAILABLE ? JfrEvents.beginCssClean() : null;
+    }
+
+    public static void commitCssClean(
+            @Nullable Object event, boolean styleSheet, @Nullable CharSequence input, @Nullable CharSequence output) {
+        if (event != null) {
+            JfrEvents.commitCssClean(event, styleSheet, length(input), length(output));
+        }
+    }
+
+    /**
+     * Begins the event for an update of the default policy.
+     *
+     * @return the handle to pass to {@link #commitPolicyUpdate}
+     */
+    public static @Nullable Object beginPolicyUpdate() {
+        return AVAILABLE ? JfrEvents.beginPolicyUpdate() : null;
+    }
+
+    public static void commitPolicyUpdate(
+            @Nullable Object event, @Nullable String policyPath, long policyGeneration, boolean changed) {
+        if (event != null) {
+            JfrEvents.commitPolicyUpdate(event, policyPath, policyGeneration, changed);
+        }
+    }
+
+    private static int length(@Nullable CharSequence value) {
+        return value == null ? 0 : value.length();
+    }
+}
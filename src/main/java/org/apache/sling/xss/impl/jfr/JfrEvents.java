@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.xss.impl.jfr;
+
+/**
+ * Creates and commits the events. This is the only class besides the events which references {@code jdk.jfr}, and it
+ * is only loaded once {@link FlightRecorderEvents} found that the {@code jdk.jfr} package can be loaded.
+ */
+final class JfrEvents {
+
+    private JfrEvents() {}
+
+    static Object beginSanitize() {
+        SanitizeEvent event = new SanitizeEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    static void commitSanitize(
+            Object begun,
+            String operation,
+            String context,
+            int inputLength,
+            int outputLength,
+            int errors,
+            String policyPath,
+            long policyGeneration) {
+        SanitizeEvent event = (SanitizeEvent) begun;
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.context = context;
+            event.inputLength = inputLength;
+            event.outputLength = outputLength;
+            event.errors = errors;
+            event.policyPath = policyPath;
+            event.policyGeneration = policyGeneration;
+            event.commit();
+        }
+    }
+
+    static Object beginHrefValidation() {
+        HrefValidationEvent event = new HrefValidationEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    static void commitHrefValidation(
+            Object begun, int inputLength, boolean valid, String policyPath, long policyGeneration) {
+        HrefValidationEvent event = (HrefValidationEvent) begun;
+        event.end();
+        if (event.shouldCommit()) {
+            event.inputLength = inputLength;
+            event.valid = valid;
+            event.policyPath = policyPath;
+            event.policyGeneration = policyGeneration;
+            event.commit();
+        }
+    }
+
+    static Object beginHtmlScan() {
+        HtmlScanEvent event = new HtmlScanEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    static void commitHtmlScan(Object begun, int inputLength, int outputLength, int errors, String exceededLimit) {
+        HtmlScanEvent event = (HtmlScanEvent) begun;
+        event.end();
+        if (event.shouldCommit()) {
+            event.inputLength = inputLength;
+            event.outputLength = outputLength;
+            event.errors = errors;
+            event.exceededLimit = exceededLimit;
+            event.commit();
+        }
+    }
+
+    static Object beginCssClean() {
+        CssCleanEvent event = new CssCleanEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    static void commitCssClean(Object begun, boolean styleSheet, int inputLength, int outputLength) {
+        CssCleanEvent event = (CssCleanEvent) begun;
+        event.end();
+        if (event.shouldCommit()) {
+            event.styleSheet = styleSheet;
+            event.inputLength = inputLength;
+            event.outputLength = outputLength;
+            event.commit();
+        }
+    }
+
+    static Object beginPolicyUpdate() {
+        PolicyUpdateEvent event = new PolicyUpdateEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    static void commitPolicyUpdate(Object begun, String policyPath, long policyGeneration, boolean changed) {
+        PolicyUpdateEvent event = (PolicyUpdateEvent) begun;
+        event.end();
+        if (event.shouldCommit()) {
+            event.policyPath = policyPath;
+            event.policyGeneration = policyGeneration;
+            event.changed = changed;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.xss.impl.status;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Counts the hits and misses of one of the caches used by the XSS Protection API. The counters are shared by all
+ * instances of a cache, e.g. by the verdict caches of all CSS properties of all loaded policies.
+ */
+public final class CacheStatistics {
+
+    public static final CacheStatistics POLICY_SNAPSHOTS = new CacheStatistics("policySnapshots");
+    public static final CacheStatistics POLICY_COMPONENTS = new CacheStatistics("policyComponents");
+    public static final CacheStatistics NAMED_POLICIES = new CacheStatistics("namedPolicies");
+    public static final CacheStatistics CSS_PROPERTY_VERDICTS = new CacheStatistics("cssPropertyVerdicts");
+    public static final CacheStatistics CSS_SELECTOR_VERDICTS = new CacheStatistics("cssSelectorVerdicts");
+
+    private static final List<CacheStatistics> ALL = Collections.unmodifiableList(Arrays.asList(
+            POLICY_SNAPSHOTS, POLICY_COMPONENTS, NAMED_POLICIES, CSS_PROPERTY_VERDICTS, CSS_SELECTOR_VERDICTS));
+
+    private final String name;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private CacheStatistics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return the statistics of all caches
+     */
+    public static @NotNull List<CacheStatistics> all() {
+        return ALL;
+    }
+
+    public void hit() {
+        hits.increment();
+    }
+
+    public void miss() {
+        misses.increment();
+    }
+
+    public @NotNull String getName() {
+        return name;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the share of hits among all lookups, {@code 0} if there were none
+     */
+    public double getHitRatio() {
+        long h = getHits();
+        long total = h + getMisses();
+        return total == 0 ? 0 : (double) h / total;
+    }
+}
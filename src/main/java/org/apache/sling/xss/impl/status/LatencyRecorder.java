@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.xss.impl.status;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Counts the calls of an operation and records the latencies of a sample of them in a histogram.
+ * <p>
+ * The histogram has log-linear buckets: every power of two is split into {@value #SUB_BUCKETS} buckets of equal
+ * width, so a percentile read from it is off by at most 1 / {@value #SUB_BUCKETS} of its value. Recording a
+ * latency increments one bucket of a fixed array and does neither allocate nor lock.
+ */
+public final class LatencyRecorder {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Counts a call whose latency was not measured.
+     */
+    public void recordCall() {
+        calls.increment();
+    }
+
+    /**
+     * Counts a call and records its latency.
+     *
+     * @param nanos the latency in nanoseconds
+     */
+    public void recordCall(long nanos) {
+        calls.increment();
+        long latency = Math.max(0, nanos);
+        totalNanos.add(latency);
+        maxNanos.accumulate(latency);
+        buckets.incrementAndGet(bucket(latency));
+    }
+
+    /**
+     * @return a consistent view of the recorded latencies
+     */
+    public @NotNull Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        long samples = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            samples += counts[i];
+        }
+        return new Snapshot(calls.sum(), samples, totalNanos.sum(), maxNanos.get(), counts);
+    }
+
+    static int bucket(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(nanos);
+        int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return the largest latency falling into the given bucket
+     */
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return ((SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS)) + width - 1;
+    }
+
+    public static final class Snapshot {
+
+        private final long calls;
+        private final long samples;
+        private final long totalNanos;
+        private final long maxNanos;
+        private final long[] counts;
+
+        private Snapshot(long calls, long samples, long totalNanos, long maxNanos, long[] counts) {
+            this.calls = calls;
+            this.samples = samples;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+            this.counts = counts;
+        }
+
+        /**
+         * @return the number of calls, including the ones whose latency was not measured
+         */
+        public long getCalls() {
+            return calls;
+        }
+
+        /**
+         * @return the number of measured latencies
+         */
+        public long getSamples() {
+            return samples;
+        }
+
+        /**
+         * @return the mean of the measured latencies in nanoseconds, {@code 0} if there are none
+         */
+        public long getMean() {
+            return samples == 0 ? 0 : totalNanos / samples;
+        }
+
+        /**
+         * @return the largest measured latency in nanoseconds
+         */
+        public long getMax() {
+            return maxNanos;
+        }
+
+        /**
+         * @param percentile the percentile, between {@code 0} and {@code 100}
+         * @return the latency in nanoseconds below which the given percentage of the measured latencies fall,
+         *         {@code 0} if there are none
+         */
+        public long getPercentile(double percentile) {
+            if (samples == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(samples * Math.min(100, Math.max(0, percentile)) / 100));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(upperBound(i), maxNanos);
+                }
+            }
+            return maxNanos;
+        }
+    }
+}
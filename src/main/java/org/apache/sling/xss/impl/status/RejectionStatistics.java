@@ -0,0 +1,210 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.xss.impl.status;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Aggregates the elements and attributes which the HTML sanitizer stripped from its input, per element name,
+ * attribute name and {@link Reason}.
+ * <p>
+ * The statistics are kept in a fixed-size open addressing table keyed by the hash of the element and attribute
+ * names. Recording an already known element / attribute pair does not allocate and does not lock; only the first
+ * occurrence of a pair allocates its table entry. Once the table is full, rejections of unknown pairs are only
+ * counted as overflow, so crafted input with random attribute names cannot grow the table.
+ */
+public final class RejectionStatistics {
+
+    /**
+     * The reason for stripping an element or an attribute.
+     */
+    public enum Reason {
+        /** the policy does not define the element or attribute */
+        NO_POLICY("noPolicy"),
+        /** the attribute's value did not match the policy */
+        VALUE_REJECTED("valueRejected"),
+        /** the attribute's value did not match the policy and the attribute's {@code onInvalid} action is
+         * {@code removeTag} */
+        REMOVE_TAG("removeTag");
+
+        private final String name;
+
+        Reason(String name) {
+            this.name = name;
+        }
+
+        public @NotNull String getName() {
+            return name;
+        }
+    }
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private static final int REASONS = Reason.values().length;
+
+    private final AtomicReferenceArray<Entry> table;
+    private final int mask;
+    private final LongAdder overflow = new LongAdder();
+
+    public RejectionStatistics() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the maximum number of distinct element / attribute pairs; rounded up to a power of two
+     */
+    public RejectionStatistics(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        table = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+    }
+
+    /**
+     * Records a stripped element or attribute.
+     *
+     * @param elementName   the name of the element
+     * @param attributeName the name of the stripped attribute or {@code null} if the element itself was stripped
+     * @param reason        the reason
+     */
+    public void record(@NotNull String elementName, @Nullable String attributeName, @NotNull Reason reason) {
+        record(elementName, attributeName, reason, 1);
+    }
+
+    /**
+     * Adds the rejections recorded by another instance to this one.
+     *
+     * @param other the other instance
+     */
+    public void addAll(@NotNull RejectionStatistics other) {
+        for (int i = 0; i <= other.mask; i++) {
+            Entry entry = other.table.get(i);
+            if (entry != null) {
+                for (Reason reason : Reason.values()) {
+                    long count = entry.getCount(reason);
+                    if (count > 0) {
+                        record(entry.elementName, entry.attributeName, reason, count);
+                    }
+                }
+            }
+        }
+        overflow.add(other.getOverflow());
+    }
+
+    private void record(String elementName, String attributeName, Reason reason, long count) {
+        int hash = hash(elementName, attributeName);
+        for (int probe = 0, i = hash & mask; probe <= mask; probe++, i = (i + 1) & mask) {
+            Entry entry = table.get(i);
+            if (entry == null) {
+                Entry created = new Entry(elementName, attributeName, hash);
+                if (table.compareAndSet(i, null, created)) {
+                    created.add(reason, count);
+                    return;
+                }
+                entry = table.get(i);
+            }
+            if (entry.matches(elementName, attributeName, hash)) {
+                entry.add(reason, count);
+                return;
+            }
+        }
+        overflow.add(count);
+    }
+
+    /**
+     * @return the number of rejections which could not be recorded because the table was full
+     */
+    public long getOverflow() {
+        return overflow.sum();
+    }
+
+    /**
+     * @return a snapshot of the recorded rejections, the most frequent first
+     */
+    public @NotNull List<Entry> getEntries() {
+        List<Entry> entries = new ArrayList<>();
+        for (int i = 0; i <= mask; i++) {
+            Entry entry = table.get(i);
+            if (entry != null) {
+                entries.add(entry);
+            }
+        }
+        entries.sort(Comparator.comparingLong(Entry::getTotal).reversed());
+        return entries;
+    }
+
+    private static int hash(String elementName, String attributeName) {
+        int h = elementName.hashCode() * 31 + (attributeName == null ? 0 : attributeName.hashCode());
+        return h ^ (h >>> 16);
+    }
+
+    public static final class Entry {
+
+        private final String elementName;
+        private final String attributeName;
+        private final int hash;
+        private final LongAdder[] counts = new LongAdder[REASONS];
+
+        private Entry(String elementName, String attributeName, int hash) {
+            this.elementName = elementName;
+            this.attributeName = attributeName;
+            this.hash = hash;
+            for (int i = 0; i < REASONS; i++) {
+                counts[i] = new LongAdder();
+            }
+        }
+
+        private boolean matches(String elementName, String attributeName, int hash) {
+            return this.hash == hash
+                    && this.elementName.equals(elementName)
+                    && Objects.equals(this.attributeName, attributeName);
+        }
+
+        private void add(Reason reason, long count) {
+            counts[reason.ordinal()].add(count);
+        }
+
+        public @NotNull String getElementName() {
+            return elementName;
+        }
+
+        public @Nullable String getAttributeName() {
+            return attributeName;
+        }
+
+        public long getCount(@NotNull Reason reason) {
+            return counts[reason.ordinal()].sum();
+        }
+
+        public long getTotal() {
+            long total = 0;
+            for (LongAdder count : counts) {
+                total += count.sum();
+            }
+            return total;
+        }
+    }
+}
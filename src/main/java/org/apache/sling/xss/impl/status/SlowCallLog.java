@@ -0,0 +1,279 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.xss.impl.status;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Keeps the most recent calls which took longer than a threshold in a ring of fixed size. Adding a call claims the
+ * next slot with a single atomic increment and overwrites the oldest entry; the ring neither locks nor grows.
+ * <p>
+ * A call can be recorded with its input, so that slow inputs can be replayed outside of production. The input is
+ * kept up to a maximum length, together with the SHA-256 hash of the whole input, which identifies it in the log.
+ */
+public final class SlowCallLog {
+
+    /**
+     * A log which does not keep any call.
+     */
+    public static final SlowCallLog DISABLED = new SlowCallLog(0, 0);
+
+    private final AtomicReferenceArray<Entry> ring;
+    private final AtomicLong next = new AtomicLong();
+    private final long thresholdNanos;
+    private final int maxInputLength;
+
+    /**
+     * @param capacity       the number of calls to keep; {@code 0} disables the log
+     * @param thresholdNanos the minimum latency of a recorded call in nanoseconds
+     */
+    public SlowCallLog(int capacity, long thresholdNanos) {
+        this(capacity, thresholdNanos, 0);
+    }
+
+    /**
+     * @param capacity       the number of calls to keep; {@code 0} disables the log
+     * @param thresholdNanos the minimum latency of a recorded call in nanoseconds
+     * @param maxInputLength the number of characters kept of a captured input
+     */
+    public SlowCallLog(int capacity, long thresholdNanos, int maxInputLength) {
+        this.ring = new AtomicReferenceArray<>(Math.max(0, capacity));
+        this.thresholdNanos = Math.max(0, thresholdNanos);
+        this.maxInputLength = Math.max(0, maxInputLength);
+    }
+
+    /**
+     * @return {@code true} if the log keeps calls, i.e. if calls have to be timed for it
+     */
+    public boolean isEnabled() {
+        return ring.length() > 0;
+    }
+
+    /**
+     * @param nanos a latency in nanoseconds
+     * @return {@code true} if a call with this latency is recorded
+     */
+    public boolean isSlow(long nanos) {
+        return isEnabled() && nanos >= thresholdNanos;
+    }
+
+    /**
+     * Records a call if it took at least as long as the threshold.
+     *
+     * @param operation   the name of the operation
+     * @param nanos       the latency of the call in nanoseconds
+     * @param inputLength the length of the call's input
+     */
+    public void record(@NotNull String operation, long nanos, int inputLength) {
+        if (isSlow(nanos)) {
+            add(new Entry(operation, null, System.currentTimeMillis(), nanos, inputLength, -1, 0, null, null, null));
+        }
+    }
+
+    /**
+     * Records a call together with its input if the call took at least as long as the threshold.
+     *
+     * @param operation    the name of the operation
+     * @param context      the name of the protection context
+     * @param input        the input of the call
+     * @param outputLength the length of the call's output; {@code -1} if the operation does not produce a string
+     * @param nanos        the latency of the call in nanoseconds
+     * @param errors       the number of policy violations found in the input
+     * @param path         the way the sanitizer processed the input; {@code null} if no sanitizer was involved
+     */
+    public void record(
+            @NotNull String operation,
+            @NotNull String context,
+            @Nullable String input,
+            int outputLength,
+            long nanos,
+            int errors,
+            @Nullable String path) {
+        if (isSlow(nanos)) {
+            String value = input == null ? "" : input;
+            add(new Entry(
+                    operation,
+                    context,
+                    System.currentTimeMillis(),
+                    nanos,
+                    value.length(),
+                    outputLength,
+                    errors,
+                    path,
+                    Hashes.sha256(value),
+                    truncate(value, maxInputLength)));
+        }
+    }
+
+    private void add(Entry entry) {
+        entry.sequence = next.getAndIncrement();
+        ring.set((int) (entry.sequence % ring.length()), entry);
+    }
+
+    public long getThresholdNanos() {
+        return thresholdNanos;
+    }
+
+    public int getMaxInputLength() {
+        return maxInputLength;
+    }
+
+    /**
+     * @return the recorded calls, the most recent first
+     */
+    public @NotNull List<Entry> getEntries() {
+        List<Entry> entries = new ArrayList<>(ring.length());
+        for (int i = 0; i < ring.length(); i++) {
+            Entry entry = ring.get(i);
+            if (entry != null) {
+                entries.add(entry);
+            }
+        }
+        entries.sort(Comparator.comparingLong((Entry entry) -> entry.sequence).reversed());
+        return entries;
+    }
+
+    private static String truncate(String input, int maxLength) {
+        if (input.length() <= maxLength) {
+            return input;
+        }
+        int end = maxLength;
+        if (end > 0 && Character.isHighSurrogate(input.charAt(end - 1))) {
+            end--;
+        }
+        return input.substring(0, end);
+    }
+
+    public static final class Entry {
+
+        // set before the entry is published through the ring
+        private long sequence;
+        private final String operation;
+        private final String context;
+        private final long timestamp;
+        private final long nanos;
+        private final int inputLength;
+        private final int outputLength;
+        private final int errors;
+        private final String path;
+        private final String hash;
+        private final String input;
+
+        private Entry(
+                String operation,
+                String context,
+                long timestamp,
+                long nanos,
+                int inputLength,
+                int outputLength,
+                int errors,
+                String path,
+                String hash,
+                String input) {
+            this.operation = operation;
+            this.context = context;
+            this.timestamp = timestamp;
+            this.nanos = nanos;
+            this.inputLength = inputLength;
+            this.outputLength = outputLength;
+            this.errors = errors;
+            this.path = path;
+            this.hash = hash;
+            this.input = input;
+        }
+
+        public @NotNull String getOperation() {
+            return operation;
+        }
+
+        /**
+         * @return the name of the protection context; {@code null} if the input was not captured
+         */
+        public @Nullable String getContext() {
+            return context;
+        }
+
+        /**
+         * @return the time at which the call finished, in milliseconds since the epoch
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        public int getInputLength() {
+            return inputLength;
+        }
+
+        /**
+         * @return the length of the output; {@code -1} if the operation does not produce a string or the input was
+         *         not captured
+         */
+        public int getOutputLength() {
+            return outputLength;
+        }
+
+        public int getErrors() {
+            return errors;
+        }
+
+        /**
+         * @return the way the sanitizer processed the input; {@code null} if no sanitizer was involved or the input
+         *         was not captured
+         */
+        public @Nullable String getPath() {
+            return path;
+        }
+
+        /**
+         * @return {@code true} if the call was recorded together with its input
+         */
+        public boolean isCaptured() {
+            return hash != null;
+        }
+
+        /**
+         * @return the hex encoded SHA-256 hash of the whole input; {@code null} if the input was not captured
+         */
+        public @Nullable String getHash() {
+            return hash;
+        }
+
+        /**
+         * @return the input, truncated to the log's maximum input length; {@code null} if the input was not captured
+         */
+        public @Nullable String getInput() {
+            return input;
+        }
+
+        public boolean isTruncated() {
+            return input != null && input.length() < inputLength;
+        }
+    }
+}
@@ -19,10 +19,14 @@
 package org.apache.sling.xss.impl.style;
 
 import java.io.IOException;
-import java.io.StringReader;
 
 import org.apache.batik.css.parser.Parser;
+import org.apache.batik.css.parser.Scanner;
+import org.apache.sling.xss.impl.SanitizerLimits;
+import org.apache.sling.xss.impl.SanitizerProfile;
+import org.apache.sling.xss.impl.jfr.FlightRecorderEvents;
 import org.apache.sling.xss.impl.xml.AntiSamyPolicy.CssPolicy;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.css.sac.CSSException;
@@ -32,12 +36,21 @@ public class BatikCssCleaner {
 
     private final Logger logger = LoggerFactory.getLogger(getClass());
     private final CssPolicy cssPolicy;
+    private final SanitizerProfile profile;
 
     private static final String CDATA_PRE = "<![CDATA[";
     private static final String CDATA_POST = "]]>";
 
     public BatikCssCleaner(CssPolicy cssPolicy) {
+        this(cssPolicy, null);
+    }
+
+    /**
+     * @param profile optional profile to which the time spent cleaning every property is reported
+     */
+    public BatikCssCleaner(CssPolicy cssPolicy, @Nullable SanitizerProfile profile) {
         this.cssPolicy = cssPolicy;
+        this.profile = profile;
     }
 
     /**
@@ -47,13 +60,31 @@ public class BatikCssCleaner {
      * @return the cleaned CSS stylesheet text
      */
     public String cleanStylesheet(String untrustedCss) {
+        return cleanStylesheet(untrustedCss, null);
+    }
+
+    /**
+     * Parses a CSS stylesheet and returns it in a safe form
+     *
+     * @param untrustedCss a complete CSS stylesheet
+     * @param scan         optional budget of the current scan, whose deadline is checked for every rule and property
+     * @return the cleaned CSS stylesheet text
+     */
+    public String cleanStylesheet(String untrustedCss, @Nullable SanitizerLimits.Scan scan) {
+        Object event = FlightRecorderEvents.beginCssClean();
+        String cleanCss = parseStylesheet(untrustedCss, scan);
+        FlightRecorderEvents.commitCssClean(event, true, untrustedCss, cleanCss);
+        return cleanCss;
+    }
+
+    private String parseStylesheet(String untrustedCss, @Nullable SanitizerLimits.Scan scan) {
         try {
             if (untrustedCss.startsWith(CDATA_PRE) && untrustedCss.endsWith(CDATA_POST))
                 untrustedCss = untrustedCss.substring(CDATA_PRE.length(), untrustedCss.length() - CDATA_POST.length());
-            Parser parser = new Parser();
-            ValidatingDocumentHandler handler = new ValidatingDocumentHandler(cssPolicy, false);
+            Parser parser = new StringParser(untrustedCss);
+            ValidatingDocumentHandler handler = new ValidatingDocumentHandler(cssPolicy, false, scan, profile);
             parser.setDocumentHandler(handler);
-            parser.parseStyleSheet(new InputSource(new StringReader(untrustedCss)));
+            parser.parseStyleSheet(new InputSource());
             return handler.getValidCss();
         } catch (CSSException | IOException e) {
             logger.warn("Unexpected error while cleaning stylesheet", e);
@@ -68,15 +99,41 @@ public class BatikCssCleaner {
      * @return the cleaned CSS style declaration
      */
     public String cleanStyleDeclaration(String untrustedCss) {
+        Object event = FlightRecorderEvents.beginCssClean();
+        String cleanCss = parseStyleDeclaration(untrustedCss);
+        FlightRecorderEvents.commitCssClean(event, false, untrustedCss, cleanCss);
+        return cleanCss;
+    }
+
+    private String parseStyleDeclaration(String untrustedCss) {
         try {
-            Parser parser = new Parser();
-            ValidatingDocumentHandler handler = new ValidatingDocumentHandler(cssPolicy, true);
+            Parser parser = new StringParser(untrustedCss);
+            ValidatingDocumentHandler handler = new ValidatingDocumentHandler(cssPolicy, true, null, profile);
             parser.setDocumentHandler(handler);
-            parser.parseStyleDeclaration(new InputSource(new StringReader(untrustedCss)));
+            parser.parseStyleDeclaration(new InputSource());
             return handler.getValidCss();
         } catch (CSSException | IOException e) {
             logger.warn("Unexpected error while cleaning style declaration", e);
             return "";
         }
     }
+
+    /**
+     * Reads the CSS from a string. For a {@link java.io.Reader}, Batik allocates a {@link java.io.BufferedReader}
+     * with a buffer of 8,192 characters, which for a short style attribute costs far more than parsing it.
+     */
+    private static final class StringParser extends Parser {
+
+        private final String css;
+
+        private StringParser(String css) {
+            this.css = css;
+        }
+
+        @Override
+        protected Scanner createScanner(InputSource source) {
+            documentURI = "";
+            return new Scanner(css);
+        }
+    }
 }
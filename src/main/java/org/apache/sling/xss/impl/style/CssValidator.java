@@ -22,7 +22,10 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+import org.apache.sling.xss.impl.SanitizerLimits;
+import org.apache.sling.xss.impl.SanitizerProfile;
 import org.apache.sling.xss.impl.xml.AntiSamyPolicy.CssPolicy;
+import org.jetbrains.annotations.Nullable;
 import org.owasp.html.AttributePolicy;
 import org.owasp.html.HtmlStreamEventProcessor;
 
@@ -35,11 +38,26 @@ public class CssValidator {
     private final List<String> disallowedTagNames = new ArrayList<>();
 
     public CssValidator(CssPolicy cssPolicy) {
-        cssParser = new BatikCssCleaner(cssPolicy);
+        this(cssPolicy, null);
+    }
+
+    /**
+     * @param profile optional profile to which the time spent cleaning every property is reported
+     */
+    public CssValidator(CssPolicy cssPolicy, @Nullable SanitizerProfile profile) {
+        cssParser = new BatikCssCleaner(cssPolicy, profile);
     }
 
     public HtmlStreamEventProcessor newStyleTagProcessor() {
-        return new StyleTagProcessor(cssParser);
+        return newStyleTagProcessor(null);
+    }
+
+    /**
+     * @param scan optional budget of the current scan, whose deadline is checked while cleaning style blocks
+     * @return a processor which cleans the content of style blocks
+     */
+    public HtmlStreamEventProcessor newStyleTagProcessor(@Nullable SanitizerLimits.Scan scan) {
+        return new StyleTagProcessor(cssParser, scan);
     }
 
     public AttributePolicy newCssAttributePolicy() {
@@ -20,15 +20,19 @@ package org.apache.sling.xss.impl.style;
 
 import java.util.List;
 
+import org.apache.sling.xss.impl.SanitizerLimits;
+import org.jetbrains.annotations.Nullable;
 import org.owasp.html.HtmlStreamEventProcessor;
 import org.owasp.html.HtmlStreamEventReceiver;
 
 class StyleTagProcessor implements HtmlStreamEventProcessor {
 
     private final BatikCssCleaner cssCleaner;
+    private final SanitizerLimits.Scan scan;
 
-    StyleTagProcessor(BatikCssCleaner cssCleaner) {
+    StyleTagProcessor(BatikCssCleaner cssCleaner, @Nullable SanitizerLimits.Scan scan) {
         this.cssCleaner = cssCleaner;
+        this.scan = scan;
     }
 
     @Override
@@ -70,7 +74,10 @@ class StyleTagProcessor implements HtmlStreamEventProcessor {
         @Override
         public void text(String taintedCss) {
             if (inStyleTag) {
-                wrapped.text(cssCleaner.cleanStylesheet(taintedCss));
+                if (scan != null) {
+                    scan.checkDeadlineNow();
+                }
+                wrapped.text(cssCleaner.cleanStylesheet(taintedCss, scan));
             } else {
                 wrapped.text(taintedCss);
             }
@@ -18,14 +18,12 @@
  */
 package org.apache.sling.xss.impl.style;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Locale;
-import java.util.StringJoiner;
-import java.util.stream.Collectors;
 
+import org.apache.sling.xss.impl.SanitizerLimits;
+import org.apache.sling.xss.impl.SanitizerProfile;
 import org.apache.sling.xss.impl.xml.AntiSamyPolicy.CssPolicy;
-import org.apache.sling.xss.impl.xml.Property;
+import org.jetbrains.annotations.Nullable;
 import org.w3c.css.sac.CSSException;
 import org.w3c.css.sac.CombinatorCondition;
 import org.w3c.css.sac.Condition;
@@ -45,23 +43,51 @@ public class ValidatingDocumentHandler implements DocumentHandler {
     private final CssPolicy cssPolicy;
     private final StringBuilder cleanCss = new StringBuilder();
     private final boolean isInLine;
+    private final SanitizerLimits.Scan scan;
+    private final SanitizerProfile profile;
 
     private boolean isInSelector;
 
     public ValidatingDocumentHandler(CssPolicy cssPolicy, boolean isInLine) {
+        this(cssPolicy, isInLine, null);
+    }
+
+    /**
+     * @param scan optional budget of the current scan, whose deadline is checked for every rule and property
+     */
+    public ValidatingDocumentHandler(CssPolicy cssPolicy, boolean isInLine, @Nullable SanitizerLimits.Scan scan) {
+        this(cssPolicy, isInLine, scan, null);
+    }
+
+    /**
+     * @param scan    optional budget of the current scan, whose deadline is checked for every rule and property
+     * @param profile optional profile to which the time spent cleaning every property is reported
+     */
+    public ValidatingDocumentHandler(
+            CssPolicy cssPolicy,
+            boolean isInLine,
+            @Nullable SanitizerLimits.Scan scan,
+            @Nullable SanitizerProfile profile) {
         this.cssPolicy = cssPolicy;
         this.isInLine = isInLine;
+        this.scan = scan;
+        this.profile = profile;
     }
 
     @Override
     public void startSelector(SelectorList selectors) throws CSSException {
+        if (scan != null) scan.checkDeadline();
 
-        List<String> validSelectors = validateSelectors(selectors);
-        if (validSelectors.isEmpty()) return;
+        int start = cleanCss.length();
+        for (int i = 0; i < selectors.getLength(); i++) {
+            Selector selector = selectors.item(i);
+            if (!isValidSelector(selector)) continue;
+            if (cleanCss.length() > start) cleanCss.append(", ");
+            cleanCss.append(selector.toString());
+        }
+        if (cleanCss.length() == start) return;
 
-        StringJoiner joiner = new StringJoiner(", ", "", " {\n");
-        validSelectors.forEach(joiner::add);
-        cleanCss.append(joiner.toString());
+        cleanCss.append(" {\n");
         isInSelector = true;
     }
 
@@ -75,25 +101,39 @@ public class ValidatingDocumentHandler implements DocumentHandler {
 
     @Override
     public void property(String name, LexicalUnit value, boolean important) throws CSSException {
+        if (scan != null) scan.checkDeadline();
         if (!isInSelector && !isInLine) {
             return;
         }
-
-        List<String> validPropertyValues = validatePropertyValues(name, value);
-        if (validPropertyValues.isEmpty()) return;
-
-        cleanCss.append(validPropertyValues.stream()
-                .map(s -> important ? s + " !important" : s)
-                .collect(Collectors.joining(" ", "\t" + name + ": ", ";\n")));
+        if (profile == null) {
+            appendProperty(name, value, important);
+        } else {
+            long start = profile.start();
+            appendProperty(name, value, important);
+            profile.record(SanitizerProfile.Category.CSS_PROPERTY, name, start);
+        }
     }
 
-    private List<String> validateSelectors(SelectorList selectors) {
-        List<String> selectorNames = new ArrayList<>();
-        for (int i = 0; i < selectors.getLength(); i++) {
-            Selector selector = selectors.item(i);
-            if (isValidSelector(selector)) selectorNames.add(selector.toString());
+    private void appendProperty(String name, LexicalUnit value, boolean important) {
+        // the values are appended to the output as they are read, and removed again if they turn out to be invalid
+        int start = cleanCss.length();
+        cleanCss.append('\t').append(name).append(": ");
+        int valuesStart = cleanCss.length();
+        for (LexicalUnit unit = value; unit != null; unit = unit.getNextLexicalUnit()) {
+            int separatorStart = cleanCss.length();
+            if (separatorStart > valuesStart) cleanCss.append(' ');
+            int valueStart = cleanCss.length();
+            if (!appendLexicalValue(unit) || !isValidPropertyValue(name, valueStart)) {
+                cleanCss.setLength(separatorStart);
+                continue;
+            }
+            if (important) cleanCss.append(" !important");
         }
-        return selectorNames;
+        if (cleanCss.length() == valuesStart) {
+            cleanCss.setLength(start);
+            return;
+        }
+        cleanCss.append(";\n");
     }
 
     private boolean isValidSelector(Selector selector) {
@@ -148,39 +188,21 @@ public class ValidatingDocumentHandler implements DocumentHandler {
         }
     }
 
-    private List<String> validatePropertyValues(String name, LexicalUnit value) {
-        List<String> validPropertyValues = new ArrayList<>();
-        while (value != null) {
-            String stringValue = lexicalValueToString(value);
-            value = value.getNextLexicalUnit();
-            boolean isValid = validateProperty(name, stringValue);
-            if (!isValid) continue;
-            validPropertyValues.add(stringValue);
-        }
-        return validPropertyValues;
-    }
-
     public String getValidCss() {
         return cleanCss.toString();
     }
 
-    private boolean validateProperty(String name, String lexicalValueToString) {
-        if (lexicalValueToString == null) return false;
-
-        Property property = cssPolicy.getCssRules().get(name);
-        if (property == null) return false;
-
-        if (property.getLiterals().contains(lexicalValueToString)) return true;
-
-        if (property.getRegexps().stream()
-                .anyMatch(p -> p.matcher(lexicalValueToString).matches())) return true;
-
-        if (property.getShorthands().stream().anyMatch(s -> validateProperty(s, lexicalValueToString))) return true;
-
-        return false;
+    private boolean isValidPropertyValue(String name, int valueStart) {
+        return cssPolicy.isValidPropertyValue(name, cleanCss.substring(valueStart));
     }
 
-    private String lexicalValueToString(LexicalUnit lu) {
+    /**
+     * Appends the textual representation of a lexical unit to the output.
+     *
+     * @param lu the lexical unit
+     * @return {@code false} if the lexical unit is not supported, in which case nothing was appended
+     */
+    private boolean appendLexicalValue(LexicalUnit lu) {
         switch (lu.getLexicalUnitType()) {
             case LexicalUnit.SAC_PERCENTAGE:
             case LexicalUnit.SAC_DIMENSION:
@@ -200,32 +222,43 @@ public class ValidatingDocumentHandler implements DocumentHandler {
             case LexicalUnit.SAC_HERTZ:
             case LexicalUnit.SAC_KILOHERTZ:
                 // various measurements
-                return lu.getFloatValue() + lu.getDimensionUnitText();
+                cleanCss.append(lu.getFloatValue()).append(lu.getDimensionUnitText());
+                return true;
             case LexicalUnit.SAC_INTEGER:
                 // number
-                return String.valueOf(lu.getIntegerValue());
+                cleanCss.append(lu.getIntegerValue());
+                return true;
             case LexicalUnit.SAC_REAL:
                 // number
-                return String.valueOf(lu.getFloatValue());
+                cleanCss.append(lu.getFloatValue());
+                return true;
             case LexicalUnit.SAC_STRING_VALUE:
             case LexicalUnit.SAC_IDENT:
                 // identifier, potentially needs quoting
                 String stringValue = lu.getStringValue();
-                if (stringValue.indexOf(" ") != -1) stringValue = "\"" + stringValue + "\"";
-                return stringValue;
+                if (stringValue.indexOf(' ') != -1) {
+                    cleanCss.append('"').append(stringValue).append('"');
+                } else {
+                    cleanCss.append(stringValue);
+                }
+                return true;
             case LexicalUnit.SAC_URI:
                 // this is a URL
-                return "url(" + lu.getStringValue() + ")";
+                cleanCss.append("url(").append(lu.getStringValue()).append(')');
+                return true;
             case LexicalUnit.SAC_RGBCOLOR:
                 // this is a rgb encoded color; technically we don't need to encode
                 // it precisely like this but it makes it simpler to keep the tests
                 // based on the AntiSamy implementation
-                return toRgbString(lu);
+                appendRgb(lu);
+                return true;
             case LexicalUnit.SAC_INHERIT:
                 // constant
-                return "inherit";
+                cleanCss.append("inherit");
+                return true;
             case LexicalUnit.SAC_OPERATOR_COMMA:
-                return ",";
+                cleanCss.append(',');
+                return true;
             case LexicalUnit.SAC_ATTR:
             case LexicalUnit.SAC_COUNTER_FUNCTION:
             case LexicalUnit.SAC_COUNTERS_FUNCTION:
@@ -235,30 +268,24 @@ public class ValidatingDocumentHandler implements DocumentHandler {
             case LexicalUnit.SAC_UNICODERANGE:
             default:
                 // unsupported
-                return null;
+                return false;
         }
     }
 
-    private String toRgbString(LexicalUnit lu) {
-        // 16 default capacity actually fits nicely
-        //
+    private void appendRgb(LexicalUnit lu) {
         // rgb(255,255,255)
-        // ....|....|....|.
-        StringBuilder sb = new StringBuilder();
         LexicalUnit param = lu.getParameters();
-        sb.append("rgb(");
-        sb.append(param.getIntegerValue()); // R value
-        sb.append(',');
+        cleanCss.append("rgb(");
+        cleanCss.append(param.getIntegerValue()); // R value
+        cleanCss.append(',');
         param = param.getNextLexicalUnit(); // comma
         param = param.getNextLexicalUnit(); // G value
-        sb.append(param.getIntegerValue());
-        sb.append(',');
+        cleanCss.append(param.getIntegerValue());
+        cleanCss.append(',');
         param = param.getNextLexicalUnit(); // comma
         param = param.getNextLexicalUnit(); // B value
-        sb.append(param.getIntegerValue());
-        sb.append(')');
-
-        return sb.toString();
+        cleanCss.append(param.getIntegerValue());
+        cleanCss.append(')');
     }
 
     @Override
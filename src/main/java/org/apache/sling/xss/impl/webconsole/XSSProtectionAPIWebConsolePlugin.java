@@ -28,22 +28,35 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintWriter;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import jakarta.json.Json;
 import jakarta.json.JsonArrayBuilder;
 import jakarta.json.JsonObject;
+import jakarta.json.JsonObjectBuilder;
 import jakarta.json.JsonWriter;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.text.StringEscapeUtils;
 import org.apache.sling.xss.XSSFilter;
+import org.apache.sling.xss.impl.PerformanceMonitor;
+import org.apache.sling.xss.impl.SanitizerProfile;
 import org.apache.sling.xss.impl.XSSFilterImpl;
+import org.apache.sling.xss.impl.XSSOperation;
+import org.apache.sling.xss.impl.status.CacheStatistics;
+import org.apache.sling.xss.impl.status.LatencyRecorder;
+import org.apache.sling.xss.impl.status.RejectionStatistics;
+import org.apache.sling.xss.impl.status.SlowCallLog;
 import org.apache.sling.xss.impl.status.XSSStatusService;
+import org.apache.sling.xss.impl.xml.RegexpAnalyzer;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Reference;
 import org.slf4j.Logger;
@@ -73,6 +86,12 @@ public class XSSProtectionAPIWebConsolePlugin extends HttpServlet {
     private static final String PLUGIN_ROOT_PATH = "/" + LABEL;
     private static final String URI_CONFIG_XHR = PLUGIN_ROOT_PATH + "/config.xhr";
     private static final String URI_BLOCKED_XHR = PLUGIN_ROOT_PATH + "/blocked.json";
+    private static final String URI_REJECTED_XHR = PLUGIN_ROOT_PATH + "/rejected.json";
+    private static final String URI_PERFORMANCE_XHR = PLUGIN_ROOT_PATH + "/performance.json";
+    private static final String URI_PROFILE_XHR = PLUGIN_ROOT_PATH + "/profile.json";
+    private static final String URI_SLOW_INPUTS_JSON = PLUGIN_ROOT_PATH + "/slow-inputs.json";
+    private static final int DEFAULT_PROFILE_ITERATIONS = 20;
+    private static final int MAX_PROFILE_ITERATIONS = 1000;
     private static final String URI_CONFIG_XML = PLUGIN_ROOT_PATH + "/config.xml";
     private static final String INTERNAL_RESOURCES_FOLDER = "/webconsole";
     private static final String RES_ROOT = PLUGIN_ROOT_PATH + INTERNAL_RESOURCES_FOLDER;
@@ -91,6 +110,9 @@ public class XSSProtectionAPIWebConsolePlugin extends HttpServlet {
     @Reference
     private XSSStatusService statusService;
 
+    @Reference
+    private PerformanceMonitor performanceMonitor;
+
     private static final Set<String> CSS_RESOURCES =
             new HashSet<>(Arrays.asList(RES_URI_PRETTIFY_CSS, RES_URI_XSS_CSS));
     private static final Set<String> JS_RESOURCES =
@@ -111,6 +133,12 @@ public class XSSProtectionAPIWebConsolePlugin extends HttpServlet {
             streamAntiSamyConfiguration(response);
         } else if (URI_BLOCKED_XHR.equalsIgnoreCase(pluginResource)) {
             generateInvalidUrlsJSONReport(response);
+        } else if (URI_REJECTED_XHR.equalsIgnoreCase(pluginResource) && xssFilter != null) {
+            generateRejectionsJSONReport(response);
+        } else if (URI_PERFORMANCE_XHR.equalsIgnoreCase(pluginResource)) {
+            generatePerformanceJSONReport(response);
+        } else if (URI_SLOW_INPUTS_JSON.equalsIgnoreCase(pluginResource) && xssFilter != null) {
+            streamSlowInputCorpus(response);
         } else {
             try {
                 PrintWriter printWriter = response.getWriter();
@@ -119,7 +147,11 @@ public class XSSProtectionAPIWebConsolePlugin extends HttpServlet {
                 printWriter.println("<div id='xss-tabs'>");
                 printWriter.println("<ul>");
                 printWriter.println("<li id='blocked-tab'><a href='#blocked'><span>Status</span></a></li>");
+                printWriter.println(
+                        "<li id='performance-tab'><a href='#performance'><span>Performance</span></a></li>");
                 if (xssFilter != null) {
+                    printWriter.println(
+                            "<li id='profiler-tab'><a href='#profiler'><span>Policy Profiler</span></a></li>");
                     printWriter.println(String.format(
                             "<li id='config-tab'><a href='%s'><span>Active Configuration</span></a></li>",
                             consoleRoot + URI_CONFIG_XHR));
@@ -138,7 +170,34 @@ public class XSSProtectionAPIWebConsolePlugin extends HttpServlet {
                 printWriter.println("<tbody id='invalid-urls-rows'>");
                 printWriter.println("</tbody>");
                 printWriter.println("</table>");
-                printWriter.println("</div></div></div>");
+                printWriter.println("</div>");
+                if (xssFilter != null) {
+                    printWriter.println("<div class='table'>");
+                    printWriter.println(
+                            "<div class='ui-widget-header ui-corner-top buttonGroup'>Stripped Elements and Attributes</div>");
+                    printWriter.println("<table class='nicetable tablesorter' id='rejections'>");
+                    printWriter.println("<thead>");
+                    printWriter.println("<tr>");
+                    printWriter.println("<th class='header'>Element</th>");
+                    printWriter.println("<th class='header'>Attribute</th>");
+                    printWriter.println("<th class='header'>No Policy</th>");
+                    printWriter.println("<th class='header'>Value Rejected</th>");
+                    printWriter.println("<th class='header'>Tag Removed</th>");
+                    printWriter.println("<th class='header'>Total</th>");
+                    printWriter.println("</tr>");
+                    printWriter.println("</thead>");
+                    printWriter.println("<tbody id='rejections-rows'>");
+                    printWriter.println("</tbody>");
+                    printWriter.println("</table>");
+                    printWriter.println("<p class='statline' id='rejections-overflow'></p>");
+                    printWriter.println("</div>");
+                }
+                printWriter.println("</div>");
+                writePerformanceScaffold(printWriter, xssFilter != null);
+                if (xssFilter != null) {
+                    writeProfilerScaffold(printWriter);
+                }
+                printWriter.println("</div>");
             } catch (IOException e) {
                 LOGGER.error("Unable to generate scaffold for the webconsole plugin output.", e);
             }
@@ -175,6 +234,281 @@ public class XSSProtectionAPIWebConsolePlugin extends HttpServlet {
         }
     }
 
+    private void generateRejectionsJSONReport(HttpServletResponse response) {
+        JsonArrayBuilder rejections = Json.createArrayBuilder();
+        long overflow = 0;
+        XSSFilterImpl.AntiSamyPolicy antiSamyPolicy = ((XSSFilterImpl) xssFilter).getActivePolicy();
+        if (antiSamyPolicy != null) {
+            RejectionStatistics statistics =
+                    antiSamyPolicy.getPolicyHandler().getHtmlSanitizer().getRejectionStatistics();
+            for (RejectionStatistics.Entry entry : statistics.getEntries()) {
+                JsonObjectBuilder rejection = Json.createObjectBuilder().add("element", entry.getElementName());
+                if (entry.getAttributeName() != null) {
+                    rejection.add("attribute", entry.getAttributeName());
+                }
+                for (RejectionStatistics.Reason reason : RejectionStatistics.Reason.values()) {
+                    rejection.add(reason.getName(), entry.getCount(reason));
+                }
+                rejections.add(rejection.add("total", entry.getTotal()));
+            }
+            overflow = statistics.getOverflow();
+        }
+        try (JsonWriter writer = Json.createWriter(response.getWriter())) {
+            response.setContentType("application/json");
+            writer.writeObject(Json.createObjectBuilder()
+                    .add("rejections", rejections.build())
+                    .add("overflow", overflow)
+                    .build());
+        } catch (IOException e) {
+            LOGGER.error("Unable to write JSON report for stripped elements and attributes.", e);
+        }
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) {
+        if (URI_PROFILE_XHR.equalsIgnoreCase(request.getPathInfo()) && xssFilter != null) {
+            generateProfileJSONReport(request, response);
+        } else {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+        }
+    }
+
+    private static void writeProfilerScaffold(PrintWriter printWriter) {
+        printWriter.println("<div id='profiler'>");
+        printWriter.println("<p class='statline ui-state-highlight'>Sanitizes an HTML sample repeatedly with the"
+                + " active policy and reports the time spent per element, attribute matcher, CSS property and in"
+                + " removing duplicate attributes. Times are inclusive and summed over all iterations.</p>");
+        printWriter.println("<textarea id='profiler-input' rows='12' style='width:100%'></textarea>");
+        printWriter.println("<p>Iterations: <input type='number' id='profiler-iterations' min='1' max='"
+                + MAX_PROFILE_ITERATIONS + "' value='" + DEFAULT_PROFILE_ITERATIONS + "'/>"
+                + " <button type='button' id='profiler-run'>Profile</button></p>");
+        printWriter.println("<p class='statline' id='profiler-summary'></p>");
+        printWriter.println("<div id='profiler-results'></div>");
+        printWriter.println("</div>");
+    }
+
+    private void generateProfileJSONReport(HttpServletRequest request, HttpServletResponse response) {
+        XSSFilterImpl.AntiSamyPolicy antiSamyPolicy = ((XSSFilterImpl) xssFilter).getActivePolicy();
+        String html = request.getParameter("html");
+        if (antiSamyPolicy == null || html == null) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+        int iterations = DEFAULT_PROFILE_ITERATIONS;
+        try {
+            String parameter = request.getParameter("iterations");
+            if (parameter != null) {
+                iterations = Math.max(1, Math.min(MAX_PROFILE_ITERATIONS, Integer.parseInt(parameter.trim())));
+            }
+        } catch (NumberFormatException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+        SanitizerProfile profile =
+                antiSamyPolicy.getPolicyHandler().getHtmlSanitizer().profile(html, iterations);
+        JsonObjectBuilder categories = Json.createObjectBuilder();
+        for (SanitizerProfile.Category category : SanitizerProfile.Category.values()) {
+            JsonArrayBuilder rules = Json.createArrayBuilder();
+            for (SanitizerProfile.Entry entry : profile.getEntries(category)) {
+                rules.add(Json.createObjectBuilder()
+                        .add("rule", entry.getRule())
+                        .add("count", entry.getCount())
+                        .add("time", micros(entry.getNanos())));
+            }
+            categories.add(category.getName(), rules);
+        }
+        try (JsonWriter writer = Json.createWriter(response.getWriter())) {
+            response.setContentType("application/json");
+            writer.writeObject(Json.createObjectBuilder()
+                    .add("policy", antiSamyPolicy.getPath())
+                    .add("iterations", profile.getIterations())
+                    .add("scanTime", micros(profile.getScanNanos()))
+                    .add("categories", categories)
+                    .build());
+        } catch (IOException e) {
+            LOGGER.error("Unable to write JSON report for the policy profile.", e);
+        }
+    }
+
+    private static void writePerformanceScaffold(PrintWriter printWriter, boolean slowInputs) {
+        printWriter.println("<div id='performance'>");
+        printWriter.println("<p class='statline ui-state-highlight' id='performance-summary'></p>");
+        printWriter.println("<div class='table'>");
+        printWriter.println("<div class='ui-widget-header ui-corner-top buttonGroup'>Operations</div>");
+        printWriter.println("<table class='nicetable tablesorter' id='operations'>");
+        printWriter.println("<thead>");
+        printWriter.println("<tr>");
+        printWriter.println("<th class='header'>Operation</th>");
+        printWriter.println("<th class='header'>Calls</th>");
+        printWriter.println("<th class='header'>Calls / s</th>");
+        printWriter.println("<th class='header'>Mean (\u00b5s)</th>");
+        printWriter.println("<th class='header'>50% (\u00b5s)</th>");
+        printWriter.println("<th class='header'>90% (\u00b5s)</th>");
+        printWriter.println("<th class='header'>99% (\u00b5s)</th>");
+        printWriter.println("<th class='header'>Max (\u00b5s)</th>");
+        printWriter.println("</tr>");
+        printWriter.println("</thead>");
+        printWriter.println("<tbody id='operations-rows'>");
+        printWriter.println("</tbody>");
+        printWriter.println("</table>");
+        printWriter.println("</div>");
+        printWriter.println("<div class='table'>");
+        printWriter.println("<div class='ui-widget-header ui-corner-top buttonGroup'>Caches</div>");
+        printWriter.println("<table class='nicetable' id='caches'>");
+        printWriter.println("<thead>");
+        printWriter.println("<tr>");
+        printWriter.println("<th class='header'>Cache</th>");
+        printWriter.println("<th class='header'>Hits</th>");
+        printWriter.println("<th class='header'>Misses</th>");
+        printWriter.println("<th class='header'>Hit Ratio</th>");
+        printWriter.println("</tr>");
+        printWriter.println("</thead>");
+        printWriter.println("<tbody id='caches-rows'>");
+        printWriter.println("</tbody>");
+        printWriter.println("</table>");
+        printWriter.println("</div>");
+        printWriter.println("<div class='table'>");
+        if (slowInputs) {
+            printWriter.println("<div class='ui-widget-header ui-corner-top buttonGroup'>Recent Slow Calls"
+                    + "<button style='float:right' type='button' id='download-slow-inputs'>Download Corpus</button>"
+                    + "</div>");
+        } else {
+            printWriter.println("<div class='ui-widget-header ui-corner-top buttonGroup'>Recent Slow Calls</div>");
+        }
+        printWriter.println("<table class='nicetable' id='slow-calls'>");
+        printWriter.println("<thead>");
+        printWriter.println("<tr>");
+        printWriter.println("<th class='header'>Time</th>");
+        printWriter.println("<th class='header'>Operation</th>");
+        printWriter.println("<th class='header'>Duration (ms)</th>");
+        printWriter.println("<th class='header'>Input Length</th>");
+        printWriter.println("<th class='header'>Output Length</th>");
+        printWriter.println("<th class='header'>Errors</th>");
+        printWriter.println("<th class='header'>Path</th>");
+        printWriter.println("<th class='header'>SHA-256</th>");
+        printWriter.println("</tr>");
+        printWriter.println("</thead>");
+        printWriter.println("<tbody id='slow-calls-rows'>");
+        printWriter.println("</tbody>");
+        printWriter.println("</table>");
+        printWriter.println("</div>");
+        printWriter.println("</div>");
+    }
+
+    private void generatePerformanceJSONReport(HttpServletResponse response) {
+        JsonArrayBuilder operations = Json.createArrayBuilder();
+        for (XSSOperation operation : XSSOperation.values()) {
+            LatencyRecorder.Snapshot snapshot =
+                    performanceMonitor.getRecorder(operation).snapshot();
+            if (snapshot.getCalls() > 0) {
+                operations.add(Json.createObjectBuilder()
+                        .add("name", operation.getMetricName())
+                        .add("calls", snapshot.getCalls())
+                        .add("samples", snapshot.getSamples())
+                        .add("mean", micros(snapshot.getMean()))
+                        .add("p50", micros(snapshot.getPercentile(50)))
+                        .add("p90", micros(snapshot.getPercentile(90)))
+                        .add("p99", micros(snapshot.getPercentile(99)))
+                        .add("max", micros(snapshot.getMax())));
+            }
+        }
+        JsonArrayBuilder caches = Json.createArrayBuilder();
+        for (CacheStatistics cache : CacheStatistics.all()) {
+            caches.add(Json.createObjectBuilder()
+                    .add("name", cache.getName())
+                    .add("hits", cache.getHits())
+                    .add("misses", cache.getMisses())
+                    .add("hitRatio", cache.getHitRatio()));
+        }
+        SlowCallLog slowCallLog = performanceMonitor.getSlowCalls();
+        List<SlowCallLog.Entry> entries = new ArrayList<>(slowCallLog.getEntries());
+        SlowCallLog slowInputLog = xssFilter == null ? null : ((XSSFilterImpl) xssFilter).getSlowInputs();
+        if (slowInputLog != null) {
+            // the filter keeps its slow calls together with their input, the monitor lists all other slow calls
+            entries.addAll(slowInputLog.getEntries());
+            entries.sort(
+                    Comparator.comparingLong(SlowCallLog.Entry::getTimestamp).reversed());
+        }
+        JsonArrayBuilder slowCalls = Json.createArrayBuilder();
+        for (SlowCallLog.Entry entry : entries) {
+            slowCalls.add(slowCall(entry));
+        }
+        JsonObjectBuilder report = Json.createObjectBuilder()
+                .add("timestamp", System.currentTimeMillis())
+                .add("startTime", performanceMonitor.getStartTime())
+                .add("samplingRate", performanceMonitor.getSamplingRate())
+                .add("slowCallThreshold", TimeUnit.NANOSECONDS.toMillis(slowCallLog.getThresholdNanos()))
+                .add("operations", operations)
+                .add("caches", caches)
+                .add("slowCalls", slowCalls);
+        XSSFilterImpl.AntiSamyPolicy antiSamyPolicy =
+                xssFilter == null ? null : ((XSSFilterImpl) xssFilter).getActivePolicy();
+        if (antiSamyPolicy != null) {
+            report.add(
+                    "policy",
+                    Json.createObjectBuilder()
+                            .add("path", antiSamyPolicy.getPath())
+                            .add("generation", antiSamyPolicy.getGeneration())
+                            .add("loadTime", TimeUnit.NANOSECONDS.toMillis(antiSamyPolicy.getLoadNanos())));
+        }
+        if (slowInputLog != null && slowInputLog.isEnabled()) {
+            report.add("slowInputThreshold", TimeUnit.NANOSECONDS.toMillis(slowInputLog.getThresholdNanos()));
+        }
+        try (JsonWriter writer = Json.createWriter(response.getWriter())) {
+            response.setContentType("application/json");
+            writer.writeObject(report.build());
+        } catch (IOException e) {
+            LOGGER.error("Unable to write JSON report for the performance statistics.", e);
+        }
+    }
+
+    /**
+     * Streams the slow inputs, including the captured input text, as a JSON document which can be replayed against
+     * the sanitizer.
+     */
+    private void streamSlowInputCorpus(HttpServletResponse response) {
+        SlowCallLog slowInputLog = ((XSSFilterImpl) xssFilter).getSlowInputs();
+        JsonArrayBuilder inputs = Json.createArrayBuilder();
+        for (SlowCallLog.Entry entry : slowInputLog.getEntries()) {
+            inputs.add(slowCall(entry).add("truncated", entry.isTruncated()).add("input", entry.getInput()));
+        }
+        response.setContentType("application/json");
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.setHeader("Content-Disposition", "attachment; filename=slow-inputs.json");
+        try (JsonWriter writer = Json.createWriter(response.getWriter())) {
+            writer.writeObject(Json.createObjectBuilder()
+                    .add("timestamp", System.currentTimeMillis())
+                    .add("threshold", TimeUnit.NANOSECONDS.toMillis(slowInputLog.getThresholdNanos()))
+                    .add("maxInputLength", slowInputLog.getMaxInputLength())
+                    .add("inputs", inputs)
+                    .build());
+        } catch (IOException e) {
+            LOGGER.error("Unable to write the slow input corpus.", e);
+        }
+    }
+
+    private static JsonObjectBuilder slowCall(SlowCallLog.Entry entry) {
+        JsonObjectBuilder slowCall = Json.createObjectBuilder()
+                .add("operation", entry.getOperation())
+                .add("timestamp", entry.getTimestamp())
+                .add("duration", TimeUnit.NANOSECONDS.toMillis(entry.getNanos()))
+                .add("inputLength", entry.getInputLength());
+        if (entry.isCaptured()) {
+            slowCall.add("context", entry.getContext())
+                    .add("outputLength", entry.getOutputLength())
+                    .add("errors", entry.getErrors())
+                    .add("hash", entry.getHash());
+            if (entry.getPath() != null) {
+                slowCall.add("path", entry.getPath());
+            }
+        }
+        return slowCall;
+    }
+
+    private static double micros(long nanos) {
+        return Math.round(nanos / 100.0) / 10.0;
+    }
+
     private void writeAntiSamyConfiguration(String consoleRoot, HttpServletResponse response) {
         response.setContentType("text/html");
         XSSFilterImpl xssFilterImpl = (XSSFilterImpl) xssFilter;
@@ -194,6 +528,9 @@ public class XSSProtectionAPIWebConsolePlugin extends HttpServlet {
                 }
                 printWriter.write(
                         "<button style='float:right' type='button' id='download-config'>Download</button></p>");
+                writeUnsafeRegexps(
+                        printWriter,
+                        antiSamyPolicy.getPolicyHandler().getPolicy().getUnsafeRegexps());
                 printWriter.write("<pre class='prettyprint linenums'>");
                 ByteArrayOutputStream configStream = new ByteArrayOutputStream();
                 xssFilterImpl.writeActivePolicyConfig(configStream);
@@ -207,6 +544,33 @@ public class XSSProtectionAPIWebConsolePlugin extends HttpServlet {
         }
     }
 
+    private static void writeUnsafeRegexps(PrintWriter printWriter, Map<String, RegexpAnalyzer.Finding> findings) {
+        if (findings.isEmpty()) {
+            return;
+        }
+        printWriter.write("<div class='table'>");
+        printWriter.write(
+                "<div class='ui-widget-header ui-corner-top buttonGroup'>Regular Expressions Vulnerable to ReDoS</div>");
+        printWriter.write("<table class='nicetable'><thead><tr>");
+        printWriter.write("<th class='header'>Name</th>");
+        printWriter.write("<th class='header'>Issue</th>");
+        printWriter.write("<th class='header'>Group</th>");
+        printWriter.write("<th class='header'>Confirmed</th>");
+        printWriter.write("</tr></thead><tbody>");
+        for (Map.Entry<String, RegexpAnalyzer.Finding> entry : findings.entrySet()) {
+            RegexpAnalyzer.Finding finding = entry.getValue();
+            printWriter.printf(
+                    "<tr><td>%s</td><td>%s</td><td><code>%s</code></td><td>%s</td></tr>",
+                    StringEscapeUtils.escapeHtml4(entry.getKey()),
+                    finding.getIssue().getDescription(),
+                    StringEscapeUtils.escapeHtml4(finding.getGroup()),
+                    finding.isConfirmed()
+                            ? "yes, with an input of " + finding.getAttack().length() + " characters"
+                            : "no, at most quadratic");
+        }
+        printWriter.write("</tbody></table></div>");
+    }
+
     /**
      * Streams a resource embedded in the bundle.
      * @param response the response
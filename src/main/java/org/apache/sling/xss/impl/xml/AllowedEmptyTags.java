@@ -31,6 +31,12 @@ public class AllowedEmptyTags {
     @JacksonXmlProperty(localName = "literal")
     private List<Literal> allowedEmptyTagsList = Collections.emptyList();
 
+    static AllowedEmptyTags create(List<Literal> literals) {
+        AllowedEmptyTags allowedEmptyTags = new AllowedEmptyTags();
+        allowedEmptyTags.allowedEmptyTagsList = literals;
+        return allowedEmptyTags;
+    }
+
     public List<Literal> getLiteralList() {
         return allowedEmptyTagsList;
     }
@@ -25,6 +25,7 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Pattern;
@@ -42,12 +43,29 @@ public class AntiSamyPolicy {
     protected final Map<String, Attribute> dynamicAttributes = new HashMap<>();
     protected final List<String> requireClosingTags = new ArrayList<>();
     protected List<String> allowedEmptyTags = new ArrayList<>();
+    protected final Map<String, RegexpAnalyzer.Finding> unsafeRegexps = new LinkedHashMap<>();
 
     public AntiSamyPolicy(InputStream input) throws InvalidConfigException, XMLStreamException, IOException {
-        AntiSamyXmlParser xmlParser = new AntiSamyXmlParser();
+        this(new AntiSamyXmlParser().createRules(input));
+    }
+
+    /**
+     * Creates a policy from already parsed rules, e.g. to build several policies from a single parse of the policy
+     * file or from a {@link PolicySnapshot}.
+     *
+     * @param rules the rules; they are not modified
+     */
+    public AntiSamyPolicy(AntiSamyRules rules) throws InvalidConfigException {
         MapBuilder mapBuilder = new MapBuilder();
-        AntiSamyRules root = xmlParser.createRules(input);
-        mapBuilder.createRulesMap(this, root);
+        mapBuilder.createRulesMap(this, rules);
+    }
+
+    /**
+     * @return the {@link RegexpAnalyzer} findings for the policy's regular expressions, keyed by the name of the
+     *         regular expression or by the name of the attribute or property defining it inline
+     */
+    public Map<String, RegexpAnalyzer.Finding> getUnsafeRegexps() {
+        return unsafeRegexps;
     }
 
     public Map<String, String> getDirectives() {
@@ -93,6 +111,7 @@ public class AntiSamyPolicy {
     public static class CssPolicy {
 
         private final Map<String, Property> cssRules;
+        private final Map<String, PropertyValidator> propertyValidators;
         private final IncludeExcludeMatcher elementMatcher;
         private final IncludeExcludeMatcher classMatcher;
         private final IncludeExcludeMatcher idMatcher;
@@ -101,6 +120,7 @@ public class AntiSamyPolicy {
 
         public CssPolicy(Map<String, Property> cssrules, Map<String, Pattern> commonRegExps) {
             this.cssRules = Collections.unmodifiableMap(cssrules);
+            this.propertyValidators = PropertyValidator.compile(cssrules);
             this.elementMatcher = new IncludeExcludeMatcher(
                     commonRegExps.get("cssElementSelector"), commonRegExps.get("cssElementExclusion"));
             this.classMatcher = new IncludeExcludeMatcher(
@@ -117,6 +137,19 @@ public class AntiSamyPolicy {
             return cssRules;
         }
 
+        /**
+         * Checks a single value of a CSS property against the property's literals and regexps, and against the ones
+         * of the properties it references as shorthands.
+         *
+         * @param name  the name of the property
+         * @param value the value
+         * @return {@code true} if the property is known and allows the value
+         */
+        public boolean isValidPropertyValue(String name, String value) {
+            PropertyValidator validator = propertyValidators.get(name);
+            return validator != null && validator.isValid(value);
+        }
+
         public boolean isValidElementName(String name) {
             return elementMatcher.matches(name);
         }
@@ -73,6 +73,29 @@ public class AntiSamyRules {
     @JacksonXmlProperty(localName = "allowed-empty-tags")
     private AllowedEmptyTags allowedEmptyTags;
 
+    static AntiSamyRules create(
+            List<Directive> directiveList,
+            List<Regexp> regexpList,
+            List<Attribute> commonAttributeList,
+            GlobalTagAttributes globalTagAttributes,
+            DynamicTagAttributes dynamicTagAttribute,
+            List<Tag> tagRulesList,
+            TagsToEncode tagsToEncode,
+            List<Property> propertyList,
+            AllowedEmptyTags allowedEmptyTags) {
+        AntiSamyRules rules = new AntiSamyRules();
+        rules.directiveList = directiveList;
+        rules.regexpList = regexpList;
+        rules.commonAttributeList = commonAttributeList;
+        rules.globalTagAttributes = globalTagAttributes;
+        rules.dynamicTagAttribute = dynamicTagAttribute;
+        rules.tagRulesList = tagRulesList;
+        rules.tagsToEncode = tagsToEncode;
+        rules.propertyList = propertyList;
+        rules.allowedEmptyTags = allowedEmptyTags;
+        return rules;
+    }
+
     public AllowedEmptyTags getAllowedEmptyTags() {
         return allowedEmptyTags;
     }
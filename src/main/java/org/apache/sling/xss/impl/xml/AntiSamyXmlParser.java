@@ -34,17 +34,22 @@ public class AntiSamyXmlParser {
 
     private static final String DIRECTIVE_EMBED_STYLE_SHEETS = "embedStyleSheets";
 
+    /*
+     the factory and the mapper are expensive to create and the mapper caches its deserializers, so both are shared; the
+     mapper is thread-safe once configured, while stream readers are created under the factory's lock since not all
+     StAX implementations guarantee a thread-safe factory
+    */
+    private static final XMLInputFactory XML_INPUT_FACTORY = createXmlInputFactory();
+    private static final XmlMapper MAPPER = new XmlMapper(XML_INPUT_FACTORY, XMLOutputFactory.newInstance());
+
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
     public AntiSamyRules createRules(InputStream input) throws XMLStreamException, IOException {
-
-        XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
-        // disable external entities declarations
-        xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
-
-        XMLStreamReader xmlStreamReader = xmlInputFactory.createXMLStreamReader(input);
-        XmlMapper mapper = new XmlMapper(xmlInputFactory, XMLOutputFactory.newInstance());
-        AntiSamyRules rules = mapper.readValue(xmlStreamReader, AntiSamyRules.class);
+        XMLStreamReader xmlStreamReader;
+        synchronized (XML_INPUT_FACTORY) {
+            xmlStreamReader = XML_INPUT_FACTORY.createXMLStreamReader(input);
+        }
+        AntiSamyRules rules = MAPPER.readValue(xmlStreamReader, AntiSamyRules.class);
         if ("true".equals(rules.getDirectivesByName().get(DIRECTIVE_EMBED_STYLE_SHEETS))) {
             logger.warn(
                     "Unsupported configuration directive {} is set to true and will be ignored",
@@ -53,4 +58,11 @@ public class AntiSamyXmlParser {
         xmlStreamReader.close();
         return rules;
     }
+
+    private static XMLInputFactory createXmlInputFactory() {
+        XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+        // disable external entities declarations
+        xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        return xmlInputFactory;
+    }
 }
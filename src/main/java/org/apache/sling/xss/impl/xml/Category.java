@@ -24,6 +24,12 @@ public class Category {
     @JacksonXmlProperty(isAttribute = true)
     private String value;
 
+    static Category create(String value) {
+        Category category = new Category();
+        category.value = value;
+        return category;
+    }
+
     public String getValue() {
         return value;
     }
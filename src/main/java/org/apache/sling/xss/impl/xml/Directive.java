@@ -27,6 +27,13 @@ public class Directive {
     @JacksonXmlProperty(isAttribute = true)
     private String value;
 
+    static Directive create(String name, String value) {
+        Directive directive = new Directive();
+        directive.name = name;
+        directive.value = value;
+        return directive;
+    }
+
     public String getName() {
         return name;
     }
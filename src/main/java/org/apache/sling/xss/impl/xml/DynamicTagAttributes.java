@@ -29,6 +29,12 @@ public class DynamicTagAttributes {
     @JacksonXmlProperty(localName = "attribute")
     private List<Attribute> dynamicTagAttributeList = Collections.emptyList();
 
+    static DynamicTagAttributes create(List<Attribute> attributes) {
+        DynamicTagAttributes dynamicTagAttributes = new DynamicTagAttributes();
+        dynamicTagAttributes.dynamicTagAttributeList = attributes;
+        return dynamicTagAttributes;
+    }
+
     public List<Attribute> getDynamicTagAttributeList() {
         return dynamicTagAttributeList;
     }
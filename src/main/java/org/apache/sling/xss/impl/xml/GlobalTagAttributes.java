@@ -30,6 +30,12 @@ public class GlobalTagAttributes {
     @JacksonXmlProperty(localName = "attribute")
     private List<Attribute> globalTagAttributesList = Collections.emptyList();
 
+    static GlobalTagAttributes create(List<Attribute> attributes) {
+        GlobalTagAttributes globalTagAttributes = new GlobalTagAttributes();
+        globalTagAttributes.globalTagAttributesList = attributes;
+        return globalTagAttributes;
+    }
+
     public List<Attribute> getGlobalTagAttributeList() {
         return globalTagAttributesList;
     }
@@ -20,16 +20,40 @@ package org.apache.sling.xss.impl.xml;
 
 import java.util.regex.Pattern;
 
+import org.apache.sling.xss.impl.status.CacheStatistics;
+
+/**
+ * Matches names which match an include pattern but not an exclude pattern.
+ * <p>
+ * Where both patterns allow it, they are combined into a single pattern with a negative lookahead for the exclusion,
+ * so a name is checked in one pass. Verdicts are memoized, since stylesheets repeat the same selectors over and over
+ * again.
+ */
 class IncludeExcludeMatcher {
     private final Pattern include;
     private final Pattern exclude;
+    private final VerdictCache verdicts = new VerdictCache(this::check, CacheStatistics.CSS_SELECTOR_VERDICTS);
 
     public IncludeExcludeMatcher(Pattern include, Pattern exclude) {
-        this.include = include;
-        this.exclude = exclude;
+        if (include != null
+                && exclude != null
+                && include.flags() == exclude.flags()
+                && PropertyValidator.isMergeable(include.pattern())
+                && PropertyValidator.isMergeable(exclude.pattern())) {
+            this.include = Pattern.compile(
+                    "(?!(?:" + exclude.pattern() + ")\\z)(?:" + include.pattern() + ")", include.flags());
+            this.exclude = null;
+        } else {
+            this.include = include;
+            this.exclude = exclude;
+        }
     }
 
     public boolean matches(String input) {
+        return verdicts.test(input);
+    }
+
+    private boolean check(String input) {
         if (!include.matcher(input).matches()) return false;
 
         if (exclude == null) return true;
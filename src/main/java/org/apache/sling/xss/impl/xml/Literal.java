@@ -24,6 +24,12 @@ public class Literal {
     @JacksonXmlProperty(isAttribute = true, localName = "value")
     private String value;
 
+    static Literal create(String value) {
+        Literal literal = new Literal();
+        literal.value = value;
+        return literal;
+    }
+
     public String getValue() {
         return value;
     }
@@ -20,7 +20,9 @@ package org.apache.sling.xss.impl.xml;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 import org.apache.sling.xss.impl.InvalidConfigException;
@@ -28,6 +30,10 @@ import org.apache.sling.xss.impl.InvalidConfigException;
 class MapBuilder {
 
     AntiSamyPolicy policy;
+    private final PolicyComponentCache componentCache;
+    // the compiled patterns of the policy, keyed by flags and source, so that a regular expression referenced from
+    // several attributes and properties or defined under several names is compiled only once
+    private final Map<List<Object>, Pattern> patterns = new HashMap<>();
     // Antisamy hardcodes the allowed-empty-tags default:
     // https://github.com/nahsra/antisamy/blob/main/src/main/java/org/owasp/validator/html/scan/Constants.java#L37
     private static final List<String> ALLOWED_EMPTY_TAGS = Arrays.asList(
@@ -50,6 +56,14 @@ class MapBuilder {
             "basefont",
             "col");
 
+    MapBuilder() {
+        this(PolicyComponentCache.shared());
+    }
+
+    MapBuilder(PolicyComponentCache componentCache) {
+        this.componentCache = componentCache;
+    }
+
     public void createRulesMap(AntiSamyPolicy policy, AntiSamyRules topLevelElement) throws InvalidConfigException {
         this.policy = policy;
 
@@ -72,8 +86,22 @@ class MapBuilder {
     private void parseCommonRegExps(List<Regexp> root) {
         for (Regexp regex : root) {
             String name = regex.getName();
-            Pattern regexp = Pattern.compile(regex.getValue(), Pattern.DOTALL);
+            Pattern regexp = compile(regex.getValue(), Pattern.DOTALL);
             policy.commonRegularExpressions.put(name, regexp);
+            analyze(name, regexp);
+        }
+    }
+
+    /**
+     * Records the {@link RegexpAnalyzer} finding for a regular expression of the policy, if there is one.
+     *
+     * @param name    the name of the regular expression, or of the attribute or property defining it inline
+     * @param pattern the compiled regular expression
+     */
+    private void analyze(String name, Pattern pattern) {
+        RegexpAnalyzer.Finding finding = RegexpAnalyzer.analyze(pattern);
+        if (finding != null) {
+            policy.unsafeRegexps.put(name, finding);
         }
     }
 
@@ -92,13 +120,13 @@ class MapBuilder {
 
     private void parseCommonAttributes(List<Attribute> root) {
         for (Attribute attribute : root) {
-            List<Regexp> allowedRegexps = getAllowedRegexps(attribute.getRegexpList());
-            Attribute newAttribute = new Attribute(
+            List<Regexp> allowedRegexps = getAllowedRegexps(attribute.getRegexpList(), attribute.getName());
+            Attribute newAttribute = componentCache.attribute(new Attribute(
                     attribute.getName(),
                     allowedRegexps,
                     attribute.getLiteralList(),
                     attribute.getOnInvalid(),
-                    attribute.getDescription());
+                    attribute.getDescription()));
             policy.commonAttributes.put(attribute.getName(), newAttribute);
         }
     }
@@ -194,22 +222,22 @@ class MapBuilder {
                 if (commonAttribute != null) {
                     // creates a new Attribute with the fetched Attribute's information if not
                     // available
-                    newAttribute = new Attribute(
+                    newAttribute = componentCache.attribute(new Attribute(
                             attributeName,
                             !regexps.isEmpty() ? regexps : commonAttribute.getRegexpList(),
                             !literals.isEmpty() ? literals : commonAttribute.getLiteralList(),
                             !onInvalid.isEmpty() ? onInvalid : commonAttribute.getOnInvalid(),
-                            !description.isEmpty() ? description : commonAttribute.getDescription());
+                            !description.isEmpty() ? description : commonAttribute.getDescription()));
                 } else {
                     throw new InvalidConfigException(
                             "Attribute '" + attributeName + "' was referenced as a common attribute in definition of '"
                                     + tagName + "', but does not exist in <common-attributes>");
                 }
             } else {
-                List<Regexp> commonAllowedRegexps = getAllowedRegexps(regexps);
+                List<Regexp> commonAllowedRegexps = getAllowedRegexps(regexps, attributeName);
                 List<Literal> allowedValues = attribute.getLiteralList();
-                newAttribute =
-                        new Attribute(attributeName, commonAllowedRegexps, allowedValues, onInvalid, description);
+                newAttribute = componentCache.attribute(
+                        new Attribute(attributeName, commonAllowedRegexps, allowedValues, onInvalid, description));
             }
             // Add fully built attribute.
             tagAttributes.add(newAttribute);
@@ -220,33 +248,44 @@ class MapBuilder {
     private void parseCSSRules(List<Property> root) {
 
         for (Property property : root) {
-            List<Regexp> allowedRegexp3 = getAllowedRegexps(property.getRegexpList());
-            Property propertyWithPatterns = new Property(
+            List<Regexp> allowedRegexp3 = getAllowedRegexps(property.getRegexpList(), property.getName());
+            Property propertyWithPatterns = componentCache.property(new Property(
                     property.getName(),
                     allowedRegexp3,
                     property.getLiteralList(),
                     property.getShorthandList(),
                     property.getDescription(),
                     property.getOnInvalid(),
-                    property.getDefaultValue());
+                    property.getDefaultValue()));
             policy.getCssRules().put(property.getName(), propertyWithPatterns);
         }
     }
 
-    private List<Regexp> getAllowedRegexps(List<Regexp> nameAndRegexpsList) {
+    private List<Regexp> getAllowedRegexps(List<Regexp> nameAndRegexpsList, String owner) {
         List<Regexp> allowedRegExp = new ArrayList<>();
         for (Regexp regExpNode : nameAndRegexpsList) {
             String regExpName = regExpNode.getName();
             String value = regExpNode.getValue();
 
             if (regExpName != null && regExpName.length() > 0) {
-                allowedRegExp.add(new Regexp(
+                allowedRegExp.add(componentCache.regexp(
                         regExpName,
-                        policy.getCommonRegularExpressions().get(regExpName).toString()));
+                        policy.getCommonRegularExpressions().get(regExpName).pattern(),
+                        this::compile));
             } else if (value != null) {
-                allowedRegExp.add(new Regexp(regExpName, value));
+                Regexp regexp = componentCache.regexp(regExpName, value, this::compile);
+                analyze(owner, regexp.getPattern());
+                allowedRegExp.add(regexp);
             }
         }
         return allowedRegExp;
     }
+
+    private Pattern compile(String regexp) {
+        return compile(regexp, 0);
+    }
+
+    private Pattern compile(String regexp, int flags) {
+        return patterns.computeIfAbsent(Arrays.asList(flags, regexp), key -> Pattern.compile(regexp, flags));
+    }
 }
@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.xss.impl.xml;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+import org.apache.sling.xss.impl.status.CacheStatistics;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Deduplicates the {@link Regexp}, {@link Attribute} and {@link Property} definitions of all loaded policies, so that
+ * policies which define the same attribute or CSS property share a single instance, together with its compiled
+ * {@link java.util.regex.Pattern}s.
+ * <p>
+ * Definitions are keyed by their complete content, so two definitions are only shared if they behave identically.
+ * The cache references its values weakly: a definition is dropped once no loaded policy uses it anymore.
+ */
+public final class PolicyComponentCache {
+
+    private static final PolicyComponentCache SHARED = new PolicyComponentCache();
+
+    private final ConcurrentHashMap<List<Object>, ComponentReference> components = new ConcurrentHashMap<>();
+    private final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+
+    /**
+     * @return the cache shared by all policies loaded by this bundle
+     */
+    public static @NotNull PolicyComponentCache shared() {
+        return SHARED;
+    }
+
+    @NotNull
+    Regexp regexp(String name, @NotNull String value, @NotNull Function<String, Pattern> compiler) {
+        return intern(Arrays.asList(Regexp.class, name, value), () -> new Regexp(name, value, compiler.apply(value)));
+    }
+
+    @NotNull
+    Attribute attribute(@NotNull Attribute attribute) {
+        return intern(
+                Arrays.asList(
+                        Attribute.class,
+                        attribute.getName(),
+                        attribute.getDescription(),
+                        attribute.getOnInvalid(),
+                        regexpKeys(attribute.getRegexpList()),
+                        literalKeys(attribute.getLiteralList())),
+                () -> attribute);
+    }
+
+    @NotNull
+    Property property(@NotNull Property property) {
+        return intern(
+                Arrays.asList(
+                        Property.class,
+                        property.getName(),
+                        property.getDescription(),
+                        property.getOnInvalid(),
+                        property.getDefaultValue(),
+                        regexpKeys(property.getRegexpList()),
+                        literalKeys(property.getLiteralList()),
+                        property.getShorthands()),
+                () -> property);
+    }
+
+    /**
+     * @return the number of definitions currently shared through this cache
+     */
+    public int size() {
+        expungeStaleEntries();
+        return components.size();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T intern(List<Object> key, Supplier<T> factory) {
+        expungeStaleEntries();
+        T candidate = null;
+        while (true) {
+            ComponentReference reference = components.get(key);
+            Object existing = reference == null ? null : reference.get();
+            if (existing != null) {
+                CacheStatistics.POLICY_COMPONENTS.hit();
+                return (T) existing;
+            }
+            if (candidate == null) {
+                candidate = factory.get();
+            }
+            ComponentReference created = new ComponentReference(key, candidate, queue);
+            if (reference == null
+                    ? components.putIfAbsent(key, created) == null
+                    : components.replace(key, reference, created)) {
+                CacheStatistics.POLICY_COMPONENTS.miss();
+                return candidate;
+            }
+        }
+    }
+
+    private void expungeStaleEntries() {
+        Reference<?> reference;
+        while ((reference = queue.poll()) != null) {
+            ComponentReference stale = (ComponentReference) reference;
+            components.remove(stale.key, stale);
+        }
+    }
+
+    private static List<Object> regexpKeys(List<Regexp> regexps) {
+        List<Object> keys = new ArrayList<>(regexps.size() * 2);
+        for (Regexp regexp : regexps) {
+            keys.add(regexp.getName());
+            keys.add(regexp.getValue());
+        }
+        return keys;
+    }
+
+    private static List<Object> literalKeys(List<Literal> literals) {
+        List<Object> keys = new ArrayList<>(literals.size());
+        for (Literal literal : literals) {
+            keys.add(literal.getValue());
+        }
+        return keys;
+    }
+
+    private static final class ComponentReference extends WeakReference<Object> {
+
+        private final List<Object> key;
+
+        ComponentReference(List<Object> key, Object referent, ReferenceQueue<Object> queue) {
+            super(referent, queue);
+            this.key = key;
+        }
+    }
+}
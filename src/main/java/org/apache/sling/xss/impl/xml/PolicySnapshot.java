@@ -0,0 +1,219 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.xss.impl.xml;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Reads and writes {@link AntiSamyRules} in a compact binary format, so that a policy which was already parsed once
+ * can be loaded again without going through the XML parser and the Jackson data binding.
+ * <p>
+ * The format is private to this bundle: it starts with a magic number and a format version, followed by the rules'
+ * sections in document order. Strings are written as UTF-8 with an explicit length, lists with their size, and
+ * {@code null} values with a negative length. Regular expressions are stored in their source form; they are compiled
+ * when the rules are turned into an {@link AntiSamyPolicy}, exactly as for a policy read from XML.
+ */
+public final class PolicySnapshot {
+
+    /** The format version; it is part of the snapshot file names, so that stale snapshots are never read. */
+    public static final int VERSION = 1;
+
+    private static final int MAGIC = 0x58535350; // XSSP
+
+    private PolicySnapshot() {}
+
+    public static void write(@NotNull AntiSamyRules rules, @NotNull OutputStream outputStream) throws IOException {
+        DataOutputStream out = new DataOutputStream(outputStream);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        writeList(out, rules.getDirectiveList(), directive -> {
+            writeString(out, directive.getName());
+            writeString(out, directive.getValue());
+        });
+        writeList(out, rules.getRegexpList(), regexp -> writeRegexp(out, regexp));
+        writeList(out, rules.getCommonAttributeList(), attribute -> writeAttribute(out, attribute));
+        writeList(
+                out,
+                rules.getGlobalTagAttributes().getGlobalTagAttributeList(),
+                attribute -> writeAttribute(out, attribute));
+        writeList(
+                out,
+                rules.getDynamicTagAttribute().getDynamicTagAttributeList(),
+                attribute -> writeAttribute(out, attribute));
+        writeList(out, rules.getTagRulesList(), tag -> {
+            writeString(out, tag.getName());
+            writeString(out, tag.getAction());
+            writeList(out, tag.getAttributeList(), attribute -> writeAttribute(out, attribute));
+        });
+        TagsToEncode tagsToEncode = rules.getTagsToEncode();
+        out.writeBoolean(tagsToEncode != null);
+        if (tagsToEncode != null) {
+            writeList(out, tagsToEncode.getTagToEncode(), tag -> writeString(out, tag));
+        }
+        writeList(out, rules.getPropertyList(), property -> {
+            writeString(out, property.getName());
+            writeList(out, property.getRegexpList(), regexp -> writeRegexp(out, regexp));
+            writeList(out, property.getLiteralList(), literal -> writeString(out, literal.getValue()));
+            writeList(out, property.getShorthandList(), shorthand -> writeString(out, shorthand.getName()));
+            writeList(out, property.getCategoryList(), category -> writeString(out, category.getValue()));
+            writeString(out, property.getDescription());
+            writeString(out, property.getOnInvalid());
+            writeString(out, property.getDefaultValue());
+        });
+        AllowedEmptyTags allowedEmptyTags = rules.getAllowedEmptyTags();
+        out.writeBoolean(allowedEmptyTags != null);
+        if (allowedEmptyTags != null) {
+            writeList(out, allowedEmptyTags.getLiteralList(), literal -> writeString(out, literal.getValue()));
+        }
+        out.flush();
+    }
+
+    /**
+     * @throws IOException if the stream does not contain a snapshot in the current {@link #VERSION format}
+     */
+    public static @NotNull AntiSamyRules read(@NotNull InputStream inputStream) throws IOException {
+        DataInputStream in = new DataInputStream(inputStream);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a policy snapshot.");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported policy snapshot version " + version + ".");
+        }
+        List<Directive> directives = readList(in, () -> Directive.create(readString(in), readString(in)));
+        List<Regexp> regexps = readList(in, () -> readRegexp(in));
+        List<Attribute> commonAttributes = readList(in, () -> readAttribute(in));
+        List<Attribute> globalAttributes = readList(in, () -> readAttribute(in));
+        List<Attribute> dynamicAttributes = readList(in, () -> readAttribute(in));
+        List<Tag> tags =
+                readList(in, () -> new Tag(readString(in), readString(in), readList(in, () -> readAttribute(in))));
+        TagsToEncode tagsToEncode = in.readBoolean() ? TagsToEncode.create(readList(in, () -> readString(in))) : null;
+        List<Property> properties = readList(
+                in,
+                () -> Property.create(
+                        readString(in),
+                        readList(in, () -> readRegexp(in)),
+                        readList(in, () -> Literal.create(readString(in))),
+                        readList(in, () -> Shorthand.create(readString(in))),
+                        readList(in, () -> Category.create(readString(in))),
+                        readString(in),
+                        readString(in),
+                        readString(in)));
+        AllowedEmptyTags allowedEmptyTags =
+                in.readBoolean() ? AllowedEmptyTags.create(readList(in, () -> Literal.create(readString(in)))) : null;
+        return AntiSamyRules.create(
+                directives,
+                regexps,
+                commonAttributes,
+                GlobalTagAttributes.create(globalAttributes),
+                DynamicTagAttributes.create(dynamicAttributes),
+                tags,
+                tagsToEncode,
+                properties,
+                allowedEmptyTags);
+    }
+
+    private static void writeAttribute(DataOutputStream out, Attribute attribute) throws IOException {
+        writeString(out, attribute.getName());
+        writeList(out, attribute.getRegexpList(), regexp -> writeRegexp(out, regexp));
+        writeList(out, attribute.getLiteralList(), literal -> writeString(out, literal.getValue()));
+        writeString(out, attribute.getOnInvalid());
+        writeString(out, attribute.getDescription());
+    }
+
+    private static Attribute readAttribute(DataInputStream in) throws IOException {
+        return new Attribute(
+                readString(in),
+                readList(in, () -> readRegexp(in)),
+                readList(in, () -> Literal.create(readString(in))),
+                readString(in),
+                readString(in));
+    }
+
+    private static void writeRegexp(DataOutputStream out, Regexp regexp) throws IOException {
+        writeString(out, regexp.getName());
+        writeString(out, regexp.getValue());
+    }
+
+    private static Regexp readRegexp(DataInputStream in) throws IOException {
+        return new Regexp(readString(in), readString(in));
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static <T> void writeList(DataOutputStream out, List<T> list, ElementWriter<T> writer) throws IOException {
+        if (list == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(list.size());
+            for (T element : list) {
+                writer.write(element);
+            }
+        }
+    }
+
+    private static <T> List<T> readList(DataInputStream in, ElementReader<T> reader) throws IOException {
+        int size = in.readInt();
+        if (size < 0) {
+            return null;
+        }
+        List<T> list = new ArrayList<>(Math.min(size, 1024));
+        for (int i = 0; i < size; i++) {
+            list.add(reader.read());
+        }
+        return list;
+    }
+
+    @FunctionalInterface
+    private interface ElementWriter<T> {
+        void write(T element) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface ElementReader<T> {
+        T read() throws IOException;
+    }
+}
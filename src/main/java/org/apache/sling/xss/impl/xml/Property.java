@@ -75,6 +75,21 @@ public class Property {
         this.defaultValue = defaultValue;
     }
 
+    static Property create(
+            String name,
+            List<Regexp> allowedRegexps,
+            List<Literal> literalList,
+            List<Shorthand> shortHandRefs,
+            List<Category> categoryList,
+            String description,
+            String onInvalid,
+            String defaultValue) {
+        Property property =
+                new Property(name, allowedRegexps, literalList, shortHandRefs, description, onInvalid, defaultValue);
+        property.categoryList = categoryList;
+        return property;
+    }
+
     public List<Category> getCategoryList() {
         return categoryList;
     }
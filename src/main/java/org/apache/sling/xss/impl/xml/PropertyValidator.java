@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.xss.impl.xml;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.regex.Pattern;
+
+import org.apache.sling.xss.impl.status.CacheStatistics;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The compiled form of a CSS {@link Property}.
+ * <p>
+ * The literals and regexps of the property and of all properties reachable through its shorthands are flattened
+ * into a single literal set and, where the regexps allow it, a single alternation, so validating a value neither
+ * scans lists nor recurses through the shorthands. Verdicts are memoized, since
+ * the same few values ({@code 0}, {@code none}, {@code bold}, ...) make up most of the real world input; see
+ * {@link VerdictCache}.
+ */
+final class PropertyValidator {
+
+    private final Set<String> literals;
+    private final Pattern[] patterns;
+    private final VerdictCache verdicts = new VerdictCache(this::validate, CacheStatistics.CSS_PROPERTY_VERDICTS);
+
+    private PropertyValidator(Set<String> literals, Pattern[] patterns) {
+        this.literals = literals;
+        this.patterns = patterns;
+    }
+
+    /**
+     * Compiles the validators for all properties of a policy.
+     *
+     * @param cssRules the properties, by name
+     * @return the validators, by property name
+     */
+    static @NotNull Map<String, PropertyValidator> compile(@NotNull Map<String, Property> cssRules) {
+        Map<String, PropertyValidator> validators = new HashMap<>();
+        Map<String, Pattern> mergedPatterns = new HashMap<>();
+        for (String name : cssRules.keySet()) {
+            Set<String> literals = new HashSet<>();
+            Map<String, Pattern> patterns = new LinkedHashMap<>();
+            // shorthands may reference each other, so the closure is collected iteratively with a visited set
+            Set<String> visited = new HashSet<>();
+            Deque<String> pending = new ArrayDeque<>();
+            pending.push(name);
+            while (!pending.isEmpty()) {
+                Property property = cssRules.get(pending.pop());
+                if (property == null || !visited.add(property.getName())) {
+                    continue;
+                }
+                property.getLiteralList().forEach(literal -> literals.add(literal.getValue()));
+                property.getRegexpList()
+                        .forEach(regexp -> patterns.putIfAbsent(regexp.getValue(), regexp.getPattern()));
+                property.getShorthandList().forEach(shorthand -> pending.push(shorthand.getName()));
+            }
+            validators.put(
+                    name,
+                    new PropertyValidator(
+                            literals.isEmpty() ? Collections.emptySet() : literals, merge(patterns, mergedPatterns)));
+        }
+        return validators;
+    }
+
+    /**
+     * @param value the value of the property
+     * @return {@code true} if the value is allowed
+     */
+    boolean isValid(@NotNull String value) {
+        return verdicts.test(value);
+    }
+
+    private boolean validate(String value) {
+        if (literals.contains(value)) {
+            return true;
+        }
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher(value).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Pattern[] merge(Map<String, Pattern> patterns, Map<String, Pattern> mergedPatterns) {
+        if (patterns.size() < 2 || !patterns.keySet().stream().allMatch(PropertyValidator::isMergeable)) {
+            return patterns.values().toArray(new Pattern[0]);
+        }
+        StringJoiner alternation = new StringJoiner("|");
+        patterns.keySet().forEach(regexp -> alternation.add("(?:" + regexp + ")"));
+        String merged = alternation.toString();
+        return new Pattern[] {mergedPatterns.computeIfAbsent(merged, Pattern::compile)};
+    }
+
+    /**
+     * Checks whether a regexp keeps its meaning when wrapped into a non-capturing group of an alternation: it must
+     * not refer to groups by number or name, and must not contain quotes or inline flags which could extend beyond
+     * its own group.
+     *
+     * @param regexp the regexp
+     * @return {@code true} if the regexp can be merged
+     */
+    static boolean isMergeable(@NotNull String regexp) {
+        for (int i = 0; i < regexp.length(); i++) {
+            char c = regexp.charAt(i);
+            if (c == '\\') {
+                if (++i == regexp.length()) {
+                    return false;
+                }
+                char escaped = regexp.charAt(i);
+                if (Character.isDigit(escaped) || escaped == 'k' || escaped == 'Q') {
+                    return false;
+                }
+            } else if (c == '(' && i + 1 < regexp.length() && regexp.charAt(i + 1) == '?') {
+                if (!regexp.startsWith(":", i + 2)
+                        && !regexp.startsWith("=", i + 2)
+                        && !regexp.startsWith("!", i + 2)
+                        && !regexp.startsWith("<=", i + 2)
+                        && !regexp.startsWith("<!", i + 2)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -27,7 +27,7 @@ public class Regexp {
     private String name;
     private String value;
 
-    private Pattern pattern;
+    private volatile Pattern pattern;
 
     @JsonCreator
     public Regexp(
@@ -36,10 +36,19 @@ public class Regexp {
 
         this.name = name;
         this.value = regexp;
+    }
 
-        if (regexp != null) {
-            this.pattern = Pattern.compile(regexp);
-        }
+    /**
+     * Creates a regexp with an already compiled pattern, e.g. one shared with other regexps of the same policy.
+     *
+     * @param name    the name
+     * @param regexp  the regular expression
+     * @param pattern the compiled {@code regexp}
+     */
+    Regexp(String name, String regexp, Pattern pattern) {
+        this.name = name;
+        this.value = regexp;
+        this.pattern = pattern;
     }
 
     public String getName() {
@@ -50,8 +59,17 @@ public class Regexp {
         return value;
     }
 
+    /**
+     * @return the compiled regular expression; regexps read from a policy file are only compiled on first use, since
+     *     most of them are replaced by the ones built by the {@link MapBuilder}
+     */
     public Pattern getPattern() {
-        return pattern;
+        Pattern compiled = pattern;
+        if (compiled == null && value != null) {
+            compiled = Pattern.compile(value);
+            pattern = compiled;
+        }
+        return compiled;
     }
 
     @Override
@@ -0,0 +1,510 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.xss.impl.xml;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Looks for regular expressions which can take exponential time to reject an input (ReDoS).
+ * <p>
+ * The analysis has two stages. The static stage parses the expression and flags every group repeated by an unbounded
+ * quantifier whose body either contains another unbounded quantifier, e.g. {@code (a+)*}, or consists of
+ * alternatives, e.g. {@code (\w|\d)*}. A flagged group is only reported if it is ambiguous, i.e. if a generated pump
+ * string is matched by several of its alternatives, or by its body both once and twice in a row. The dynamic stage
+ * then matches the repeated group alone against {@code pump * n} followed by a character which makes the match fail,
+ * for two values of {@code n}. The cost of a match is measured in characters read by the regex engine rather than in
+ * time, so the result does not depend on the machine or on JIT compilation, and every match is aborted after
+ * {@link #MAX_STEPS} reads. A finding is confirmed if a match is aborted or if doubling {@code n} multiplies the cost
+ * by more than {@link #MAX_GROWTH}, i.e. if the cost grows faster than quadratically. Since Java 9 the regex engine
+ * memoizes some repetitions, so many textbook examples such as {@code (a+)+b} are ambiguous but only quadratic.
+ * <p>
+ * The results are memoized per expression, since the same expressions are compiled for every policy and fallback
+ * policy built from a policy file.
+ */
+public final class RegexpAnalyzer {
+
+    /**
+     * The construct which makes a regular expression suspicious.
+     */
+    public enum Issue {
+        NESTED_QUANTIFIER("nested quantifier"),
+        AMBIGUOUS_ALTERNATION("ambiguous alternation");
+
+        private final String description;
+
+        Issue(String description) {
+            this.description = description;
+        }
+
+        public @NotNull String getDescription() {
+            return description;
+        }
+    }
+
+    /**
+     * A suspicious group of a regular expression.
+     */
+    public static final class Finding {
+
+        private final String regexp;
+        private final Issue issue;
+        private final String group;
+        private final String attack;
+
+        private Finding(String regexp, Issue issue, String group, @Nullable String attack) {
+            this.regexp = regexp;
+            this.issue = issue;
+            this.group = group;
+            this.attack = attack;
+        }
+
+        /**
+         * @return the regular expression
+         */
+        public @NotNull String getRegexp() {
+            return regexp;
+        }
+
+        public @NotNull Issue getIssue() {
+            return issue;
+        }
+
+        /**
+         * @return the repeated group, including its quantifier
+         */
+        public @NotNull String getGroup() {
+            return group;
+        }
+
+        /**
+         * @return {@code true} if the cost of matching the group against generated input grew faster than
+         *         quadratically with the input's length
+         */
+        public boolean isConfirmed() {
+            return attack != null;
+        }
+
+        /**
+         * @return the input which confirmed the finding, {@code null} if it is not confirmed
+         */
+        public @Nullable String getAttack() {
+            return attack;
+        }
+
+        @Override
+        public String toString() {
+            return issue.getDescription() + " in " + group
+                    + (isConfirmed() ? ", confirmed with an input of " + attack.length() + " characters" : "");
+        }
+    }
+
+    static final int MAX_STEPS = 1_000_000;
+    static final int MAX_GROWTH = 6;
+
+    private static final int MAX_MEMOIZED = 1024;
+    private static final int[] REPETITIONS = {16, 32};
+    private static final String[] FAILING_SUFFIXES = {"\u0000", "!", " "};
+    private static final String ALPHABET = "aA0 -._/:%&#;,@";
+    private static final int MAX_PUMP_CHARACTERS = 24;
+    private static final Map<List<Object>, Optional<Finding>> FINDINGS = new ConcurrentHashMap<>();
+
+    private RegexpAnalyzer() {}
+
+    /**
+     * @param pattern the regular expression
+     * @return the most severe finding, a confirmed one if there is any, or {@code null} if the expression does not
+     *         look vulnerable
+     */
+    static @Nullable Finding analyze(@NotNull Pattern pattern) {
+        List<Object> key = Arrays.asList(pattern.flags(), pattern.pattern());
+        Optional<Finding> finding = FINDINGS.get(key);
+        if (finding == null) {
+            finding = Optional.ofNullable(doAnalyze(pattern));
+            if (FINDINGS.size() >= MAX_MEMOIZED) {
+                FINDINGS.clear();
+            }
+            FINDINGS.put(key, finding);
+        }
+        return finding.orElse(null);
+    }
+
+    private static Finding doAnalyze(Pattern pattern) {
+        Finding unconfirmed = null;
+        for (Group group : findSuspiciousGroups(pattern.pattern())) {
+            Set<String> pumps = ambiguousPumps(group, pattern.flags());
+            if (pumps.isEmpty()) {
+                continue;
+            }
+            String attack = confirm(group, pattern.flags(), pumps);
+            Finding finding = new Finding(pattern.pattern(), group.issue, group.source(), attack);
+            if (attack != null) {
+                return finding;
+            }
+            if (unconfirmed == null) {
+                unconfirmed = finding;
+            }
+        }
+        return unconfirmed;
+    }
+
+    /**
+     * A repeated group as it occurs in the expression.
+     */
+    private static final class Group {
+        private final String body;
+        private final List<String> alternatives;
+        private final String quantifier;
+        private Issue issue;
+
+        private Group(String body, List<String> alternatives, String quantifier) {
+            this.body = body;
+            this.alternatives = alternatives;
+            this.quantifier = quantifier;
+        }
+
+        private String source() {
+            return "(" + body + ")" + quantifier;
+        }
+    }
+
+    /**
+     * An open group while parsing.
+     */
+    private static final class Frame {
+        private final int bodyStart;
+        private final List<Integer> alternativeStarts = new ArrayList<>();
+        private boolean unboundedInside;
+
+        private Frame(int bodyStart) {
+            this.bodyStart = bodyStart;
+            alternativeStarts.add(bodyStart);
+        }
+    }
+
+    private static List<Group> findSuspiciousGroups(String regexp) {
+        List<Group> groups = new ArrayList<>();
+        Deque<Frame> frames = new ArrayDeque<>();
+        frames.push(new Frame(0));
+        int length = regexp.length();
+        int i = 0;
+        while (i < length) {
+            char c = regexp.charAt(i);
+            if (c == '(') {
+                frames.push(new Frame(groupBodyStart(regexp, i)));
+                i = frames.peek().bodyStart;
+                continue;
+            }
+            if (c == '|') {
+                frames.peek().alternativeStarts.add(i + 1);
+                i++;
+                continue;
+            }
+            if (c == ')' && frames.size() > 1) {
+                Frame frame = frames.pop();
+                int quantifierEnd = quantifierEnd(regexp, i + 1);
+                String quantifier = regexp.substring(i + 1, quantifierEnd);
+                boolean unbounded = isUnbounded(quantifier);
+                if (unbounded) {
+                    List<String> alternatives = new ArrayList<>();
+                    List<Integer> starts = frame.alternativeStarts;
+                    for (int a = 0; a < starts.size(); a++) {
+                        int end = a + 1 < starts.size() ? starts.get(a + 1) - 1 : i;
+                        alternatives.add(regexp.substring(starts.get(a), end));
+                    }
+                    Group group = new Group(regexp.substring(frame.bodyStart, i), alternatives, quantifier);
+                    if (frame.unboundedInside) {
+                        group.issue = Issue.NESTED_QUANTIFIER;
+                        groups.add(group);
+                    } else if (alternatives.size() > 1) {
+                        group.issue = Issue.AMBIGUOUS_ALTERNATION;
+                        groups.add(group);
+                    }
+                }
+                frames.peek().unboundedInside |= frame.unboundedInside || unbounded;
+                i = quantifierEnd;
+                continue;
+            }
+            int atomEnd = atomEnd(regexp, i);
+            int quantifierEnd = quantifierEnd(regexp, atomEnd);
+            if (isUnbounded(regexp.substring(atomEnd, quantifierEnd))) {
+                frames.peek().unboundedInside = true;
+            }
+            i = quantifierEnd;
+        }
+        return groups;
+    }
+
+    private static int groupBodyStart(String regexp, int open) {
+        int i = open + 1;
+        if (i < regexp.length() && regexp.charAt(i) == '?') {
+            // (?:, (?=, (?!, (?<=, (?<!, (?<name>, (?>, (?flags) and (?flags:
+            i++;
+            if (regexp.startsWith("<", i) && !regexp.startsWith("<=", i) && !regexp.startsWith("<!", i)) {
+                int close = regexp.indexOf('>', i);
+                return close < 0 ? regexp.length() : close + 1;
+            }
+            while (i < regexp.length() && ":=!<>".indexOf(regexp.charAt(i)) < 0 && regexp.charAt(i) != ')') {
+                i++;
+            }
+            if (i < regexp.length() && regexp.charAt(i) == '<') {
+                i++;
+            }
+            if (i < regexp.length() && regexp.charAt(i) != ')') {
+                i++;
+            }
+        }
+        return i;
+    }
+
+    private static int atomEnd(String regexp, int start) {
+        int length = regexp.length();
+        char c = regexp.charAt(start);
+        if (c == '\\' && start + 1 < length) {
+            char escaped = regexp.charAt(start + 1);
+            if (escaped == 'Q') {
+                int end = regexp.indexOf("\\E", start + 2);
+                return end < 0 ? length : end + 2;
+            }
+            if ((escaped == 'p' || escaped == 'P' || escaped == 'x' || escaped == 'N' || escaped == 'k')
+                    && start + 2 < length
+                    && (regexp.charAt(start + 2) == '{' || regexp.charAt(start + 2) == '<')) {
+                int end = regexp.indexOf(regexp.charAt(start + 2) == '{' ? '}' : '>', start + 2);
+                return end < 0 ? length : end + 1;
+            }
+            return start + 2;
+        }
+        if (c == '[') {
+            int depth = 0;
+            for (int i = start; i < length; i++) {
+                char d = regexp.charAt(i);
+                if (d == '\\') {
+                    i++;
+                } else if (d == '[') {
+                    depth++;
+                } else if (d == ']' && i > start + 1 && --depth == 0) {
+                    return i + 1;
+                }
+            }
+            return length;
+        }
+        return start + 1;
+    }
+
+    private static int quantifierEnd(String regexp, int start) {
+        int length = regexp.length();
+        if (start >= length) {
+            return start;
+        }
+        int i = start;
+        char c = regexp.charAt(i);
+        if (c == '*' || c == '+' || c == '?') {
+            i++;
+        } else if (c == '{') {
+            int close = regexp.indexOf('}', i);
+            if (close < 0 || !regexp.substring(i + 1, close).matches("\\d+(,\\d*)?")) {
+                return start;
+            }
+            i = close + 1;
+        } else {
+            return start;
+        }
+        if (i < length && (regexp.charAt(i) == '?' || regexp.charAt(i) == '+')) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isUnbounded(String quantifier) {
+        if (quantifier.isEmpty() || quantifier.endsWith("+") && quantifier.length() > 1) {
+            // no quantifier, or a possessive one which never backtracks
+            return false;
+        }
+        char c = quantifier.charAt(0);
+        return c == '*' || c == '+' || c == '{' && quantifier.matches("\\{\\d+,}\\??");
+    }
+
+    /**
+     * Generates strings which the group can match in more than one way: strings which several alternatives match, or
+     * strings which the body matches both once and twice in a row.
+     */
+    private static Set<String> ambiguousPumps(Group group, int flags) {
+        Pattern body;
+        List<Pattern> alternatives = new ArrayList<>();
+        try {
+            body = Pattern.compile("(?:" + group.body + ")", flags);
+            if (group.alternatives.size() > 1) {
+                for (String alternative : group.alternatives) {
+                    alternatives.add(Pattern.compile("(?:" + alternative + ")", flags));
+                }
+            }
+        } catch (PatternSyntaxException e) {
+            // e.g. back references to groups outside of this one, the group cannot be analyzed on its own
+            return Collections.emptySet();
+        }
+        Set<String> pumps = new LinkedHashSet<>();
+        for (String candidate : candidates(group)) {
+            if (body.matcher(candidate).matches()
+                    && (body.matcher(candidate + candidate).matches() || matchesSeveral(alternatives, candidate))) {
+                pumps.add(candidate);
+            }
+        }
+        return pumps;
+    }
+
+    private static boolean matchesSeveral(List<Pattern> alternatives, String candidate) {
+        int matching = 0;
+        for (Pattern alternative : alternatives) {
+            if (alternative.matcher(candidate).matches() && ++matching > 1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return single characters and pairs of characters, from a fixed alphabet and from the literals of the group
+     */
+    private static Set<String> candidates(Group group) {
+        Set<Character> characters = new LinkedHashSet<>();
+        for (char c : ALPHABET.toCharArray()) {
+            characters.add(c);
+        }
+        for (char c : group.body.toCharArray()) {
+            if (characters.size() >= MAX_PUMP_CHARACTERS) {
+                break;
+            }
+            if ("\\[](){}|*+?^$".indexOf(c) < 0) {
+                characters.add(c);
+            }
+        }
+        Set<String> candidates = new LinkedHashSet<>();
+        for (char c : characters) {
+            candidates.add(String.valueOf(c));
+        }
+        for (char c : characters) {
+            for (char d : characters) {
+                candidates.add(String.valueOf(new char[] {c, d}));
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * @return the input for which the cost of matching the repeated group grew too fast, or {@code null} if there is
+     *         none
+     */
+    private static String confirm(Group group, int flags, Set<String> pumps) {
+        Pattern repeated = Pattern.compile("(?:" + group.body + ")" + group.quantifier, flags);
+        for (String pump : pumps) {
+            for (String suffix : FAILING_SUFFIXES) {
+                String shortAttack = repeat(pump, REPETITIONS[0]) + suffix;
+                long shortSteps = steps(repeated, shortAttack);
+                if (shortSteps < 0) {
+                    return shortAttack;
+                }
+                String attack = repeat(pump, REPETITIONS[1]) + suffix;
+                long longSteps = steps(repeated, attack);
+                if (longSteps < 0 || longSteps > shortSteps * MAX_GROWTH) {
+                    return attack;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String repeat(String s, int times) {
+        StringBuilder sb = new StringBuilder(s.length() * times + 1);
+        for (int i = 0; i < times; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the number of characters read while matching, or {@code -1} if the match was aborted
+     */
+    private static long steps(Pattern pattern, String input) {
+        CountingCharSequence counting = new CountingCharSequence(input);
+        try {
+            pattern.matcher(counting).matches();
+            return counting.steps;
+        } catch (BudgetExceededException e) {
+            return -1;
+        } catch (StackOverflowError e) {
+            // as bad as running out of time
+            return -1;
+        }
+    }
+
+    private static final class CountingCharSequence implements CharSequence {
+        private final String input;
+        private long steps;
+
+        private CountingCharSequence(String input) {
+            this.input = input;
+        }
+
+        @Override
+        public int length() {
+            return input.length();
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (++steps > MAX_STEPS) {
+                throw BudgetExceededException.INSTANCE;
+            }
+            return input.charAt(index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return input.subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return input;
+        }
+    }
+
+    private static final class BudgetExceededException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        private static final BudgetExceededException INSTANCE = new BudgetExceededException();
+
+        private BudgetExceededException() {
+            super(null, null, false, false);
+        }
+    }
+}
@@ -24,6 +24,12 @@ public class Shorthand {
     @JacksonXmlProperty(isAttribute = true)
     private String name;
 
+    static Shorthand create(String name) {
+        Shorthand shorthand = new Shorthand();
+        shorthand.name = name;
+        return shorthand;
+    }
+
     public String getName() {
         return name;
     }
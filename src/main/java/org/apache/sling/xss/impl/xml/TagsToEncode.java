@@ -29,6 +29,12 @@ public class TagsToEncode {
     @JacksonXmlProperty(localName = "tag")
     private List<String> tagToEncode = Collections.emptyList();
 
+    static TagsToEncode create(List<String> tags) {
+        TagsToEncode tagsToEncode = new TagsToEncode();
+        tagsToEncode.tagToEncode = tags;
+        return tagsToEncode;
+    }
+
     public List<String> getTagToEncode() {
         return tagToEncode;
     }
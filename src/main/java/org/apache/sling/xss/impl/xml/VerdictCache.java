@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.xss.impl.xml;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+import org.apache.sling.xss.impl.status.CacheStatistics;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A bounded memo of the verdicts of a policy check, for checks which see the same few inputs over and over again.
+ * Inputs longer than {@link #MAX_KEY_LENGTH} are never memoized, and the memo is cleared once it holds
+ * {@link #MAX_SIZE} verdicts, so crafted input cannot grow it. Inputs which are too long to be memoized count as
+ * misses in the cache's {@link CacheStatistics}.
+ */
+final class VerdictCache {
+
+    static final int MAX_SIZE = 256;
+    static final int MAX_KEY_LENGTH = 64;
+
+    private final ConcurrentHashMap<String, Boolean> verdicts = new ConcurrentHashMap<>();
+    private final Predicate<String> check;
+    private final CacheStatistics statistics;
+
+    VerdictCache(@NotNull Predicate<String> check, @NotNull CacheStatistics statistics) {
+        this.check = check;
+        this.statistics = statistics;
+    }
+
+    boolean test(@NotNull String input) {
+        if (input.length() > MAX_KEY_LENGTH) {
+            statistics.miss();
+            return check.test(input);
+        }
+        Boolean verdict = verdicts.get(input);
+        if (verdict != null) {
+            statistics.hit();
+        } else {
+            statistics.miss();
+            verdict = check.test(input);
+            if (verdicts.size() >= MAX_SIZE) {
+                verdicts.clear();
+            }
+            verdicts.put(input, verdict);
+        }
+        return verdict;
+    }
+}
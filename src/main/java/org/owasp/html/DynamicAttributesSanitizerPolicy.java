@@ -22,10 +22,12 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.List;
 import java.util.ListIterator;
-import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
 
+import org.apache.sling.xss.impl.SanitizerLimits;
+import org.apache.sling.xss.impl.SanitizerProfile;
+import org.apache.sling.xss.impl.status.RejectionStatistics;
+import org.apache.sling.xss.impl.status.RejectionStatistics.Reason;
 import org.jetbrains.annotations.Nullable;
 
 /**
@@ -38,64 +40,110 @@ import org.jetbrains.annotations.Nullable;
  */
 public class DynamicAttributesSanitizerPolicy extends ElementAndAttributePolicyBasedSanitizerPolicy {
 
-    private Map<String, ElementAndAttributePolicies> elementAndAttrPolicies;
-    private Map<String, AttributePolicy> dynamicAttributesPolicyMap;
-    private List<String> onInvalidRemoveTagList;
+    private static final int REASONS = Reason.values().length;
+
+    /*
+     looking the method up copies it, so it is looked up once instead of for every element
+    */
+    private static final Method REMOVE_DUPLICATE_ATTRIBUTES = getRemoveDuplicateAttributesMethod();
+
+    private final PolicySymbolTable symbols;
+    private final RejectionStatistics rejectionStatistics;
+    private final SanitizerLimits.Scan scan;
+    private final SanitizerProfile profile;
+    private final int[] rejections = new int[REASONS];
     private int numberOfErrors;
 
+    /**
+     * @param symbols             the policy's symbol table, which should be built once per policy and shared by all
+     *                            scans
+     * @param rejectionStatistics optional aggregate to which every stripped element and attribute is reported, in
+     *                            addition to the per-scan counters
+     * @param scan                optional budget of the current scan; its limits are checked for every tag and text
+     *                            chunk, and a {@link SanitizerLimits.LimitExceededException} stops the scan
+     * @param profile             optional profile to which the time spent opening every element and removing
+     *                            duplicate attributes is reported
+     */
     public DynamicAttributesSanitizerPolicy(
             HtmlStreamEventReceiver out,
-            Map<String, ElementAndAttributePolicies> elAndAttrPolicies,
+            PolicySymbolTable symbols,
             Set<String> allowedTextContainers,
-            Map<String, AttributePolicy> dynamicAttributesPolicyMap,
-            List<String> onInvalidRemoveTagList) {
-        super(out, elAndAttrPolicies, allowedTextContainers);
-        this.elementAndAttrPolicies = elAndAttrPolicies;
-        this.dynamicAttributesPolicyMap = dynamicAttributesPolicyMap;
-        this.onInvalidRemoveTagList = onInvalidRemoveTagList;
+            @Nullable RejectionStatistics rejectionStatistics,
+            @Nullable SanitizerLimits.Scan scan,
+            @Nullable SanitizerProfile profile) {
+        super(out, symbols.getPolicies(), allowedTextContainers);
+        this.symbols = symbols;
+        this.rejectionStatistics = rejectionStatistics;
+        this.scan = scan;
+        this.profile = profile;
     }
 
     @Override
     public void openTag(String elementName, List<String> attrs) {
+        if (scan != null && elementName != null) {
+            scan.openTag(elementName);
+        }
+        if (profile != null && elementName != null) {
+            long start = profile.start();
+            sanitizeOpenTag(elementName, attrs);
+            profile.record(SanitizerProfile.Category.ELEMENT, elementName, start);
+        } else {
+            sanitizeOpenTag(elementName, attrs);
+        }
+    }
+
+    private void sanitizeOpenTag(String elementName, List<String> attrs) {
         // StylingPolicy repeats some of this code because it is more complicated
         // to refactor it into multiple method bodies, so if you change this,
         // check the override of it in that class.
-        if (elementName != null && attrs != null && elementAndAttrPolicies != null) {
-            ElementAndAttributePolicies policies = elementAndAttrPolicies.get(elementName);
+        if (elementName != null && attrs != null) {
+            PolicySymbolTable.Element element = symbols.element(elementName);
 
-            String adjustedElementName = applyPolicies2(elementName, attrs, policies);
-            if (adjustedElementName != null && !(attrs.isEmpty() && policies.htmlTagSkipType.skipAvailability())) {
-                writeOpenTag(policies, adjustedElementName, attrs);
+            String adjustedElementName = applyPolicies2(elementName, attrs, element);
+            if (adjustedElementName != null
+                    && !(attrs.isEmpty()
+                            && element.getPolicies().htmlTagSkipType.skipAvailability())) {
+                writeOpenTag(element.getPolicies(), adjustedElementName, attrs);
                 return;
             }
             deferOpenTag(elementName);
         }
     }
 
-    final @Nullable String applyPolicies2(
-            String elementName, List<String> attrs, ElementAndAttributePolicies policies) {
+    @Override
+    public void closeTag(String elementName) {
+        if (scan != null) {
+            scan.closeTag();
+        }
+        super.closeTag(elementName);
+    }
+
+    @Override
+    public void text(String textChunk) {
+        if (scan != null) {
+            scan.checkDeadline();
+        }
+        super.text(textChunk);
+    }
+
+    final @Nullable String applyPolicies2(String elementName, List<String> attrs, PolicySymbolTable.Element element) {
         String adjustedElementName;
         Boolean removeTag = false;
-        if (policies != null) {
+        if (element != null) {
             for (ListIterator<String> attrsIt = attrs.listIterator(); attrsIt.hasNext(); ) {
                 String name = attrsIt.next();
+                int id = symbols.attributeId(name);
 
-                AttributePolicy attrPolicy = null;
                 // check if the attribute name starts with an dynamic tag, to handle it specially
-                for (Entry<String, AttributePolicy> dynamicAttributeEntry : dynamicAttributesPolicyMap.entrySet()) {
-                    if (name.startsWith(dynamicAttributeEntry.getKey())) {
-                        attrPolicy = dynamicAttributeEntry.getValue();
-                        break;
-                    }
-                }
+                AttributePolicy attrPolicy = symbols.dynamicPolicy(id, name);
                 // if it is not an dynamic attr it gets it's normal policy
                 if (attrPolicy == null) {
-                    attrPolicy = policies.attrPolicies.get(name);
+                    attrPolicy = element.attributePolicy(id);
                 }
 
                 // if there is no policy for this attribute, it gets removed
                 if (attrPolicy == null) {
-                    numberOfErrors++;
+                    reject(elementName, name, Reason.NO_POLICY);
                     attrsIt.remove();
                     attrsIt.next();
                     attrsIt.remove();
@@ -103,9 +151,11 @@ public class DynamicAttributesSanitizerPolicy extends ElementAndAttributePolicyB
                     String value = attrsIt.next();
                     String adjustedValue = attrPolicy.apply(elementName, name, value);
                     if (adjustedValue == null) {
-                        numberOfErrors++;
-                        if (onInvalidRemoveTagList.contains(name)) {
+                        if (symbols.removesTagOnInvalid(id)) {
                             removeTag = true;
+                            reject(elementName, name, Reason.REMOVE_TAG);
+                        } else {
+                            reject(elementName, name, Reason.VALUE_REJECTED);
                         }
                         attrsIt.remove();
                         attrsIt.previous();
@@ -116,34 +166,59 @@ public class DynamicAttributesSanitizerPolicy extends ElementAndAttributePolicyB
                 }
             }
 
+            long start = profile != null ? profile.start() : 0;
             try {
-                Method removeDuplicateAttributesMethod =
-                        ElementAndAttributePolicyBasedSanitizerPolicy.class.getDeclaredMethod(
-                                "removeDuplicateAttributes", List.class);
-                removeDuplicateAttributesMethod.setAccessible(true);
-                try {
-                    removeDuplicateAttributesMethod.invoke(null, attrs);
-                } catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
-                    throw new RuntimeException(e);
-                }
-            } catch (NoSuchMethodException e) {
+                REMOVE_DUPLICATE_ATTRIBUTES.invoke(null, attrs);
+            } catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
                 throw new RuntimeException(e);
             }
+            if (profile != null) {
+                profile.record(SanitizerProfile.Category.DUPLICATE_ATTRIBUTES, elementName, start);
+            }
 
             // checks if the onInvalid action of the invalid Tag is remove, and then removes
             // it
-            adjustedElementName = Boolean.TRUE.equals(removeTag) ? null : policies.elPolicy.apply(elementName, attrs);
+            adjustedElementName = Boolean.TRUE.equals(removeTag)
+                    ? null
+                    : element.getPolicies().elPolicy.apply(elementName, attrs);
             if (adjustedElementName != null) {
                 adjustedElementName = HtmlLexer.canonicalElementName(adjustedElementName);
             }
         } else {
-            numberOfErrors++;
+            reject(elementName, null, Reason.NO_POLICY);
             adjustedElementName = null;
         }
         return adjustedElementName;
     }
 
+    private static Method getRemoveDuplicateAttributesMethod() {
+        try {
+            Method method = ElementAndAttributePolicyBasedSanitizerPolicy.class.getDeclaredMethod(
+                    "removeDuplicateAttributes", List.class);
+            method.setAccessible(true);
+            return method;
+        } catch (NoSuchMethodException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void reject(String elementName, @Nullable String attributeName, Reason reason) {
+        numberOfErrors++;
+        rejections[reason.ordinal()]++;
+        if (rejectionStatistics != null) {
+            rejectionStatistics.record(elementName, attributeName, reason);
+        }
+    }
+
     public int getNumberOfErrors() {
         return numberOfErrors;
     }
+
+    /**
+     * @param reason the reason
+     * @return the number of elements and attributes stripped for the given reason during this scan
+     */
+    public int getNumberOfRejections(Reason reason) {
+        return rejections[reason.ordinal()];
+    }
 }
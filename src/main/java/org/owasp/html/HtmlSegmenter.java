@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.owasp.html;
+
+import java.lang.reflect.Field;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Splits HTML documents into segments which can be sanitized independently of each other.
+ * <p>
+ * A document is split right after the end tag of a top-level element. The document is tokenized with the same lexer
+ * the sanitizer uses, so a split never falls into a comment, an attribute value or the content of a raw text element.
+ * The end tags have to match the start tags exactly; after the first end tag which doesn't, or after a non-void
+ * element closed with {@code />}, the document is not split any further.
+ * <p>
+ * Whether the tag balancer agrees that no element is open at a split, and that no formatting element waits to be
+ * reopened, is only known once a segment was sanitized: {@link BoundaryCheck} tells.
+ * <p>
+ * It is placed in the 'org.owasp.html' package because the lexer and the tag balancer are package private.
+ */
+public final class HtmlSegmenter {
+
+    private static final Field OPEN_ELEMENTS = getBalancerField("openElements");
+    private static final Field TO_RESUME_IN_REVERSE = getBalancerField("toResumeInReverse");
+
+    private final String html;
+    private final int minSegmentLength;
+    private final HtmlLexer lexer;
+    private final Deque<String> openElements = new ArrayDeque<>();
+    private int segmentStart;
+    private boolean stopped;
+
+    /**
+     * @param html             the document
+     * @param minSegmentLength the minimum number of characters between two splits
+     */
+    public HtmlSegmenter(@NotNull String html, int minSegmentLength) {
+        this.html = html;
+        this.minSegmentLength = minSegmentLength;
+        this.lexer = new HtmlLexer(html);
+    }
+
+    /**
+     * Finds the next offset at which the document can be split. The document is only tokenized as far as needed,
+     * so that the segments found so far can be sanitized while the rest of the document is searched.
+     *
+     * @return the offset or {@code -1} if the rest of the document cannot be split
+     */
+    public int nextBoundary() {
+        String tagName = null;
+        boolean endTag = false;
+        while (!stopped && lexer.hasNext()) {
+            HtmlToken token = lexer.next();
+            if (token.type == HtmlTokenType.TAGBEGIN) {
+                endTag = html.charAt(token.start + 1) == '/';
+                tagName = HtmlLexer.canonicalElementName(html.substring(token.start + (endTag ? 2 : 1), token.end));
+            } else if (token.type == HtmlTokenType.TAGEND && tagName != null) {
+                if (endTag) {
+                    if (!tagName.equals(openElements.peek())) {
+                        stopped = true;
+                    } else {
+                        openElements.pop();
+                        if (openElements.isEmpty() && token.end - segmentStart >= minSegmentLength) {
+                            segmentStart = token.end;
+                            return token.end;
+                        }
+                    }
+                } else if (!HtmlTextEscapingMode.isVoidElement(tagName)) {
+                    if (token.end - token.start > 1) {
+                        // closed with '/>', which the tag balancer may or may not treat as an end tag
+                        stopped = true;
+                    } else {
+                        openElements.push(tagName);
+                    }
+                }
+                tagName = null;
+            }
+        }
+        stopped = true;
+        return -1;
+    }
+
+    /**
+     * Wraps the sanitizer's preprocessor and records whether the tag balancer was back in its initial state when the
+     * end of the segment was reached. An instance is used for a single segment.
+     */
+    public static final class BoundaryCheck implements HtmlStreamEventProcessor {
+
+        private final HtmlStreamEventProcessor preprocessor;
+        private boolean balanced;
+
+        /**
+         * @param preprocessor the preprocessor to wrap
+         */
+        public BoundaryCheck(@NotNull HtmlStreamEventProcessor preprocessor) {
+            this.preprocessor = preprocessor;
+        }
+
+        @Override
+        public HtmlStreamEventReceiver wrap(HtmlStreamEventReceiver balancer) {
+            return new HtmlStreamEventReceiverWrapper(preprocessor.wrap(balancer)) {
+                @Override
+                public void closeDocument() {
+                    balanced = isInInitialState(balancer);
+                    super.closeDocument();
+                }
+            };
+        }
+
+        /**
+         * @return {@code true} if the segment was sanitized to its end and left no element open, so that the
+         *     following segment can be sanitized on its own
+         */
+        public boolean isBalanced() {
+            return balanced;
+        }
+    }
+
+    private static boolean isInInitialState(HtmlStreamEventReceiver balancer) {
+        if (!(balancer instanceof TagBalancingHtmlStreamEventReceiver)) {
+            return false;
+        }
+        try {
+            return ((IntVector) OPEN_ELEMENTS.get(balancer)).isEmpty()
+                    && ((IntVector) TO_RESUME_IN_REVERSE.get(balancer)).isEmpty();
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Field getBalancerField(String name) {
+        try {
+            Field field = TagBalancingHtmlStreamEventReceiver.class.getDeclaredField(name);
+            field.setAccessible(true);
+            return field;
+        } catch (NoSuchFieldException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
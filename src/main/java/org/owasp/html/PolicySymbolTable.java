@@ -0,0 +1,176 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.owasp.html;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Numbers the element and attribute names of a policy, once when the policy is loaded.
+ * <p>
+ * The {@link DynamicAttributesSanitizerPolicy} looks up every attribute of every element. With the symbol table,
+ * an attribute name is hashed once to find its id; its policy on the element, its dynamic attribute policy and
+ * whether an invalid value removes the element are then looked up by indexing arrays with that id, instead of
+ * looking up the name in a map per element, scanning the dynamic attribute prefixes and scanning the list of
+ * {@code removeTag} attributes.
+ * <p>
+ * It is placed in the 'org.owasp.html' package because the policies of the elements are package private.
+ */
+public final class PolicySymbolTable {
+
+    /**
+     * The id of a name which is not part of the policy.
+     */
+    static final int UNKNOWN = -1;
+
+    private final Map<String, ElementAndAttributePolicies> policies;
+    private final Map<String, Element> elements = new HashMap<>();
+    private final Map<String, Integer> attributeIds = new HashMap<>();
+    private final String[] dynamicPrefixes;
+    private final AttributePolicy[] dynamicPrefixPolicies;
+    private final AttributePolicy[] dynamicPolicies;
+    private final BitSet removeTagOnInvalid = new BitSet();
+
+    /**
+     * @param policies                   the policies of the elements, by element name
+     * @param dynamicAttributesPolicyMap the policies of the dynamic attributes, by attribute name prefix
+     * @param onInvalidRemoveTagList     the attributes whose invalid values remove the element
+     */
+    public PolicySymbolTable(
+            @NotNull Map<String, ElementAndAttributePolicies> policies,
+            @NotNull Map<String, AttributePolicy> dynamicAttributesPolicyMap,
+            @NotNull List<String> onInvalidRemoveTagList) {
+        this.policies = policies;
+        for (ElementAndAttributePolicies elementPolicies : policies.values()) {
+            for (String attributeName : elementPolicies.attrPolicies.keySet()) {
+                id(attributeName);
+            }
+        }
+        for (String attributeName : onInvalidRemoveTagList) {
+            removeTagOnInvalid.set(id(attributeName));
+        }
+        List<String> prefixes = new ArrayList<>(dynamicAttributesPolicyMap.keySet());
+        dynamicPrefixes = prefixes.toArray(new String[0]);
+        dynamicPrefixPolicies = new AttributePolicy[dynamicPrefixes.length];
+        for (int i = 0; i < dynamicPrefixes.length; i++) {
+            dynamicPrefixPolicies[i] = dynamicAttributesPolicyMap.get(dynamicPrefixes[i]);
+        }
+
+        int numberOfAttributes = attributeIds.size();
+        dynamicPolicies = new AttributePolicy[numberOfAttributes];
+        for (Map.Entry<String, Integer> attribute : attributeIds.entrySet()) {
+            dynamicPolicies[attribute.getValue()] = findDynamicPolicy(attribute.getKey());
+        }
+        for (Map.Entry<String, ElementAndAttributePolicies> element : policies.entrySet()) {
+            AttributePolicy[] attributePolicies = new AttributePolicy[numberOfAttributes];
+            for (Map.Entry<String, AttributePolicy> attribute :
+                    element.getValue().attrPolicies.entrySet()) {
+                attributePolicies[attributeIds.get(attribute.getKey())] = attribute.getValue();
+            }
+            elements.put(element.getKey(), new Element(element.getValue(), attributePolicies));
+        }
+    }
+
+    private int id(String attributeName) {
+        return attributeIds.computeIfAbsent(attributeName, name -> attributeIds.size());
+    }
+
+    private @Nullable AttributePolicy findDynamicPolicy(String attributeName) {
+        for (int i = 0; i < dynamicPrefixes.length; i++) {
+            if (attributeName.startsWith(dynamicPrefixes[i])) {
+                return dynamicPrefixPolicies[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the policies of the elements, by element name
+     */
+    @NotNull
+    Map<String, ElementAndAttributePolicies> getPolicies() {
+        return policies;
+    }
+
+    /**
+     * @param elementName the name of an element
+     * @return the element or {@code null} if the policy does not define it
+     */
+    @Nullable
+    Element element(String elementName) {
+        return elements.get(elementName);
+    }
+
+    /**
+     * @param attributeName the name of an attribute
+     * @return the id of the attribute or {@link #UNKNOWN} if the policy does not mention it
+     */
+    int attributeId(String attributeName) {
+        Integer id = attributeIds.get(attributeName);
+        return id == null ? UNKNOWN : id;
+    }
+
+    /**
+     * @param attributeId   the id of the attribute
+     * @param attributeName the name of the attribute
+     * @return the policy of the first dynamic attribute which is a prefix of the attribute name, if any
+     */
+    @Nullable
+    AttributePolicy dynamicPolicy(int attributeId, String attributeName) {
+        return attributeId == UNKNOWN ? findDynamicPolicy(attributeName) : dynamicPolicies[attributeId];
+    }
+
+    /**
+     * @param attributeId the id of the attribute
+     * @return {@code true} if an invalid value of the attribute removes its element
+     */
+    boolean removesTagOnInvalid(int attributeId) {
+        return attributeId != UNKNOWN && removeTagOnInvalid.get(attributeId);
+    }
+
+    /**
+     * An element of the policy, with the policies of its attributes by attribute id.
+     */
+    static final class Element {
+
+        private final ElementAndAttributePolicies policies;
+        private final AttributePolicy[] attributePolicies;
+
+        private Element(ElementAndAttributePolicies policies, AttributePolicy[] attributePolicies) {
+            this.policies = policies;
+            this.attributePolicies = attributePolicies;
+        }
+
+        @NotNull
+        ElementAndAttributePolicies getPolicies() {
+            return policies;
+        }
+
+        @Nullable
+        AttributePolicy attributePolicy(int attributeId) {
+            return attributeId == UNKNOWN ? null : attributePolicies[attributeId];
+        }
+    }
+}
@@ -42,16 +42,207 @@ $(document).ready(function () {
                     }
                 }
             });
+            if ($('#rejections').length) {
+                $.ajax(window.location + '/rejected.json', {
+                    success: function (data) {
+                        if (data && data.rejections) {
+                            if (data.rejections.length > 0) {
+                                var rows = '';
+                                for (var i = 0; i < data.rejections.length; i++) {
+                                    var rejection = data.rejections[i];
+                                    var cssClass = (i % 2) === 0 ? 'even' : 'odd';
+                                    rows += `<tr class="${cssClass} ui-state-default">
+                                                <td>${escapeHtml(rejection.element)}</td>
+                                                <td>${escapeHtml(rejection.attribute || '')}</td>
+                                                <td>${rejection.noPolicy}</td>
+                                                <td>${rejection.valueRejected}</td>
+                                                <td>${rejection.removeTag}</td>
+                                                <td>${rejection.total}</td>
+                                            </tr>`;
+                                }
+                                $('#rejections-rows').html(rows);
+                                var table = $('#rejections');
+                                table.trigger('update');
+                                var sorting = [[5, 1]];
+                                table.trigger('sorton', [sorting]);
+                            }
+                            if (data.overflow > 0) {
+                                $('#rejections-overflow').text(data.overflow
+                                    + ' further rejections were not recorded because too many distinct elements and attributes were stripped.');
+                            }
+                        }
+                    }
+                });
+            }
+        }
+    }
+
+    var previousPerformance = null;
+    var performanceTimer = null;
+
+    function populatePerformance(ui) {
+        var tab = ui.tab || ui.newTab;
+        if (performanceTimer !== null) {
+            clearInterval(performanceTimer);
+            performanceTimer = null;
+        }
+        if (tab.attr('id') === 'performance-tab') {
+            loadPerformance();
+            performanceTimer = setInterval(loadPerformance, 5000);
         }
     }
 
+    function loadPerformance() {
+        $.ajax(window.location + '/performance.json', {
+            success: function (data) {
+                if (!data || !data.operations) {
+                    return;
+                }
+                var previousCalls = {};
+                var interval;
+                if (previousPerformance !== null) {
+                    for (var p = 0; p < previousPerformance.operations.length; p++) {
+                        previousCalls[previousPerformance.operations[p].name] = previousPerformance.operations[p].calls;
+                    }
+                    interval = (data.timestamp - previousPerformance.timestamp) / 1000;
+                } else {
+                    interval = (data.timestamp - data.startTime) / 1000;
+                }
+                var rows = '';
+                for (var i = 0; i < data.operations.length; i++) {
+                    var operation = data.operations[i];
+                    var calls = operation.calls - (previousCalls[operation.name] || 0);
+                    var rate = interval > 0 ? (calls / interval).toFixed(1) : '';
+                    var cssClass = (i % 2) === 0 ? 'even' : 'odd';
+                    rows += `<tr class="${cssClass} ui-state-default">
+                                <td>${escapeHtml(operation.name)}</td>
+                                <td>${operation.calls}</td>
+                                <td>${rate}</td>
+                                <td>${operation.mean}</td>
+                                <td>${operation.p50}</td>
+                                <td>${operation.p90}</td>
+                                <td>${operation.p99}</td>
+                                <td>${operation.max}</td>
+                            </tr>`;
+                }
+                $('#operations-rows').html(rows);
+                $('#operations').trigger('update');
+                rows = '';
+                for (var c = 0; c < data.caches.length; c++) {
+                    var cache = data.caches[c];
+                    rows += `<tr class="${(c % 2) === 0 ? 'even' : 'odd'} ui-state-default">
+                                <td>${escapeHtml(cache.name)}</td>
+                                <td>${cache.hits}</td>
+                                <td>${cache.misses}</td>
+                                <td>${(cache.hitRatio * 100).toFixed(1)}%</td>
+                            </tr>`;
+                }
+                $('#caches-rows').html(rows);
+                rows = '';
+                for (var s = 0; s < data.slowCalls.length; s++) {
+                    var slowCall = data.slowCalls[s];
+                    rows += `<tr class="${(s % 2) === 0 ? 'even' : 'odd'} ui-state-default">
+                                <td>${new Date(slowCall.timestamp).toISOString()}</td>
+                                <td>${escapeHtml(slowCall.operation)}</td>
+                                <td>${slowCall.duration}</td>
+                                <td>${slowCall.inputLength}</td>
+                                <td>${slowCall.outputLength >= 0 ? slowCall.outputLength : ''}</td>
+                                <td>${slowCall.errors !== undefined ? slowCall.errors : ''}</td>
+                                <td>${escapeHtml(slowCall.path || '')}</td>
+                                <td title="${slowCall.hash || ''}">${slowCall.hash ? slowCall.hash.substring(0, 12) : ''}</td>
+                            </tr>`;
+                }
+                $('#slow-calls-rows').html(rows);
+                var summary = `Latencies are measured for one in ${data.samplingRate} calls; calls taking at least
+                    ${data.slowCallThreshold} ms are listed as slow.`;
+                if (data.slowInputThreshold !== undefined) {
+                    summary += ` Filter and check calls taking at least ${data.slowInputThreshold} ms are listed with the
+                        hash of their input; the inputs can be downloaded as a corpus.`;
+                }
+                if (data.policy) {
+                    summary += ` Policy generation ${data.policy.generation} from ${escapeHtml(data.policy.path)}
+                        took ${data.policy.loadTime} ms to load.`;
+                }
+                $('#performance-summary').html(summary);
+                previousPerformance = data;
+            }
+        });
+    }
+
+    var profilerCategories = {
+        element: 'Elements',
+        attribute: 'Attribute Matchers',
+        cssProperty: 'CSS Properties',
+        removeDuplicateAttributes: 'Duplicate Attribute Removal'
+    };
+
+    $('#profiler-run').click(function () {
+        $('#profiler-summary').text('Profiling...');
+        $('#profiler-results').html('');
+        $.ajax(window.location + '/profile.json', {
+            method: 'POST',
+            data: {
+                html: $('#profiler-input').val(),
+                iterations: $('#profiler-iterations').val()
+            },
+            success: function (data) {
+                if (!data || !data.categories) {
+                    return;
+                }
+                $('#profiler-summary').text(`Sanitized the sample ${data.iterations} times with the policy from
+                    ${data.policy} in ${data.scanTime} \u00b5s.`);
+                var tables = '';
+                for (var category in profilerCategories) {
+                    var rules = data.categories[category] || [];
+                    if (rules.length === 0) {
+                        continue;
+                    }
+                    tables += `<div class="table">
+                        <div class="ui-widget-header ui-corner-top buttonGroup">${profilerCategories[category]}</div>
+                        <table class="nicetable"><thead><tr>
+                            <th class="header">Rule</th>
+                            <th class="header">Applications</th>
+                            <th class="header">Time (\u00b5s)</th>
+                            <th class="header">Share</th>
+                        </tr></thead><tbody>`;
+                    for (var i = 0; i < rules.length; i++) {
+                        var share = data.scanTime > 0 ? (rules[i].time * 100 / data.scanTime).toFixed(1) : '0.0';
+                        tables += `<tr class="${(i % 2) === 0 ? 'even' : 'odd'} ui-state-default">
+                                <td>${escapeHtml(rules[i].rule)}</td>
+                                <td>${rules[i].count}</td>
+                                <td>${rules[i].time}</td>
+                                <td>${share}%</td>
+                            </tr>`;
+                    }
+                    tables += '</tbody></table></div>';
+                }
+                $('#profiler-results').html(tables);
+            },
+            error: function () {
+                $('#profiler-summary').text('Unable to profile the sample.');
+            }
+        });
+    });
+
+    $('#download-slow-inputs').on('click', function () {
+        window.location = window.location + '/slow-inputs.json';
+    });
+
+    function escapeHtml(value) {
+        return $('<div/>').text(value).html();
+    }
+
     $('#invalid-urls').tablesorter();
+    $('#rejections').tablesorter();
+    $('#operations').tablesorter();
     $('#xss-tabs').tabs({
         create: function (event, ui) {
             populateBlocked(ui);
+            populatePerformance(ui);
         },
         activate: function (event, ui) {
             populateBlocked(ui);
+            populatePerformance(ui);
         }
     });
 });
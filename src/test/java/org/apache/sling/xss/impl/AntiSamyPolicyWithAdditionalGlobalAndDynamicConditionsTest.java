@@ -73,6 +73,15 @@ public class AntiSamyPolicyWithAdditionalGlobalAndDynamicConditionsTest {
                     "<p data-test=\"test\">This is a paragraph.</p>",
                     "<p data-test=\"test\">This is a paragraph.</p>",
                     true),
+            new TestInput(
+                    "<p unknown=\"test\" data-test=\"test\" draggable=\"auto\">This is a paragraph.</p>",
+                    "unknown",
+                    false),
+            new TestInput(
+                    "<p unknown=\"test\" data-test=\"test\" draggable=\"auto\">This is a paragraph.</p>",
+                    "data-test=\"test\" draggable=\"auto\">This is a paragraph.</p>",
+                    true),
+            new TestInput("<p data-test=\"test\" draggable=\"wrong\">This is a paragraph.</p>", "<p", false),
         };
     }
 }
@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.xss.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+import org.apache.sling.xss.impl.xml.AntiSamyPolicy;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AttributeMatchersTest {
+
+    @Test
+    void compiledMatchersMatchLikeTheirPatterns() throws Exception {
+        AntiSamyPolicy policy =
+                new AntiSamyPolicy(getClass().getClassLoader().getResourceAsStream(AntiSamyPolicyTest.POLICY_FILE));
+        List<Pattern> patterns =
+                new ArrayList<>(policy.getCommonRegularExpressions().values());
+        for (String regex : new String[] {
+            ".*",
+            "(a|b)",
+            "a|b",
+            "(a|)",
+            "[a-]+",
+            "[-a]*",
+            "[a-z-0]+",
+            "[\\w\\s]*",
+            "\\d+",
+            "[^a]+",
+            "[a^]+",
+            "[a&&b]+",
+            "[\\p{L}\\p{N}]+",
+            "[\\p{Lu}]+",
+            "[a]+[b]+",
+            "[\\]]+",
+            "[\\s-a]+",
+            "[\\.\\-&]*"
+        }) {
+            patterns.add(Pattern.compile(regex));
+        }
+        patterns.add(Pattern.compile("(true|false)", Pattern.CASE_INSENSITIVE));
+        patterns.add(Pattern.compile(".*", Pattern.DOTALL));
+        patterns.add(Pattern.compile(".+", Pattern.DOTALL));
+        String[] values = {
+            "",
+            "a",
+            "b",
+            "ab",
+            "-",
+            "a-b",
+            "^",
+            "&",
+            "]",
+            ".",
+            "0",
+            "9",
+            "true",
+            "TRUE",
+            "false",
+            "_",
+            "some text",
+            "line\nbreak",
+            "tab\t",
+            "cr\r",
+            "\u0085",
+            "\u2028",
+            "\u00e9t\u00e9",
+            "\u0660\u2163",
+            "\ud83d\ude00",
+            "\ud800",
+            "#fff",
+            "#A0B1C2",
+            "12",
+            "-12.5",
+            "50%",
+            "10px",
+            "id:with.dots",
+            "class name",
+            "Title (1), 'quoted': [x]!",
+            "back\\slash",
+            "https://sling.apache.org/",
+            "javascript:alert(1)",
+            "rgb(1,2,3)",
+            "x-large",
+            "\u00a0",
+            "\u000b"
+        };
+        for (Pattern pattern : patterns) {
+            Predicate<String> matcher = AttributeMatchers.compile(pattern);
+            for (String value : values) {
+                assertEquals(
+                        pattern.matcher(value).matches(),
+                        matcher.test(value),
+                        () -> pattern.pattern() + " matching '" + value + "'");
+            }
+        }
+    }
+
+    @Test
+    void anyOfMatchesPatternsAndLiterals() {
+        Predicate<String> matcher = AttributeMatchers.anyOf(
+                Collections.singletonList(Pattern.compile("[0-9]+")), true, Collections.singletonList("left"));
+        assertTrue(matcher.test("42"));
+        assertTrue(matcher.test("LEFT"));
+        assertFalse(matcher.test("right"));
+        assertFalse(AttributeMatchers.anyOf(Collections.emptyList(), false, Collections.emptyList())
+                .test("x"));
+    }
+}
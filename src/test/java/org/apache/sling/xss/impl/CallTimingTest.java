@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.xss.impl;
+
+import org.apache.sling.commons.metrics.Counter;
+import org.apache.sling.commons.metrics.Histogram;
+import org.apache.sling.commons.metrics.MetricsService;
+import org.apache.sling.commons.metrics.Timer;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CallTimingTest {
+
+    @Test
+    void recordersSampleIndependently() {
+        MetricsService metricsService = mock(MetricsService.class);
+        Timer timer = mock(Timer.class);
+        when(metricsService.counter(anyString())).thenReturn(mock(Counter.class));
+        when(metricsService.histogram(anyString())).thenReturn(mock(Histogram.class));
+        when(metricsService.timer(anyString())).thenReturn(timer);
+        XSSMetricsService.Configuration rarely = mock(XSSMetricsService.Configuration.class);
+        when(rarely.samplingRate()).thenReturn(Integer.MAX_VALUE);
+        XSSMetricsService.Configuration always = mock(XSSMetricsService.Configuration.class);
+        when(always.samplingRate()).thenReturn(1);
+
+        XSSMetricsService metrics = new XSSMetricsService(metricsService, rarely);
+        PerformanceMonitor monitor = new PerformanceMonitor(1, Long.MAX_VALUE, 1);
+        for (int i = 0; i < 100; i++) {
+            long start = CallTiming.start(metrics, monitor);
+            CallTiming.record(metrics, monitor, XSSOperation.ENCODE_FOR_HTML, start, "input", "output");
+        }
+        verify(timer, never()).update(anyLong(), any());
+        assertEquals(
+                100,
+                monitor.getRecorder(XSSOperation.ENCODE_FOR_HTML).snapshot().getSamples());
+
+        metrics = new XSSMetricsService(metricsService, always);
+        monitor = new PerformanceMonitor(Integer.MAX_VALUE, Long.MAX_VALUE, 1);
+        for (int i = 0; i < 100; i++) {
+            long start = CallTiming.start(metrics, monitor);
+            CallTiming.record(metrics, monitor, XSSOperation.ENCODE_FOR_HTML, start, "input", "output");
+        }
+        verify(timer, times(100)).update(anyLong(), any());
+        assertEquals(
+                0, monitor.getRecorder(XSSOperation.ENCODE_FOR_HTML).snapshot().getSamples());
+        assertEquals(
+                100,
+                monitor.getRecorder(XSSOperation.ENCODE_FOR_HTML).snapshot().getCalls());
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.xss.impl;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.owasp.encoder.Encode;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class JsStringEncoderTest {
+
+    private static String twoStepEncoded(String source) {
+        return Encode.forJavaScript(source).replace("\\-", "\\u002D");
+    }
+
+    @Test
+    void everyCharacter() throws IOException {
+        for (int c = Character.MIN_VALUE; c <= Character.MAX_VALUE; c++) {
+            String source = "a" + (char) c + "b";
+            assertEncodedAsBefore(source);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(
+            strings = {
+                "",
+                "plain text",
+                "x-y",
+                "-->",
+                "</script>",
+                "\\-",
+                "\\\\-",
+                "a\"b'c&d",
+                "\u2028\u2029",
+                "\uD83D\uDE00-\uD83D"
+            })
+    void samples(String source) throws IOException {
+        assertEncodedAsBefore(source);
+    }
+
+    @Test
+    void randomInput() throws IOException {
+        Random random = new Random(42);
+        String alphabet = "ab-/\\\"'&<>\n\r\t\u0000\u007f\u00E9\u2028\u2029\uD83D\uDE00";
+        for (int i = 0; i < 1000; i++) {
+            StringBuilder source = new StringBuilder();
+            int length = random.nextInt(64);
+            for (int j = 0; j < length; j++) {
+                source.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            assertEncodedAsBefore(source.toString());
+        }
+    }
+
+    @Test
+    void sourceIsReturnedIfNothingNeedsEncoding() {
+        String source = "nothing to encode here: 1 + 2 = 3";
+        assertSame(source, JsStringEncoder.encode(source));
+    }
+
+    private static void assertEncodedAsBefore(String source) throws IOException {
+        String expected = twoStepEncoded(source);
+        assertEquals(expected, JsStringEncoder.encode(source), source);
+        StringBuilder appendable = new StringBuilder();
+        JsStringEncoder.encode(appendable, new StringBuilder(source));
+        assertEquals(expected, appendable.toString(), source);
+        StringWriter writer = new StringWriter();
+        JsStringEncoder.encode(writer, source);
+        assertEquals(expected, writer.toString(), source);
+    }
+}
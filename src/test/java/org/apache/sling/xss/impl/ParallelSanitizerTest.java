@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.xss.impl;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.xss.impl.xml.AntiSamyPolicy;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class ParallelSanitizerTest {
+
+    private HtmlSanitizer sanitizer;
+    private ParallelSanitizer parallelSanitizer;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        sanitizer = new HtmlSanitizer(
+                new AntiSamyPolicy(getClass().getClassLoader().getResourceAsStream(AntiSamyPolicyTest.POLICY_FILE)));
+        parallelSanitizer = ParallelSanitizer.create(1, 2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        parallelSanitizer.shutdown();
+    }
+
+    private static String repeat(String block) {
+        return StringUtils.repeat(block, 2 * ParallelSanitizer.MIN_SEGMENT_LENGTH / block.length() + 1);
+    }
+
+    @Test
+    void splittableInputIsSanitizedLikeAWhole() {
+        for (String block : new String[] {
+            "<p class=\"intro\">Some <b>text</b> &amp; more</p>\n",
+            "<b><div>x</div></b><p>after</p>",
+            "<!-- </p> --><p>comment</p>",
+            "<style>p { color: red; }</style><p>style</p>",
+            "<script>var x = '</p>';</script><p>script</p>",
+            "<p onclick=\"alert(1)\">x</p><blink>blink</blink>",
+            "<table><tr><td>cell</td></tr></table>"
+        }) {
+            String input = repeat(block);
+            SanitizedResult sequential = sanitizer.scan(input);
+            SanitizedResult parallel = parallelSanitizer.sanitize(sanitizer, input, SanitizerLimits.NONE.start());
+            assertNotNull(parallel, block);
+            assertEquals(sequential.getSanitizedString(), parallel.getSanitizedString(), block);
+            assertEquals(sequential.getNumberOfErrors(), parallel.getNumberOfErrors(), block);
+        }
+    }
+
+    @Test
+    void unsplittableInputIsLeftToTheSequentialScan() {
+        for (String block : new String[] {
+            "<li>item</li><p>z</p>", "<b>bold<div>x</div><p>y</p>", "<div/><p>self</p>", "<p>mismatch</div></p>"
+        }) {
+            assertNull(parallelSanitizer.sanitize(sanitizer, repeat(block), SanitizerLimits.NONE.start()), block);
+        }
+    }
+
+    @Test
+    void cleanInputIsReturnedAsIs() {
+        String clean = StringUtils.repeat("<p>text</p>", ParallelSanitizer.MIN_SEGMENT_LENGTH);
+        assertSame(
+                clean,
+                parallelSanitizer
+                        .sanitize(sanitizer, clean, SanitizerLimits.NONE.start())
+                        .getSanitizedString());
+    }
+
+    @Test
+    void inputExceedingALimitIsLeftToTheSequentialScan() {
+        String clean = StringUtils.repeat("<p>text</p>", ParallelSanitizer.MIN_SEGMENT_LENGTH);
+        SanitizerLimits limits = new SanitizerLimits(0, ParallelSanitizer.MIN_SEGMENT_LENGTH / 2, 0, 0);
+        assertNull(parallelSanitizer.sanitize(sanitizer, clean, limits.start()));
+    }
+
+    @Test
+    void inputIsLeftToTheSequentialScanAfterShutdown() {
+        // shut down by a reconfiguration
+        parallelSanitizer.shutdown();
+        String clean = StringUtils.repeat("<p>text</p>", ParallelSanitizer.MIN_SEGMENT_LENGTH);
+        assertNull(parallelSanitizer.sanitize(sanitizer, clean, SanitizerLimits.NONE.start()));
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.xss.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import org.apache.sling.xss.impl.status.Hashes;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PolicySnapshotStoreTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void keepsOneSnapshotPerPolicyAndTheMostRecentlyUsed() throws Exception {
+        int policies = 3;
+        PolicySnapshotStore store = new PolicySnapshotStore(directory.toFile(), false, policies);
+        int maxSnapshots = policies + PolicySnapshotStore.SPARE_SNAPSHOTS;
+
+        byte[] first = policy(0);
+        load(store, first);
+        for (int i = 1; i < maxSnapshots; i++) {
+            load(store, policy(i));
+        }
+        assertEquals(maxSnapshots, snapshots().length);
+
+        // using the oldest snapshot keeps it from being pruned
+        load(store, first);
+        load(store, policy(maxSnapshots));
+        assertEquals(maxSnapshots, snapshots().length);
+        assertTrue(snapshot(first).isFile());
+        assertFalse(snapshot(policy(1)).isFile());
+    }
+
+    private void load(PolicySnapshotStore store, byte[] policy) throws Exception {
+        store.load(policy, Hashes.sha256(policy));
+        // the snapshots are ordered by their modification time
+        Thread.sleep(20);
+    }
+
+    private File snapshot(byte[] policy) {
+        String digest = Hashes.sha256(policy);
+        for (File file : snapshots()) {
+            if (file.getName().contains(digest)) {
+                return file;
+            }
+        }
+        return new File(directory.toFile(), digest);
+    }
+
+    private File[] snapshots() {
+        File[] files = directory.toFile().listFiles();
+        assertNotNull(files);
+        return files;
+    }
+
+    private static byte[] policy(int variant) throws IOException {
+        try (InputStream in = PolicySnapshotStoreTest.class
+                .getClassLoader()
+                .getResourceAsStream(XSSFilterImpl.EMBEDDED_POLICY_PATH)) {
+            assertNotNull(in);
+            return (new String(in.readAllBytes(), StandardCharsets.UTF_8) + "<!-- " + variant + " -->")
+                    .getBytes(StandardCharsets.UTF_8);
+        }
+    }
+}
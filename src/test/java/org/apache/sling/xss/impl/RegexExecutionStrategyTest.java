@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.xss.impl;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class RegexExecutionStrategyTest {
+
+    @Test
+    void queuedTasksCompleteAfterShutdown() throws Exception {
+        List<RegexExecutionStrategy.Path> paths = new CopyOnWriteArrayList<>();
+        RegexExecutionStrategy strategy = RegexExecutionStrategy.create(1024 * 1024, 1, paths::add);
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService callers = Executors.newFixedThreadPool(3);
+        try {
+            Future<String> blocking = callers.submit(() -> strategy.execute(
+                    true,
+                    () -> {
+                        running.countDown();
+                        await(release);
+                        return "first";
+                    },
+                    () -> "fallback"));
+            running.await(10, TimeUnit.SECONDS);
+            // the only worker is busy, so these are queued
+            Future<String> queued = callers.submit(
+                    () -> strategy.execute(true, () -> Thread.currentThread().getName(), () -> "fallback"));
+            Future<String> queued2 = callers.submit(
+                    () -> strategy.execute(true, () -> Thread.currentThread().getName(), () -> "fallback"));
+            Thread.sleep(100);
+
+            // what a reconfiguration does with the previous strategy
+            strategy.shutdown();
+            release.countDown();
+
+            assertEquals("first", blocking.get(10, TimeUnit.SECONDS));
+            assertNotEquals("fallback", queued.get(10, TimeUnit.SECONDS));
+            assertNotEquals("fallback", queued2.get(10, TimeUnit.SECONDS));
+            // rejected after the shutdown, runs on the calling thread
+            assertEquals(
+                    Thread.currentThread().getName(),
+                    strategy.execute(true, () -> Thread.currentThread().getName(), () -> "fallback"));
+            assertEquals(RegexExecutionStrategy.Path.INLINE, paths.get(paths.size() - 1));
+        } finally {
+            release.countDown();
+            callers.shutdownNow();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
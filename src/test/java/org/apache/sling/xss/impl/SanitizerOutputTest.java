@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.xss.impl;
+
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class SanitizerOutputTest {
+
+    @Test
+    void outputEqualToTheInputIsTheInput() {
+        String input = "<p>text</p>";
+        SanitizerOutput output = new SanitizerOutput(input);
+        output.append("<p>").append("text", 0, 4);
+        assertEquals("<p>text", output.getResult());
+        output.append('<').append(new StringBuilder("/p>"));
+        assertSame(input, output.getResult());
+        output.release();
+    }
+
+    @Test
+    void outputCopiesTheMatchingPrefixAtTheFirstDifference() {
+        SanitizerOutput output = new SanitizerOutput("<p>text</p>");
+        output.append("<p>").append("text", 0, 4).append("</p>");
+        output.append('\n');
+        assertEquals("<p>text</p>\n", output.getResult());
+        output.release();
+
+        output = new SanitizerOutput("<p class='a'>text</p>");
+        output.append("<p class=").append('"');
+        assertEquals("<p class=\"", output.getResult());
+        output.release();
+    }
+
+    @Test
+    void nestedOutputsDoNotShareTheBuffer() {
+        String large = String.join("", Collections.nCopies(SanitizerOutput.MAX_RETAINED_CAPACITY + 1, "a"));
+        SanitizerOutput output = new SanitizerOutput("");
+        output.append(large);
+        assertEquals(large, output.getResult());
+        output.release();
+
+        // the outer output holds the thread's buffer, the inner one gets a buffer of its own
+        SanitizerOutput outer = new SanitizerOutput("a");
+        outer.append("b");
+        SanitizerOutput inner = new SanitizerOutput("c");
+        inner.append("d");
+        assertEquals("b", outer.getResult());
+        assertEquals("d", inner.getResult());
+        inner.release();
+        outer.release();
+    }
+}
@@ -18,6 +18,8 @@
  */
 package org.apache.sling.xss.impl;
 
+import java.io.IOException;
+import java.io.StringWriter;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -122,6 +124,74 @@ public class XSSAPIImplTest {
         assertEquals(expected, xssAPI.encodeForXMLAttr(source), "XML Encoding '" + source + "'");
     }
 
+    @ParameterizedTest
+    @MethodSource("dataForEncodeToHtml")
+    public void testEncodeForHTMLToWriter(String source, String expected) throws IOException {
+        StringWriter out = new StringWriter();
+        xssAPI.encodeForHTML(out, source == null ? null : new StringBuilder(source));
+        assertEquals(expected == null ? "" : expected, out.toString(), "Encoding '" + source + "'");
+    }
+
+    @ParameterizedTest
+    @MethodSource("dataForEncodeToHtmlAttr")
+    public void testEncodeForHTMLAttrToWriter(String source, String expected) throws IOException {
+        StringWriter out = new StringWriter();
+        xssAPI.encodeForHTMLAttr(out, source == null ? null : new StringBuilder(source));
+        assertEquals(expected == null ? "" : expected, out.toString(), "Encoding '" + source + "'");
+    }
+
+    @ParameterizedTest
+    @MethodSource("dataForEncodeToXml")
+    public void testEncodeForXMLToWriter(String source, String expected) throws IOException {
+        StringWriter out = new StringWriter();
+        xssAPI.encodeForXML(out, source == null ? null : new StringBuilder(source));
+        assertEquals(expected == null ? "" : expected, out.toString(), "Encoding '" + source + "'");
+    }
+
+    @ParameterizedTest
+    @MethodSource("dataForEncodeToXmlAttr")
+    public void testEncodeForXMLAttrToWriter(String source, String expected) throws IOException {
+        StringWriter out = new StringWriter();
+        xssAPI.encodeForXMLAttr(out, source == null ? null : new StringBuilder(source));
+        assertEquals(expected == null ? "" : expected, out.toString(), "Encoding '" + source + "'");
+    }
+
+    @ParameterizedTest
+    @MethodSource("dataForValidJSString")
+    public void testEncodeForJSStringToWriter(String source, String expected) throws IOException {
+        StringWriter out = new StringWriter();
+        xssAPI.encodeForJSString(out, source == null ? null : new StringBuilder(source));
+        assertEquals(expected == null ? "" : expected, out.toString(), "Encoding '" + source + "'");
+    }
+
+    @ParameterizedTest
+    @MethodSource("dataForCSSString")
+    public void testEncodeForCSSStringToWriter(String source, String expected) throws IOException {
+        StringWriter out = new StringWriter();
+        xssAPI.encodeForCSSString(out, source == null ? null : new StringBuilder(source));
+        assertEquals(expected == null ? "" : expected, out.toString(), "Encoding '" + source + "'");
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1022, 1023, 1024, 2047})
+    public void testEncodeLongSourceToWriter(int surrogateOffset) throws IOException {
+        StringBuilder source = new StringBuilder();
+        while (source.length() < 3000) {
+            source.append("<a href=\"x\">&'");
+        }
+        source.insert(surrogateOffset, "\uD83D\uDE00");
+        String string = source.toString();
+        StringWriter html = new StringWriter();
+        xssAPI.encodeForHTML(html, string);
+        assertEquals(xssAPI.encodeForHTML(string), html.toString());
+        StringWriter htmlAttr = new StringWriter();
+        xssAPI.encodeForHTMLAttr(htmlAttr, source);
+        assertEquals(xssAPI.encodeForHTMLAttr(string), htmlAttr.toString());
+        StringWriter css = new StringWriter();
+        xssAPI.encodeForCSSString(css, source);
+        assertEquals(xssAPI.encodeForCSSString(string), css.toString());
+    }
+
     @ParameterizedTest
     @MethodSource("dataForFilterHtml")
     public void testFilterHTML(String source, String expected) {
@@ -165,8 +235,7 @@ public class XSSAPIImplTest {
         XSSFilterImpl xssFilter = (XSSFilterImpl)
                 FieldUtils.getField(XSSAPIImpl.class, "xssFilter", true).get(xssAPI);
         assertSame(xssFilterImpl, xssFilter);
-        Attribute hrefAttribute = (Attribute)
-                FieldUtils.getField(XSSFilterImpl.class, "hrefAttribute", true).get(xssFilter);
+        Attribute hrefAttribute = xssFilter.getActivePolicy().getHrefAttribute();
         assertEquals(hrefAttribute, XSSFilterImpl.DEFAULT_HREF_ATTRIBUTE);
 
         // Run same tests again to check default configuration
@@ -590,7 +659,17 @@ public class XSSAPIImplTest {
             {"1200", "1200"},
             {"3.14", "3.14"},
             {"1,200", RUBBISH},
-            {"1200 + 1", RUBBISH}
+            {"1200 + 1", RUBBISH},
+            {"  simple\t", "simple"},
+            {" 'trimmed literal' ", "'trimmed literal'"},
+            {"$scope._item.title", "$scope._item.title"},
+            {".leading", RUBBISH},
+            {"   ", RUBBISH},
+            {"'", RUBBISH},
+            {"\"", RUBBISH},
+            {"''", "''"},
+            {"'a-b'", "'a\\u002Db'"},
+            {"\"</script>\"", "\"<\\/script>\""}
         };
     }
 
@@ -18,22 +18,48 @@
  */
 package org.apache.sling.xss.impl;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.InputStream;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.external.URIProvider;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
 import org.apache.sling.commons.metrics.Counter;
+import org.apache.sling.commons.metrics.Histogram;
 import org.apache.sling.commons.metrics.MetricsService;
+import org.apache.sling.commons.metrics.Timer;
 import org.apache.sling.serviceusermapping.ServiceUserMapped;
+import org.apache.sling.testing.mock.osgi.MockOsgi;
 import org.apache.sling.testing.mock.sling.ResourceResolverType;
 import org.apache.sling.testing.mock.sling.junit5.SlingContext;
 import org.apache.sling.testing.mock.sling.junit5.SlingContextExtension;
+import org.apache.sling.xss.ProtectionContext;
 import org.apache.sling.xss.XSSFilter;
+import org.apache.sling.xss.impl.jfr.FlightRecorderEvents;
+import org.apache.sling.xss.impl.status.CacheStatistics;
+import org.apache.sling.xss.impl.status.Hashes;
+import org.apache.sling.xss.impl.status.LatencyRecorder;
+import org.apache.sling.xss.impl.status.RejectionStatistics;
+import org.apache.sling.xss.impl.status.SlowCallLog;
 import org.apache.sling.xss.impl.status.XSSStatusService;
+import org.apache.sling.xss.impl.xml.AntiSamyPolicy;
 import org.jetbrains.annotations.NotNull;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
@@ -44,9 +70,18 @@ import org.junit.jupiter.params.provider.MethodSource;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(SlingContextExtension.class)
@@ -90,6 +125,10 @@ public class XSSFilterImplTest {
 
     private XSSFilterImpl xssFilter;
 
+    private final Map<String, Counter> counters = new HashMap<>();
+    private final Map<String, Timer> timers = new HashMap<>();
+    private final Map<String, Histogram> histograms = new HashMap<>();
+
     @AfterEach
     public void tearDown() {
         xssFilter = null;
@@ -105,6 +144,25 @@ public class XSSFilterImplTest {
         xssFilter = context.registerInjectActivateService(new XSSFilterImpl());
     }
 
+    /**
+     * Registers an {@link XSSMetricsService} which times every call and keeps its metrics in {@link #counters},
+     * {@link #timers} and {@link #histograms}.
+     */
+    private void registerMetricsService() {
+        MetricsService metricsService = mock(MetricsService.class);
+        when(metricsService.counter(anyString()))
+                .thenAnswer(
+                        invocation -> counters.computeIfAbsent(invocation.getArgument(0), n -> mock(Counter.class)));
+        when(metricsService.timer(anyString()))
+                .thenAnswer(invocation -> timers.computeIfAbsent(invocation.getArgument(0), n -> mock(Timer.class)));
+        when(metricsService.histogram(anyString()))
+                .thenAnswer(invocation ->
+                        histograms.computeIfAbsent(invocation.getArgument(0), n -> mock(Histogram.class)));
+        XSSMetricsService.Configuration configuration = mock(XSSMetricsService.Configuration.class);
+        when(configuration.samplingRate()).thenReturn(1);
+        context.registerService(XSSMetricsService.class, new XSSMetricsService(metricsService, configuration));
+    }
+
     @Test
     public void testResourceBasedPolicy() {
         String policyPath = "/libs/" + XSSFilterImpl.DEFAULT_POLICY_PATH;
@@ -116,6 +174,147 @@ public class XSSFilterImplTest {
         assertEquals(policyPath, antiSamyPolicy.getPath(), "This is not the policy we're looking for.");
     }
 
+    @Test
+    public void testRejectUnsafeRegexps() throws Exception {
+        String unsafePolicy;
+        try (InputStream input = getPolicyFileAsStream()) {
+            unsafePolicy = new String(input.readAllBytes(), StandardCharsets.UTF_8)
+                    .replace(
+                            "<regexp name=\"anything\" value=\".*\"/>",
+                            "<regexp name=\"anything\" value=\".*\"/><regexp name=\"unsafe\" value=\"(x+x+)+y\"/>");
+        }
+        String policyPath = "/libs/" + XSSFilterImpl.DEFAULT_POLICY_PATH;
+        context.load().binaryFile(new ByteArrayInputStream(unsafePolicy.getBytes(StandardCharsets.UTF_8)), policyPath);
+
+        xssFilter = context.registerInjectActivateService(new XSSFilterImpl());
+        assertEquals(policyPath, xssFilter.getActivePolicy().getPath());
+        assertTrue(xssFilter
+                .getActivePolicy()
+                .getPolicyHandler()
+                .getPolicy()
+                .getUnsafeRegexps()
+                .get("unsafe")
+                .isConfirmed());
+
+        // reconfiguring the running component rejects the unchanged policy file as well
+        XSSFilterImpl.AntiSamyPolicy unsafe = xssFilter.getActivePolicy();
+        MockOsgi.modified(xssFilter, context.bundleContext(), Collections.singletonMap("rejectUnsafeRegexps", true));
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (xssFilter.getActivePolicy() == unsafe && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(xssFilter.getActivePolicy().isEmbedded(), "Expected the embedded policy.");
+
+        xssFilter = context.registerInjectActivateService(new XSSFilterImpl(), "rejectUnsafeRegexps", true);
+        assertTrue(xssFilter.getActivePolicy().isEmbedded(), "Expected the embedded policy.");
+    }
+
+    @Test
+    public void testNamedPolicies() {
+        context.load().binaryFile("/configWithoutHref.xml", "/apps/sling/xss/nohref.xml");
+        context.load().binaryFile(getPolicyFileAsStream(), "/apps/sling/xss/copy.xml");
+        xssFilter = context.registerInjectActivateService(
+                new XSSFilterImpl(),
+                "namedPolicies",
+                new String[] {
+                    "nohref=/apps/sling/xss/nohref.xml", "copy=/apps/sling/xss/copy.xml", "missing=/apps/missing.xml"
+                },
+                "maxLoadedNamedPolicies",
+                1);
+        String url = "https://sling.apache.org/documentation/bundles/xss-protection-api.html#usage";
+        XSSFilterImpl.AntiSamyPolicy noHref = xssFilter.getNamedPolicy("nohref");
+        assertNotNull(noHref);
+        assertSame(XSSFilterImpl.DEFAULT_HREF_ATTRIBUTE, noHref.getHrefAttribute());
+        assertTrue(xssFilter.isValidHref(url, "nohref"));
+        assertSame(noHref, xssFilter.getNamedPolicy("nohref"));
+
+        // unknown and unloadable policies fall back to the default policy
+        assertNull(xssFilter.getNamedPolicy("unknown"));
+        assertNull(xssFilter.getNamedPolicy("missing"));
+        String input = "<p onclick=\"alert(1)\">text</p>";
+        assertEquals(
+                xssFilter.filter(ProtectionContext.HTML_HTML_CONTENT, input),
+                xssFilter.filter(ProtectionContext.HTML_HTML_CONTENT, input, "unknown"));
+        assertEquals("<p>text</p>", xssFilter.filter(ProtectionContext.HTML_HTML_CONTENT, input, "copy"));
+        assertFalse(xssFilter.check(ProtectionContext.HTML_HTML_CONTENT, input, "copy"));
+
+        // only the most recently used policy is kept
+        assertNotSame(noHref, xssFilter.getNamedPolicy("nohref"));
+
+        // identical definitions are shared between policies
+        AntiSamyPolicy defaultPolicy =
+                xssFilter.getActivePolicy().getPolicyHandler().getPolicy();
+        AntiSamyPolicy copy =
+                xssFilter.getNamedPolicy("copy").getPolicyHandler().getPolicy();
+        assertNotSame(defaultPolicy, copy);
+        assertSame(defaultPolicy.getCssRules().get("color"), copy.getCssRules().get("color"));
+        assertSame(
+                defaultPolicy.getCommonAttributes().get("href"),
+                copy.getCommonAttributes().get("href"));
+        assertSame(
+                defaultPolicy.getTagRules().get("img").getAttributeByName("src"),
+                copy.getTagRules().get("img").getAttributeByName("src"));
+    }
+
+    @Test
+    public void testDebouncedPolicyReload() throws Exception {
+        String policyPath = "/apps/sling/xss/config.xml";
+        context.load().binaryFile(getPolicyFileAsStream(), policyPath);
+        xssFilter = context.registerInjectActivateService(
+                new XSSFilterImpl(), "policyPath", policyPath, "policyReloadDelay", 50L);
+        XSSFilterImpl.AntiSamyPolicy initialPolicy = xssFilter.getActivePolicy();
+        assertNotSame(XSSFilterImpl.DEFAULT_HREF_ATTRIBUTE, initialPolicy.getHrefAttribute());
+
+        context.resourceResolver().delete(context.resourceResolver().getResource(policyPath));
+        context.resourceResolver().commit();
+        context.load().binaryFile("/configWithoutHref.xml", policyPath);
+        ResourceChangeListener listener = context.getServices(
+                        ResourceChangeListener.class, "(" + ResourceChangeListener.PATHS + "=" + policyPath + ")")[0];
+        for (int i = 0; i < 5; i++) {
+            listener.onChange(Collections.singletonList(
+                    new ResourceChange(ResourceChange.ChangeType.CHANGED, policyPath, false)));
+        }
+        // the listener returns before the policy is reloaded
+        assertSame(initialPolicy, xssFilter.getActivePolicy());
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (xssFilter.getActivePolicy() == initialPolicy && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        XSSFilterImpl.AntiSamyPolicy reloadedPolicy = xssFilter.getActivePolicy();
+        assertEquals(initialPolicy.getGeneration() + 1, reloadedPolicy.getGeneration());
+        assertSame(XSSFilterImpl.DEFAULT_HREF_ATTRIBUTE, reloadedPolicy.getHrefAttribute());
+
+        // the burst of changes was coalesced into a single reload
+        Thread.sleep(200);
+        assertSame(reloadedPolicy, xssFilter.getActivePolicy());
+    }
+
+    @Test
+    public void testPolicySnapshot() throws Exception {
+        File snapshots = context.bundleContext().getDataFile(XSSFilterImpl.SNAPSHOTS_FOLDER);
+        File[] files = snapshots.listFiles();
+        assertNotNull(files);
+        assertEquals(1, files.length);
+        assertTrue(files[0].getName().contains(xssFilter.getActivePolicy().getDigest()));
+
+        // a re-activated filter builds its policy from the snapshot and filters the same way
+        long hits = CacheStatistics.POLICY_SNAPSHOTS.getHits();
+        xssFilter = context.registerInjectActivateService(new XSSFilterImpl());
+        assertEquals(hits + 1, CacheStatistics.POLICY_SNAPSHOTS.getHits());
+        assertEquals(
+                "<p>text</p>",
+                xssFilter.filter(ProtectionContext.HTML_HTML_CONTENT, "<p onclick=\"alert(1)\">text</p>"));
+
+        // corrupt snapshots are ignored and replaced
+        Files.write(files[0].toPath(), new byte[] {1, 2, 3});
+        xssFilter = context.registerInjectActivateService(new XSSFilterImpl());
+        assertEquals(
+                "<p>text</p>",
+                xssFilter.filter(ProtectionContext.HTML_HTML_CONTENT, "<p onclick=\"alert(1)\">text</p>"));
+        assertTrue(files[0].length() > 3);
+    }
+
     @Test
     // see SLING-12366 for why this test exists
     public void testResourceBasedPolicyWithExternalizableBlob() {
@@ -173,6 +372,377 @@ public class XSSFilterImplTest {
         assertEquals(longURLContext, xssFilter.filter(longURLContext));
     }
 
+    @Test
+    public void testRegexExecutionPaths() {
+        registerMetricsService();
+        xssFilter = context.registerInjectActivateService(new XSSFilterImpl());
+
+        String longUrl = "https://sling.apache.org/" + StringUtils.repeat('a', 20_000) + ".html";
+        String longLink = "<a href=\"" + longUrl + "\">Click</a>";
+        assertEquals(
+                "<a href=\"https://sling.apache.org/\">Click</a>",
+                xssFilter.filter("<a href=\"https://sling.apache.org/\">Click</a>"));
+        assertEquals(longLink, xssFilter.filter(longLink));
+        assertTrue(xssFilter.isValidHref(longUrl));
+        verify(counters.get("xss.regex.inline")).increment();
+        verify(counters.get("xss.regex.largeStack"), times(2)).increment();
+        verify(counters.get("xss.regex.fallback"), never()).increment();
+
+        xssFilter = context.registerInjectActivateService(new XSSFilterImpl(), "largeStackSize", 0);
+        assertEquals(longLink, xssFilter.filter(longLink));
+        assertTrue(xssFilter.isValidHref(longUrl));
+        verify(counters.get("xss.regex.largeStack"), times(2)).increment();
+        verify(counters.get("xss.regex.fallback"), times(2)).increment();
+
+        assertFalse(RegexExecutionStrategy.hasLongToken(StringUtils.repeat("word ", 1_000)));
+        assertTrue(RegexExecutionStrategy.hasLongToken("<a href=\"" + longUrl + "\">"));
+    }
+
+    @Test
+    public void testMetrics() {
+        registerMetricsService();
+        xssFilter = context.registerInjectActivateService(new XSSFilterImpl());
+
+        String input = "<p onclick=\"alert(1)\">text</p>";
+        assertEquals("<p>text</p>", xssFilter.filter(ProtectionContext.HTML_HTML_CONTENT, input));
+        xssFilter.isValidHref("javascript:alert(1)");
+
+        verify(counters.get("xss.filter.htmlToHtmlContent.calls")).increment();
+        verify(timers.get("xss.filter.htmlToHtmlContent")).update(anyLong(), eq(TimeUnit.NANOSECONDS));
+        verify(histograms.get("xss.filter.htmlToHtmlContent.input_size")).update(input.length());
+        verify(histograms.get("xss.filter.htmlToHtmlContent.output_size")).update("<p>text</p>".length());
+        verify(counters.get("xss.sanitizer.errors")).increment(1L);
+        verify(histograms.get("xss.sanitizer.errors_per_call")).update(1L);
+        verify(counters.get("xss.sanitizer.rejections.noPolicy")).increment(1L);
+        verify(counters.get("xss.sanitizer.rejections.valueRejected"), never()).increment(anyLong());
+        verify(counters.get("xss.isValidHref.calls")).increment();
+        verify(counters.get("xss.invalid_hrefs")).increment();
+        verify(counters.get("xss.check.htmlToHtmlContent.calls"), never()).increment();
+    }
+
+    @Test
+    public void testSanitizerLimits() {
+        xssFilter = context.registerInjectActivateService(
+                new XSSFilterImpl(), "maxInputLength", 40, "maxTagCount", 4, "maxNestingDepth", 2);
+
+        // truncated input; the open paragraph is closed
+        String longText = "<p>" + String.join("", Collections.nCopies(20, "text ")) + "</p>";
+        assertEquals("<p>text text text text text text text te</p>", xssFilter.filter(longText));
+        assertFalse(xssFilter.check(ProtectionContext.HTML_HTML_CONTENT, longText));
+
+        // the output stops before the fifth tag; void elements count as tags
+        assertEquals("<p>a<br />b<br />c<br />d</p>", xssFilter.filter("<p>a<br>b<br>c<br>d<br>e</p>"));
+        assertFalse(xssFilter.check(ProtectionContext.HTML_HTML_CONTENT, "<p>a<br>b<br>c<br>d<br>e</p>"));
+
+        // the output stops before the third nested element, but void elements do not nest
+        assertEquals("<div><div>a<br /></div></div>", xssFilter.filter("<div><div>a<br><div>b</div></div></div>"));
+        assertEquals("<div><br /><div>a</div></div>", xssFilter.filter("<div><br><div>a</div></div>"));
+        assertTrue(xssFilter.check(ProtectionContext.HTML_HTML_CONTENT, "<div><br><div>a</div></div>"));
+    }
+
+    @Test
+    public void testSanitizerDeadline() {
+        registerMetricsService();
+        xssFilter = context.registerInjectActivateService(new XSSFilterImpl(), "sanitizerTimeout", 1L);
+
+        String input = String.join("", Collections.nCopies(200_000, "<p class=\"a\">text</p>"));
+        assertEquals("", xssFilter.filter(input));
+        verify(counters.get("xss.sanitizer.limits.deadline")).increment();
+        verify(counters.get("xss.sanitizer.limits.tagCount"), never()).increment();
+
+        HtmlSanitizer sanitizer = xssFilter.getActivePolicy().getPolicyHandler().getHtmlSanitizer();
+        SanitizedResult result = sanitizer.scan("<p>text</p>", new SanitizerLimits(0, 0, 0, 0).start());
+        assertEquals("<p>text</p>", result.getSanitizedString());
+        assertNull(result.getExceededLimit());
+        result = sanitizer.scan(input, new SanitizerLimits(0, 0, 0, 1).start());
+        assertEquals("", result.getSanitizedString());
+        assertEquals(SanitizerLimits.Limit.DEADLINE, result.getExceededLimit());
+    }
+
+    @Test
+    public void testOutputBufferReuse() {
+        xssFilter = context.registerInjectActivateService(new XSSFilterImpl());
+        HtmlSanitizer sanitizer = xssFilter.getActivePolicy().getPolicyHandler().getHtmlSanitizer();
+        String paragraph = "<p style=\"color: red;\r\nmargin: 0\">text</p>";
+        String sanitizedParagraph = "<p style=\"\tcolor: red;\n\tmargin: 0;\n\">text</p>";
+        assertEquals(sanitizedParagraph, sanitizer.scan(paragraph).getSanitizedString());
+
+        int copies = SanitizerOutput.MAX_RETAINED_CAPACITY / paragraph.length() + 1;
+        String large = String.join("", Collections.nCopies(copies, paragraph));
+        assertEquals(
+                String.join("", Collections.nCopies(copies, sanitizedParagraph)),
+                sanitizer.scan(large).getSanitizedString());
+        assertEquals("<b>small</b>", sanitizer.scan("<b>small</b>").getSanitizedString());
+
+        SanitizedResult stopped = sanitizer.scan(large, new SanitizerLimits(0, 1, 0, 0).start());
+        assertEquals(SanitizerLimits.Limit.TAG_COUNT, stopped.getExceededLimit());
+        assertEquals(sanitizedParagraph, stopped.getSanitizedString());
+        assertEquals(sanitizedParagraph, sanitizer.scan(paragraph).getSanitizedString());
+    }
+
+    @Test
+    public void testUnchangedInputIsReturnedAsIs() {
+        xssFilter = context.registerInjectActivateService(new XSSFilterImpl());
+        String clean = new String("<p class=\"intro\">Some <b>text</b></p>");
+        assertSame(clean, xssFilter.filter(ProtectionContext.HTML_HTML_CONTENT, clean));
+        String normalized = "<p class='intro'>Some <b>text</b></p>";
+        String filtered = xssFilter.filter(ProtectionContext.HTML_HTML_CONTENT, normalized);
+        assertEquals(clean, filtered);
+        assertNotSame(normalized, filtered);
+        String unclosed = "<p>text";
+        assertEquals("<p>text</p>", xssFilter.filter(ProtectionContext.HTML_HTML_CONTENT, unclosed));
+    }
+
+    @Test
+    public void testParallelSanitization() {
+        xssFilter = context.registerInjectActivateService(
+                new XSSFilterImpl(), "parallelSanitizationThreshold", 1, "parallelism", 2);
+        HtmlSanitizer sanitizer = xssFilter.getActivePolicy().getPolicyHandler().getHtmlSanitizer();
+        for (String block : new String[] {
+            "<p class=\"intro\">Some <b>text</b> &amp; more</p>\n",
+            "<p onclick=\"alert(1)\">x</p><blink>blink</blink>",
+            "<li>item</li><p>z</p>",
+            "<p>mismatch</div></p>"
+        }) {
+            String input = StringUtils.repeat(block, 2 * ParallelSanitizer.MIN_SEGMENT_LENGTH / block.length() + 1);
+            assertEquals(
+                    sanitizer.scan(input).getSanitizedString(),
+                    xssFilter.filter(ProtectionContext.HTML_HTML_CONTENT, input),
+                    block);
+        }
+        String clean = StringUtils.repeat("<p>text</p>", ParallelSanitizer.MIN_SEGMENT_LENGTH);
+        assertSame(clean, xssFilter.filter(ProtectionContext.HTML_HTML_CONTENT, clean));
+    }
+
+    @Test
+    public void testRejectionStatistics() {
+        xssFilter = context.registerInjectActivateService(new XSSFilterImpl());
+        xssFilter.filter(ProtectionContext.HTML_HTML_CONTENT, "<p onclick=\"alert(1)\">text</p>");
+        xssFilter.filter(ProtectionContext.HTML_HTML_CONTENT, "<p onclick=\"alert(2)\">text</p><blink>text</blink>");
+
+        RejectionStatistics statistics = xssFilter
+                .getActivePolicy()
+                .getPolicyHandler()
+                .getHtmlSanitizer()
+                .getRejectionStatistics();
+        List<RejectionStatistics.Entry> entries = statistics.getEntries();
+        assertEquals(2, entries.size());
+        assertEquals("p", entries.get(0).getElementName());
+        assertEquals("onclick", entries.get(0).getAttributeName());
+        assertEquals(2, entries.get(0).getCount(RejectionStatistics.Reason.NO_POLICY));
+        assertEquals(0, entries.get(0).getCount(RejectionStatistics.Reason.VALUE_REJECTED));
+        assertEquals("blink", entries.get(1).getElementName());
+        assertNull(entries.get(1).getAttributeName());
+        assertEquals(1, entries.get(1).getTotal());
+        assertEquals(0, statistics.getOverflow());
+    }
+
+    @Test
+    public void testPolicyWarmUp() {
+        xssFilter = context.registerInjectActivateService(
+                new XSSFilterImpl(), "warmUpIterations", 3, "warmUpCorpus", new String[] {"<p>warm</p>"});
+        assertEquals("<p>text</p>", xssFilter.filter(ProtectionContext.HTML_HTML_CONTENT, "<p>text</p>"));
+
+        XSSFilterImpl.AntiSamyPolicy policy = xssFilter.getActivePolicy();
+        assertFalse(PolicyWarmUp.DISABLED.isEnabled());
+        assertEquals(0, PolicyWarmUp.DISABLED.run(policy));
+        assertEquals(5, new PolicyWarmUp(Collections.emptyList(), 5, 0).run(policy));
+        assertTrue(new PolicyWarmUp(Collections.emptyList(), Integer.MAX_VALUE, 1).run(policy) < Integer.MAX_VALUE);
+        assertEquals(
+                TimeUnit.MILLISECONDS.toNanos(PolicyWarmUp.MAX_TIMEOUT_MILLIS),
+                new PolicyWarmUp(Collections.emptyList(), 1, 0).getTimeoutNanos());
+        // the warm-up corpus contains disallowed markup, which must not show up in the statistics
+        assertTrue(policy.getPolicyHandler()
+                .getHtmlSanitizer()
+                .getRejectionStatistics()
+                .getEntries()
+                .isEmpty());
+    }
+
+    @Test
+    public void testReconfiguredPolicyIsWarmedUpInTheBackground() throws Exception {
+        String policyPath = "/apps/sling/xss/config.xml";
+        context.load().binaryFile("/configWithoutHref.xml", policyPath);
+        XSSFilterImpl.AntiSamyPolicy initialPolicy = xssFilter.getActivePolicy();
+
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("policyPath", policyPath);
+        properties.put("warmUpIterations", Integer.MAX_VALUE);
+        properties.put("warmUpTime", 500L);
+        long start = System.nanoTime();
+        MockOsgi.modified(xssFilter, context.bundleContext(), properties);
+        // the configuration thread is not blocked by the warm-up, the active policy keeps serving requests
+        assertSame(initialPolicy, xssFilter.getActivePolicy());
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (xssFilter.getActivePolicy() == initialPolicy && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(policyPath, xssFilter.getActivePolicy().getPath());
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(500));
+    }
+
+    @Test
+    public void testPerformanceMonitor() {
+        PerformanceMonitor monitor = new PerformanceMonitor(1, 0, 4);
+        context.registerService(PerformanceMonitor.class, monitor);
+        xssFilter = context.registerInjectActivateService(new XSSFilterImpl());
+        long componentHits = CacheStatistics.POLICY_COMPONENTS.getHits();
+        long verdictHits = CacheStatistics.CSS_PROPERTY_VERDICTS.getHits();
+        for (int i = 0; i < 5; i++) {
+            xssFilter.filter(ProtectionContext.HTML_HTML_CONTENT, "<p style=\"color: red\">text</p>");
+        }
+        xssFilter.isValidHref("https://sling.apache.org");
+        XSSFilterImpl.AntiSamyPolicy.createEmbedded();
+
+        LatencyRecorder.Snapshot filter =
+                monitor.getRecorder(XSSOperation.FILTER_HTML_HTML_CONTENT).snapshot();
+        assertEquals(5, filter.getCalls());
+        assertEquals(5, filter.getSamples());
+        assertTrue(filter.getPercentile(50) <= filter.getMax());
+        assertEquals(
+                1, monitor.getRecorder(XSSOperation.IS_VALID_HREF).snapshot().getCalls());
+        assertEquals(
+                0,
+                monitor.getRecorder(XSSOperation.CHECK_HTML_HTML_CONTENT)
+                        .snapshot()
+                        .getCalls());
+        List<SlowCallLog.Entry> slowCalls = monitor.getSlowCalls().getEntries();
+        assertEquals(4, slowCalls.size());
+        assertEquals(
+                XSSOperation.IS_VALID_HREF.getMetricName(), slowCalls.get(0).getOperation());
+        assertTrue(CacheStatistics.POLICY_COMPONENTS.getHits() > componentHits);
+        assertTrue(CacheStatistics.CSS_PROPERTY_VERDICTS.getHits() >= verdictHits + 4);
+        assertTrue(xssFilter.getActivePolicy().getLoadNanos() > 0);
+    }
+
+    @Test
+    public void testSlowInputLog() {
+        PerformanceMonitor monitor = new PerformanceMonitor(1, 0, 8);
+        context.registerService(PerformanceMonitor.class, monitor);
+        xssFilter = context.registerInjectActivateService(
+                new XSSFilterImpl(), "slowInputThreshold", 0L, "slowInputLogSize", 3, "slowInputCaptureLength", 40);
+        String longUrl = "https://sling.apache.org/" + StringUtils.repeat('a', 20_000) + ".html";
+        String longLink = "<a href=\"" + longUrl + "\">Click</a>";
+        xssFilter.filter(ProtectionContext.HTML_HTML_CONTENT, "<p>first</p>");
+        xssFilter.filter(ProtectionContext.PLAIN_HTML_CONTENT, "<b>plain</b>");
+        assertFalse(xssFilter.check(ProtectionContext.HTML_HTML_CONTENT, "<p onclick=\"alert(1)\">text</p>"));
+        xssFilter.filter(ProtectionContext.HTML_HTML_CONTENT, longLink);
+
+        List<SlowCallLog.Entry> entries = xssFilter.getSlowInputs().getEntries();
+        assertEquals(3, entries.size());
+        SlowCallLog.Entry link = entries.get(0);
+        assertEquals(XSSOperation.FILTER_HTML_HTML_CONTENT.getMetricName(), link.getOperation());
+        assertEquals(ProtectionContext.HTML_HTML_CONTENT.getName(), link.getContext());
+        assertEquals(longLink.length(), link.getInputLength());
+        assertEquals(longLink.length(), link.getOutputLength());
+        assertEquals("largeStack", link.getPath());
+        assertTrue(link.isTruncated());
+        assertEquals(longLink.substring(0, 40), link.getInput());
+        assertEquals(Hashes.sha256(longLink), link.getHash());
+        SlowCallLog.Entry check = entries.get(1);
+        assertEquals(XSSOperation.CHECK_HTML_HTML_CONTENT.getMetricName(), check.getOperation());
+        assertEquals(-1, check.getOutputLength());
+        assertEquals(1, check.getErrors());
+        assertEquals("inline", check.getPath());
+        assertFalse(check.isTruncated());
+        SlowCallLog.Entry plain = entries.get(2);
+        assertEquals(ProtectionContext.PLAIN_HTML_CONTENT.getName(), plain.getContext());
+        assertEquals("<b>plain</b>", plain.getInput());
+        assertNull(plain.getPath());
+        // the monitor does not list the calls the filter keeps with their input a second time
+        assertTrue(monitor.getSlowCalls().getEntries().isEmpty());
+
+        xssFilter = context.registerInjectActivateService(
+                new XSSFilterImpl(), "slowInputThreshold", 0L, "largeStackSize", 0);
+        xssFilter.filter(ProtectionContext.HTML_HTML_CONTENT, longLink);
+        assertEquals("fallback", xssFilter.getSlowInputs().getEntries().get(0).getPath());
+
+        xssFilter = context.registerInjectActivateService(new XSSFilterImpl(), "slowInputLogSize", 0);
+        xssFilter.filter(ProtectionContext.HTML_HTML_CONTENT, "<p>text</p>");
+        assertFalse(xssFilter.getSlowInputs().isEnabled());
+        assertTrue(xssFilter.getSlowInputs().getEntries().isEmpty());
+    }
+
+    @Test
+    public void testPolicyProfile() {
+        xssFilter = context.registerInjectActivateService(new XSSFilterImpl());
+        HtmlSanitizer sanitizer = xssFilter.getActivePolicy().getPolicyHandler().getHtmlSanitizer();
+        String sample = "<p align=\"center\" style=\"color: red; margin: 0\">"
+                + "<a href=\"https://sling.apache.org\" href=\"/other\">link</a></p>"
+                + "<style>p { font-size: 12px }</style><blink>tag</blink>";
+
+        SanitizerProfile profile = sanitizer.profile(sample, 3);
+        assertEquals(3, profile.getIterations());
+        assertTrue(profile.getScanNanos() > 0);
+        Map<String, Long> elements = counts(profile, SanitizerProfile.Category.ELEMENT);
+        assertEquals(3L, elements.get("p"));
+        assertEquals(3L, elements.get("a"));
+        assertEquals(3L, elements.get("blink"));
+        Map<String, Long> attributes = counts(profile, SanitizerProfile.Category.ATTRIBUTE);
+        assertEquals(3L, attributes.get("align literals"));
+        assertTrue(attributes.containsKey("href regexp onsiteURL"));
+        assertTrue(attributes.containsKey("href regexp offsiteURL"));
+        Map<String, Long> properties = counts(profile, SanitizerProfile.Category.CSS_PROPERTY);
+        // the style attribute is allowed globally and on the element, and the joined policy cleans it twice
+        assertEquals(6L, properties.get("color"));
+        assertEquals(6L, properties.get("margin"));
+        assertEquals(3L, properties.get("font-size"));
+        assertEquals(
+                3L,
+                counts(profile, SanitizerProfile.Category.DUPLICATE_ATTRIBUTES).get("a"));
+        // profiling does not count as use of the policy
+        assertTrue(sanitizer.getRejectionStatistics().getEntries().isEmpty());
+    }
+
+    @Test
+    public void testFlightRecorderEvents() throws Exception {
+        assertTrue(FlightRecorderEvents.isAvailable());
+        String input = "<p style=\"color: red\" onclick=\"alert(1)\">text</p>";
+        java.nio.file.Path file = Files.createTempFile("xss", ".jfr");
+        try (Recording recording = new Recording()) {
+            for (String event : new String[] {"Sanitize", "HrefValidation", "HtmlScan", "CssClean", "PolicyUpdate"}) {
+                recording.enable("org.apache.sling.xss." + event).withThreshold(Duration.ZERO);
+            }
+            recording.start();
+            xssFilter = context.registerInjectActivateService(new XSSFilterImpl());
+            xssFilter.filter(ProtectionContext.HTML_HTML_CONTENT, input);
+            xssFilter.isValidHref("https://sling.apache.org");
+            recording.stop();
+            recording.dump(file);
+        }
+        Map<String, RecordedEvent> events = new HashMap<>();
+        try {
+            for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+                events.put(event.getEventType().getName(), event);
+            }
+        } finally {
+            Files.delete(file);
+        }
+
+        RecordedEvent sanitize = events.get("org.apache.sling.xss.Sanitize");
+        assertEquals("filter", sanitize.getString("operation"));
+        assertEquals(ProtectionContext.HTML_HTML_CONTENT.getName(), sanitize.getString("context"));
+        assertEquals(input.length(), sanitize.getLong("inputLength"));
+        assertEquals(1, sanitize.getInt("errors"));
+        assertEquals(XSSFilterImpl.EMBEDDED_POLICY_PATH, sanitize.getString("policyPath"));
+        assertEquals(1, sanitize.getLong("policyGeneration"));
+        RecordedEvent scan = events.get("org.apache.sling.xss.HtmlScan");
+        assertEquals(sanitize.getLong("outputLength"), scan.getLong("outputLength"));
+        assertNull(scan.getString("exceededLimit"));
+        assertFalse(events.get("org.apache.sling.xss.CssClean").getBoolean("styleSheet"));
+        assertTrue(events.get("org.apache.sling.xss.HrefValidation").getBoolean("valid"));
+        assertTrue(events.get("org.apache.sling.xss.PolicyUpdate").getBoolean("changed"));
+    }
+
+    private static Map<String, Long> counts(SanitizerProfile profile, SanitizerProfile.Category category) {
+        Map<String, Long> counts = new HashMap<>();
+        for (SanitizerProfile.Entry entry : profile.getEntries(category)) {
+            counts.put(entry.getRule(), entry.getCount());
+        }
+        return counts;
+    }
+
     private static @NotNull InputStream getPolicyFileAsStream() {
         return Objects.requireNonNull(
                 XSSFilterImplTest.class.getClassLoader().getResourceAsStream(XSSFilterImpl.EMBEDDED_POLICY_PATH),
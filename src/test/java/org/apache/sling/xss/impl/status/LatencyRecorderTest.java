@@ -0,0 +1,54 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.xss.impl.status;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LatencyRecorderTest {
+
+    @Test
+    void percentilesAreWithinTheBucketWidth() {
+        LatencyRecorder recorder = new LatencyRecorder();
+        for (long nanos = 1; nanos <= 10_000; nanos++) {
+            recorder.recordCall(nanos * 1_000);
+        }
+        recorder.recordCall();
+        LatencyRecorder.Snapshot snapshot = recorder.snapshot();
+        assertEquals(10_001, snapshot.getCalls());
+        assertEquals(10_000, snapshot.getSamples());
+        assertEquals(10_000_000, snapshot.getMax());
+        assertEquals(5_000_500, snapshot.getMean());
+        assertEquals(5_000_000, snapshot.getPercentile(50), 5_000_000 / LatencyRecorder.SUB_BUCKETS);
+        assertEquals(9_900_000, snapshot.getPercentile(99), 9_900_000 / LatencyRecorder.SUB_BUCKETS);
+        assertEquals(0, new LatencyRecorder().snapshot().getPercentile(99));
+    }
+
+    @Test
+    void unsampledCallsAreCountedOnly() {
+        LatencyRecorder recorder = new LatencyRecorder();
+        recorder.recordCall();
+        recorder.recordCall();
+        LatencyRecorder.Snapshot snapshot = recorder.snapshot();
+        assertEquals(2, snapshot.getCalls());
+        assertEquals(0, snapshot.getSamples());
+        assertEquals(0, snapshot.getMax());
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.xss.impl.status;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class RejectionStatisticsTest {
+
+    @Test
+    void countsRejectionsPerElementAndAttribute() {
+        RejectionStatistics statistics = new RejectionStatistics(4);
+        statistics.record("p", "onclick", RejectionStatistics.Reason.NO_POLICY);
+        statistics.record("p", "onclick", RejectionStatistics.Reason.NO_POLICY);
+        statistics.record("a", "href", RejectionStatistics.Reason.VALUE_REJECTED);
+        statistics.record("blink", null, RejectionStatistics.Reason.NO_POLICY);
+
+        List<RejectionStatistics.Entry> entries = statistics.getEntries();
+        assertEquals(3, entries.size());
+        assertEquals("p", entries.get(0).getElementName());
+        assertEquals("onclick", entries.get(0).getAttributeName());
+        assertEquals(2, entries.get(0).getCount(RejectionStatistics.Reason.NO_POLICY));
+        assertEquals(0, entries.get(0).getCount(RejectionStatistics.Reason.VALUE_REJECTED));
+        assertEquals(2, entries.get(0).getTotal());
+        assertNull(entries.stream()
+                .filter(entry -> entry.getElementName().equals("blink"))
+                .findFirst()
+                .orElseThrow()
+                .getAttributeName());
+        assertEquals(0, statistics.getOverflow());
+    }
+
+    @Test
+    void countsTheRejectionsOfUntrackedPairsAsOverflow() {
+        RejectionStatistics bounded = new RejectionStatistics(4);
+        for (int i = 0; i < 10; i++) {
+            bounded.record("p", "data-" + i, RejectionStatistics.Reason.NO_POLICY);
+        }
+        assertEquals(4, bounded.getEntries().size());
+        assertEquals(6, bounded.getOverflow());
+    }
+}
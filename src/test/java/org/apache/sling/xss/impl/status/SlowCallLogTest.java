@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.xss.impl.status;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SlowCallLogTest {
+
+    @Test
+    void keepsTheMostRecentSlowCalls() {
+        SlowCallLog log = new SlowCallLog(2, 100);
+        log.record("first", 100, 1);
+        log.record("fast", 99, 2);
+        log.record("second", 200, 3);
+        log.record("third", 300, 4);
+
+        List<SlowCallLog.Entry> entries = log.getEntries();
+        assertEquals(2, entries.size());
+        assertEquals("third", entries.get(0).getOperation());
+        assertEquals(300, entries.get(0).getNanos());
+        assertEquals(4, entries.get(0).getInputLength());
+        assertEquals("second", entries.get(1).getOperation());
+        assertFalse(entries.get(0).isCaptured());
+        assertNull(entries.get(0).getInput());
+        assertFalse(entries.get(0).isTruncated());
+    }
+
+    @Test
+    void capturesInputsUpToTheMaximumLength() {
+        SlowCallLog log = new SlowCallLog(4, 0, 3);
+        log.record("filter", "htmlToHtmlContent", "ab\ud83d\ude00", 4, 10, 1, "inline");
+        log.record("check", "htmlToHtmlContent", null, -1, 10, 0, null);
+
+        List<SlowCallLog.Entry> entries = log.getEntries();
+        SlowCallLog.Entry empty = entries.get(0);
+        assertTrue(empty.isCaptured());
+        assertEquals("", empty.getInput());
+        assertEquals(-1, empty.getOutputLength());
+        assertNull(empty.getPath());
+        SlowCallLog.Entry truncated = entries.get(1);
+        assertEquals("htmlToHtmlContent", truncated.getContext());
+        // a surrogate pair is not split
+        assertEquals("ab", truncated.getInput());
+        assertEquals(4, truncated.getInputLength());
+        assertTrue(truncated.isTruncated());
+        assertEquals(Hashes.sha256("ab\ud83d\ude00"), truncated.getHash());
+        assertEquals(1, truncated.getErrors());
+        assertEquals("inline", truncated.getPath());
+    }
+
+    @Test
+    void disabledLogKeepsNothing() {
+        assertFalse(SlowCallLog.DISABLED.isEnabled());
+        assertFalse(SlowCallLog.DISABLED.isSlow(Long.MAX_VALUE));
+        SlowCallLog.DISABLED.record("filter", Long.MAX_VALUE, 1);
+        assertTrue(SlowCallLog.DISABLED.getEntries().isEmpty());
+    }
+
+    @Test
+    void hashesTheUtf8Representation() {
+        assertEquals("e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855", Hashes.sha256(""));
+        assertEquals(Hashes.sha256("\u00e9".getBytes(StandardCharsets.UTF_8)), Hashes.sha256("\u00e9"));
+    }
+}
@@ -18,6 +18,9 @@
  */
 package org.apache.sling.xss.impl.xml;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
@@ -28,8 +31,12 @@ import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 import org.apache.sling.xss.impl.HtmlSanitizer;
@@ -41,9 +48,14 @@ import org.junit.jupiter.params.converter.ConvertWith;
 import org.junit.jupiter.params.converter.TypedArgumentConverter;
 import org.junit.jupiter.params.provider.ValueSource;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class PolicyTest {
@@ -108,6 +120,191 @@ class PolicyTest {
         }
     }
 
+    @ParameterizedTest
+    @ValueSource(
+            strings = {
+                "SLING-INF/content/config.xml",
+                "configWithoutDifferentCaseDuplicateLiterals.xml",
+                "configWithoutHref.xml",
+                "configWithAdditionalGlobalAndDynamicConditions.xml"
+            })
+    void policySnapshotRoundTrip(@Resource Path configFile) throws Exception {
+        AntiSamyRules rules;
+        try (InputStream input = Files.newInputStream(configFile)) {
+            rules = new AntiSamyXmlParser().createRules(input);
+        }
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        PolicySnapshot.write(rules, snapshot);
+        AntiSamyRules restored = PolicySnapshot.read(new ByteArrayInputStream(snapshot.toByteArray()));
+        ByteArrayOutputStream restoredSnapshot = new ByteArrayOutputStream();
+        PolicySnapshot.write(restored, restoredSnapshot);
+        assertArrayEquals(snapshot.toByteArray(), restoredSnapshot.toByteArray());
+
+        AntiSamyPolicy parsed = new AntiSamyPolicy(rules);
+        AntiSamyPolicy loaded = new AntiSamyPolicy(restored);
+        assertEquals(parsed.getDirectives(), loaded.getDirectives());
+        assertEquals(parsed.getAllowedEmptyTags(), loaded.getAllowedEmptyTags());
+        assertEquals(parsed.getTagRules().keySet(), loaded.getTagRules().keySet());
+        assertEquals(parsed.getCssRules().keySet(), loaded.getCssRules().keySet());
+        assertEquals(
+                parsed.getGlobalAttributes().keySet(),
+                loaded.getGlobalAttributes().keySet());
+        assertEquals(
+                parsed.getDynamicAttributes().keySet(),
+                loaded.getDynamicAttributes().keySet());
+        assertEquals(
+                parsed.getCommonRegularExpressions().size(),
+                loaded.getCommonRegularExpressions().size());
+        parsed.getCommonRegularExpressions()
+                .forEach((name, pattern) -> assertEquals(
+                        pattern.pattern(),
+                        loaded.getCommonRegularExpressions().get(name).pattern()));
+    }
+
+    @Test
+    void patternsAreCompiledOncePerPolicy() throws Exception {
+        try (InputStream input =
+                AntiSamyPolicy.class.getClassLoader().getResourceAsStream("SLING-INF/content/config.xml")) {
+            AntiSamyPolicy policy = new AntiSamyPolicy(input);
+            Map<String, Pattern> patterns = new HashMap<>();
+            policy.getTagRules().values().stream()
+                    .flatMap(tag -> tag.getAttributeList().stream())
+                    .flatMap(attribute -> attribute.getRegexpList().stream())
+                    .forEach(regexp -> assertSame(
+                            patterns.computeIfAbsent(regexp.getValue(), value -> regexp.getPattern()),
+                            regexp.getPattern(),
+                            regexp.getValue()));
+            policy.getCssRules().values().stream()
+                    .flatMap(property -> property.getRegexpList().stream())
+                    .forEach(regexp -> assertSame(
+                            patterns.computeIfAbsent(regexp.getValue(), value -> regexp.getPattern()),
+                            regexp.getPattern(),
+                            regexp.getValue()));
+            assertFalse(patterns.isEmpty());
+        }
+    }
+
+    @Test
+    void compiledPropertyValidatorsMatchPropertyDefinitions() throws Exception {
+        try (InputStream input =
+                AntiSamyPolicy.class.getClassLoader().getResourceAsStream("SLING-INF/content/config.xml")) {
+            AntiSamyPolicy policy = new AntiSamyPolicy(input);
+            CssPolicy cssPolicy = policy.getCssPolicy();
+            Set<String> values = new HashSet<>(Arrays.asList(
+                    "0",
+                    "10px",
+                    "-1.5em",
+                    "50%",
+                    "red",
+                    "#fff",
+                    "#12345g",
+                    "rgb(1,2,3)",
+                    "url(http://example.com/a.png)",
+                    "url(javascript:alert(1))",
+                    "expression(alert(1))",
+                    "\"Times New Roman\"",
+                    "bold",
+                    "inherit",
+                    ",",
+                    ""));
+            policy.getCssRules().values().forEach(property -> values.addAll(property.getLiterals()));
+            for (String name : policy.getCssRules().keySet()) {
+                for (String value : values) {
+                    boolean expected = isValidPropertyValue(policy.getCssRules(), name, value, 0);
+                    assertEquals(expected, cssPolicy.isValidPropertyValue(name, value), name + ": " + value);
+                    // second call is answered from the verdict cache
+                    assertEquals(expected, cssPolicy.isValidPropertyValue(name, value), name + ": " + value);
+                }
+            }
+            assertFalse(cssPolicy.isValidPropertyValue("unknown", "0"));
+        }
+    }
+
+    @Test
+    void propertyRegexpsWithGroupReferencesAreNotMerged() {
+        assertTrue(PropertyValidator.isMergeable("(?:[a-z]+)(\\s+\\d)?"));
+        assertTrue(PropertyValidator.isMergeable("(?!expression)[a-z]+"));
+        assertFalse(PropertyValidator.isMergeable("(a)\\1"));
+        assertFalse(PropertyValidator.isMergeable("(?<n>a)\\k<n>"));
+        assertFalse(PropertyValidator.isMergeable("(?i)a"));
+        assertFalse(PropertyValidator.isMergeable("\\Qa|b"));
+    }
+
+    @Test
+    void includeExcludeMatcher() {
+        Pattern include = Pattern.compile("\\.[a-zA-Z0-9\\-_]+", Pattern.DOTALL);
+        Pattern exclude = Pattern.compile("\\.(secret|admin-.*)", Pattern.DOTALL);
+        IncludeExcludeMatcher matcher = new IncludeExcludeMatcher(include, exclude);
+        for (String name : Arrays.asList(".a", ".secret", ".secrets", ".admin-x", ".admin", "a", "", ".a\n")) {
+            boolean expected =
+                    include.matcher(name).matches() && !exclude.matcher(name).matches();
+            assertEquals(expected, matcher.matches(name), name);
+            assertEquals(expected, matcher.matches(name), name);
+        }
+        IncludeExcludeMatcher withEmptyExclusion =
+                new IncludeExcludeMatcher(include, Pattern.compile("", Pattern.DOTALL));
+        assertTrue(withEmptyExclusion.matches(".a"));
+        assertFalse(withEmptyExclusion.matches(""));
+        IncludeExcludeMatcher withoutExclusion = new IncludeExcludeMatcher(include, null);
+        assertTrue(withoutExclusion.matches(".secret"));
+    }
+
+    @Test
+    void regexpAnalyzer() throws Exception {
+        RegexpAnalyzer.Finding cubic = RegexpAnalyzer.analyze(Pattern.compile("(x+x+)+y"));
+        assertNotNull(cubic);
+        assertEquals(RegexpAnalyzer.Issue.NESTED_QUANTIFIER, cubic.getIssue());
+        assertEquals("(x+x+)+", cubic.getGroup());
+        assertTrue(cubic.isConfirmed());
+
+        RegexpAnalyzer.Finding ambiguous = RegexpAnalyzer.analyze(Pattern.compile("(\\w|\\d)+$"));
+        assertNotNull(ambiguous);
+        assertEquals(RegexpAnalyzer.Issue.AMBIGUOUS_ALTERNATION, ambiguous.getIssue());
+        assertEquals("(\\w|\\d)+", ambiguous.getGroup());
+
+        // repeated, but every input can only be matched in one way
+        assertNull(RegexpAnalyzer.analyze(Pattern.compile("(\\d)+(%{0,1})")));
+        assertNull(RegexpAnalyzer.analyze(Pattern.compile("(/(?:[a-z]|%[0-9])+/?)*")));
+        assertNull(RegexpAnalyzer.analyze(Pattern.compile("([\\p{L}\\p{N},'\\.\\s]|&[0-9]{2};)*")));
+        // possessive quantifiers never backtrack
+        assertNull(RegexpAnalyzer.analyze(Pattern.compile("(x+x+)++y")));
+
+        String defaultPolicy;
+        try (InputStream input =
+                AntiSamyPolicy.class.getClassLoader().getResourceAsStream("SLING-INF/content/config.xml")) {
+            defaultPolicy = new String(input.readAllBytes(), UTF_8);
+        }
+        assertTrue(new AntiSamyPolicy(new ByteArrayInputStream(defaultPolicy.getBytes(UTF_8)))
+                .getUnsafeRegexps()
+                .isEmpty());
+        String unsafePolicy = defaultPolicy.replace(
+                "<regexp name=\"anything\" value=\".*\"/>",
+                "<regexp name=\"anything\" value=\".*\"/><regexp name=\"unsafe\" value=\"(x+x+)+y\"/>");
+        Map<String, RegexpAnalyzer.Finding> unsafeRegexps =
+                new AntiSamyPolicy(new ByteArrayInputStream(unsafePolicy.getBytes(UTF_8))).getUnsafeRegexps();
+        assertEquals(1, unsafeRegexps.size());
+        assertTrue(unsafeRegexps.get("unsafe").isConfirmed());
+    }
+
+    private static boolean isValidPropertyValue(Map<String, Property> cssRules, String name, String value, int depth) {
+        Property property = cssRules.get(name);
+        if (property == null || depth > cssRules.size()) {
+            return false;
+        }
+        return property.getLiterals().contains(value)
+                || property.getRegexps().stream()
+                        .anyMatch(pattern -> pattern.matcher(value).matches())
+                || property.getShorthands().stream()
+                        .anyMatch(shorthand -> isValidPropertyValue(cssRules, shorthand, value, depth + 1));
+    }
+
+    @Test
+    void policySnapshotRejectsUnknownContent() {
+        assertThrows(
+                IOException.class,
+                () -> PolicySnapshot.read(new ByteArrayInputStream("<anti-samy-rules/>".getBytes(UTF_8))));
+    }
+
     @Target({ElementType.PARAMETER})
     @Retention(RetentionPolicy.RUNTIME)
     @ConvertWith(LoadResource.class)